@@ -0,0 +1,278 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import uk.ac.abdn.iotstreams.util.Logging;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+/**
+ *
+ * @author nhc
+ *
+ * A BinaryRdfReader reads the batches of triples or the quadruples written
+ * by a BinaryRdfWriter, see there for the encoding.
+ */
+public final class BinaryRdfReader implements Closeable {
+    /** Stream to read from */
+    private final InputStream in;
+
+    /** Terms read since the last reset, by ID - 1 */
+    private final List<Node> terms = new ArrayList<>();
+
+    /** Namespaces read since the last reset, by ID - 1 */
+    private final List<String> namespaces = new ArrayList<>();
+
+    /** Time of the record read last */
+    private long time = 0;
+
+    /**
+     * Reads and checks MAGIC.
+     * @param in Stream to read from
+     * @throws IOException if reading failed, or the stream is not binary RDF
+     */
+    public BinaryRdfReader(final InputStream in) throws IOException {
+        this.in = in.markSupported() ? in : new BufferedInputStream(in);
+        final byte[] magic = new byte[BinaryRdfWriter.MAGIC.length];
+        this.readFully(magic);
+        if (!Arrays.equals(magic, BinaryRdfWriter.MAGIC)) {
+            throw new IOException("Not binary RDF written by this version of BinaryRdfWriter");
+        }
+    }
+
+    /**
+     * Reads every batch of a file, which is gunzipped if its name ends with ".gz".
+     * A file that ends within a batch, e.g. because its writer crashed, is read up to that batch.
+     * @param file A file written by a BinaryRdfWriter
+     * @return The triples of every batch
+     * @throws IOException if the file could not be read
+     */
+    public static Model read(final Path file) throws IOException {
+        final Model model = ModelFactory.createDefaultModel();
+        try (final BinaryRdfReader reader = new BinaryRdfReader(open(file))) {
+            for (Model batch = reader.next(); batch != null; batch = reader.next()) {
+                model.add(batch);
+            }
+        } catch (final EOFException e) {
+            Logging.warn(String.format("%s ends within a batch, which was skipped", file));
+        }
+        return model;
+    }
+
+    /**
+     * @param file A file written by a BinaryRdfWriter
+     * @return A stream of the file, gunzipped if its name ends with ".gz"
+     * @throws IOException if the file could not be opened
+     */
+    public static InputStream open(final Path file) throws IOException {
+        final InputStream stream = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+        return file.getFileName().toString().endsWith(".gz")
+                ? new BufferedInputStream(new GZIPInputStream(stream, 1 << 16), 1 << 16)
+                : stream;
+    }
+
+    /**
+     * Reads the next batch.
+     * @return The triples of the batch, or null at the end of the stream
+     * @throws EOFException if the stream ends within a batch
+     * @throws IOException if reading failed
+     */
+    public Model next() throws IOException {
+        if (!this.startRecord(BinaryRdfWriter.BATCH)) {
+            return null;
+        }
+        final long size = this.readVarint();
+        final Model batch = ModelFactory.createDefaultModel();
+        final Graph graph = batch.getGraph();
+        for (long i = 0; i < size; i++) {
+            graph.add(Triple.create(this.readTerm(), this.readTerm(), this.readTerm()));
+        }
+        return batch;
+    }
+
+    /**
+     * Reads the next quadruple.
+     * @return The quadruple, with its terms encoded by the TermDictionary, or null at the end of the stream
+     * @throws EOFException if the stream ends within a quadruple
+     * @throws IOException if reading failed
+     */
+    public RdfQuadruple nextQuadruple() throws IOException {
+        if (!this.startRecord(BinaryRdfWriter.QUADRUPLE)) {
+            return null;
+        }
+        return new RdfQuadruple(
+                this.readTerm().getURI(),
+                TermDictionary.uri(this.readTerm().getURI()),
+                TermDictionary.term(this.readTerm()),
+                this.time);
+    }
+
+    /**
+     * @return Time of the record read last, as passed to BinaryRdfWriter.write()
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /**
+     * Reads the kind and time of the next record, resetting the term tables as often as told to.
+     * @param expected Kind of record to read, BATCH or QUADRUPLE
+     * @return false at the end of the stream
+     * @throws IOException if reading failed, or the record is of another kind
+     */
+    private boolean startRecord(final int expected) throws IOException {
+        this.in.mark(1);
+        if (this.in.read() < 0) {
+            return false;
+        }
+        this.in.reset();
+        long kind = this.readVarint();
+        while (kind == BinaryRdfWriter.RESET) {
+            this.terms.clear();
+            this.namespaces.clear();
+            kind = this.readVarint();
+        }
+        if (kind != expected) {
+            throw new IOException(String.format("Expected a record of kind %d, found %d", expected, kind));
+        }
+        final long delta = this.readVarint();
+        this.time += (delta >>> 1) ^ -(delta & 1);
+        return true;
+    }
+
+    /**
+     * @return A term, added to the table if it is new
+     * @throws IOException if reading failed
+     */
+    private Node readTerm() throws IOException {
+        final long id = this.readVarint();
+        if (id != 0) {
+            return this.terms.get(this.index(id, this.terms.size()));
+        }
+        final Node node;
+        final long kind = this.readVarint();
+        switch ((int) kind) {
+        case BinaryRdfWriter.URI:
+            final String namespace = this.readNamespace();
+            node = NodeFactory.createURI(namespace + this.readString());
+            break;
+        case BinaryRdfWriter.BLANK:
+            node = NodeFactory.createAnon(AnonId.create(this.readString()));
+            break;
+        case BinaryRdfWriter.PLAIN:
+            node = NodeFactory.createLiteral(this.readString());
+            break;
+        case BinaryRdfWriter.LANG:
+            final String lexicalForm = this.readString();
+            node = NodeFactory.createLiteral(lexicalForm, this.readString(), false);
+            break;
+        case BinaryRdfWriter.TYPED:
+            final String typedLexicalForm = this.readString();
+            node = NodeFactory.createLiteral(
+                    typedLexicalForm,
+                    null,
+                    TypeMapper.getInstance().getSafeTypeByName(this.readTerm().getURI()));
+            break;
+        default:
+            throw new IOException("Unknown term kind " + kind);
+        }
+        this.terms.add(node);
+        return node;
+    }
+
+    /**
+     * @return A namespace, added to the table if it is new
+     * @throws IOException if reading failed
+     */
+    private String readNamespace() throws IOException {
+        final long id = this.readVarint();
+        if (id != 0) {
+            return this.namespaces.get(this.index(id, this.namespaces.size()));
+        }
+        final String namespace = this.readString();
+        this.namespaces.add(namespace);
+        return namespace;
+    }
+
+    /**
+     * @param id An ID read from the stream
+     * @param size Size of the table the ID refers to
+     * @return Index of the ID in the table
+     * @throws IOException if there is no such ID
+     */
+    private int index(final long id, final int size) throws IOException {
+        if (id > size) {
+            throw new IOException("Unknown term ID " + id);
+        }
+        return (int) id - 1;
+    }
+
+    /**
+     * @return A string
+     * @throws IOException if reading failed
+     */
+    private String readString() throws IOException {
+        final byte[] bytes = new byte[(int) this.readVarint()];
+        this.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return A number written by BinaryRdfWriter.writeVarint()
+     * @throws IOException if reading failed
+     */
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = this.in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * @param bytes Buffer to fill from the stream
+     * @throws IOException if reading failed
+     */
+    private void readFully(final byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            final int n = this.in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+/**
+ *
+ * @author nhc
+ *
+ * A BinaryRdfWriter writes batches of triples, or a stream of C-SPARQL quadruples,
+ * in a compact binary encoding which BinaryRdfReader reads back. The encoding starts with MAGIC, followed by records:
+ *   - BATCH: the time of the batch as a varint difference to the previous record,
+ *     the number of triples as a varint, then the subject, predicate and object of each triple
+ *   - QUADRUPLE: the timestamp as a varint difference to the previous record,
+ *     then the subject, predicate and object
+ *   - RESET: forget every term written so far
+ * A term is written as its ID, a varint. A term that has not been written before is
+ * written as ID 0, followed by its kind and content, and then gets the next ID:
+ *   - URI: the namespace, up to the last '/' or '#', as an ID into a separate table of
+ *     namespaces (0 followed by the namespace if it is new), then the local name
+ *   - BLANK: the label
+ *   - PLAIN: the lexical form
+ *   - LANG: the lexical form, then the language
+ *   - TYPED: the lexical form, then the datatype as a term
+ * Strings are written as their number of UTF-8 bytes, a varint, followed by the bytes.
+ * The tables are reset once they hold MAX_TERMS terms, so memory stays bounded on long runs.
+ */
+public final class BinaryRdfWriter implements Flushable, Closeable {
+    /** Starts every encoding: "FSRDF" and the version */
+    static final byte[] MAGIC = {'F', 'S', 'R', 'D', 'F', 1};
+
+    /** Record kinds */
+    static final int BATCH = 1;
+    static final int RESET = 2;
+    static final int QUADRUPLE = 3;
+
+    /** Term kinds */
+    static final int URI = 1;
+    static final int BLANK = 2;
+    static final int PLAIN = 3;
+    static final int LANG = 4;
+    static final int TYPED = 5;
+
+    /** The term tables are reset once they hold this many terms */
+    private static final int MAX_TERMS = 1 << 20;
+
+    /** Stream to write to, which should be buffered */
+    private final OutputStream out;
+
+    /** ID of each term written since the last reset */
+    private final Map<Node, Long> terms = new HashMap<>();
+
+    /** ID of each namespace written since the last reset */
+    private final Map<String, Long> namespaces = new HashMap<>();
+
+    /** Time of the previous record */
+    private long previousTime = 0;
+
+    /**
+     * Writes MAGIC.
+     * @param out Stream to write to, which should be buffered
+     * @throws IOException if writing failed
+     */
+    public BinaryRdfWriter(final OutputStream out) throws IOException {
+        this.out = out;
+        out.write(MAGIC);
+    }
+
+    /**
+     * Writes a batch of triples.
+     * @param time Time of the batch, e.g. in milliseconds since the epoch
+     * @param batch The triples
+     * @throws IOException if writing failed
+     */
+    public void write(final long time, final Model batch) throws IOException {
+        this.startRecord(BATCH, time);
+        this.writeVarint(batch.size());
+        for (final Triple t : batch.getGraph().find(Node.ANY, Node.ANY, Node.ANY).toList()) {
+            this.writeTerm(t.getSubject());
+            this.writeTerm(t.getPredicate());
+            this.writeTerm(t.getObject());
+        }
+    }
+
+    /**
+     * Writes a quadruple put on the stream of an engine.
+     * @param quad A quadruple whose terms are encoded by the TermDictionary
+     * @throws IOException if writing failed
+     */
+    public void write(final RdfQuadruple quad) throws IOException {
+        this.startRecord(QUADRUPLE, quad.getTimestamp());
+        this.writeTerm(TermDictionary.node(quad.getSubject()));
+        this.writeTerm(TermDictionary.vocabularyNode(quad.getPredicate()));
+        this.writeTerm(TermDictionary.node(quad.getObject()));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Writes the kind and time of a record, resetting the term tables first if they are full.
+     * @param kind BATCH or QUADRUPLE
+     * @param time Time of the record
+     * @throws IOException if writing failed
+     */
+    private void startRecord(final int kind, final long time) throws IOException {
+        if (this.terms.size() + this.namespaces.size() >= MAX_TERMS) {
+            this.writeVarint(RESET);
+            this.terms.clear();
+            this.namespaces.clear();
+        }
+        this.writeVarint(kind);
+        this.writeVarint(zigzag(time - this.previousTime));
+        this.previousTime = time;
+    }
+
+    /**
+     * @param node A concrete node
+     * @throws IOException if writing failed
+     */
+    private void writeTerm(final Node node) throws IOException {
+        final Long id = this.terms.get(node);
+        if (id != null) {
+            this.writeVarint(id);
+            return;
+        }
+        this.writeVarint(0);
+        if (node.isURI()) {
+            final String uri = node.getURI();
+            final int split = Math.max(uri.lastIndexOf('/'), uri.lastIndexOf('#')) + 1;
+            this.writeVarint(URI);
+            this.writeNamespace(uri.substring(0, split));
+            this.writeString(uri.substring(split));
+        } else if (node.isBlank()) {
+            this.writeVarint(BLANK);
+            this.writeString(node.getBlankNodeLabel());
+        } else if (node.getLiteralDatatypeURI() != null) {
+            this.writeVarint(TYPED);
+            this.writeString(node.getLiteralLexicalForm());
+            this.writeTerm(TermDictionary.vocabularyNode(node.getLiteralDatatypeURI()));
+        } else if (!node.getLiteralLanguage().isEmpty()) {
+            this.writeVarint(LANG);
+            this.writeString(node.getLiteralLexicalForm());
+            this.writeString(node.getLiteralLanguage());
+        } else {
+            this.writeVarint(PLAIN);
+            this.writeString(node.getLiteralLexicalForm());
+        }
+        //IDs are assigned after the content, as the reader does
+        this.terms.put(node, (long) this.terms.size() + 1);
+    }
+
+    /**
+     * @param namespace Start of a URI
+     * @throws IOException if writing failed
+     */
+    private void writeNamespace(final String namespace) throws IOException {
+        final Long id = this.namespaces.get(namespace);
+        if (id != null) {
+            this.writeVarint(id);
+            return;
+        }
+        this.writeVarint(0);
+        this.writeString(namespace);
+        this.namespaces.put(namespace, (long) this.namespaces.size() + 1);
+    }
+
+    /**
+     * @param s Any string
+     * @throws IOException if writing failed
+     */
+    private void writeString(final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        this.writeVarint(bytes.length);
+        this.out.write(bytes);
+    }
+
+    /**
+     * Writes 7 bits per byte, least significant first, setting the high bit of every byte but the last.
+     * @param value A non-negative number
+     * @throws IOException if writing failed
+     */
+    private void writeVarint(final long value) throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            this.out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        this.out.write((int) v);
+    }
+
+    /**
+     * @param value Any number
+     * @return value mapped to a non-negative number, small if value is close to 0
+     */
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
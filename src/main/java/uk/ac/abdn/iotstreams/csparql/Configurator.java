@@ -2,26 +2,44 @@ package uk.ac.abdn.iotstreams.csparql;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.text.ParseException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.hp.hpl.jena.rdf.model.Model;
 
 import eu.larkc.csparql.core.engine.CsparqlEngine;
+import eu.larkc.csparql.core.engine.CsparqlQueryResultProxy;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
 import uk.ac.abdn.iotstreams.util.Logging;
 
 /**
- * 
+ *
  * @author nhc
  *
  * A Configurator loads configuration from a directory
  * and configures a given C-SPARQL Engine accordingly.
+ * Each subdirectory defines one query and its IotStreamsFormatter.
+ * Once asked to watch(), it reloads the subdirectories whose files change,
+ * leaving the other queries, their windows and their warm state alone.
  */
 final class Configurator {
     /** Charset used for decoding all meat probe files */
@@ -29,85 +47,287 @@ final class Configurator {
 
     private static final String QUERY_FILE = "csparql-query.rq";
     private static final String OWL_FILE = "init.ttl";
-    
+    private static final String WARM_STATE_FILE = "warm-state.properties";
+
     /** Root of all configuration files */
     private static final Path CONFIG_ROOT = Paths.get("config/iotstreams/");
-    
+
+    /** Time to wait for further changes before reloading, so that files being saved are complete */
+    private static final long SETTLE_MILLIS = 500;
+
     /** The engine to configure */
     private final CsparqlEngine engine;
 
-    /** Observer for each query */
-    private Map<String, IotStreamsFormatter> observers = new HashMap<>();
+    /** The registered queries, by name */
+    private final Map<String, Query> queries = new HashMap<>();
 
     /** The persistent model to add inferred provenance to */
     private final Consumer<Model> persistentModel;
-    
+
+    /** The watched directory of each watch key */
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+
+    /** The directory holding a subdirectory per query */
+    private final Path root;
+
     /**
      * Registers the engine to configure
      * @param engine The engine to configure
      * @param persistentModel The object to pass inferred provenance to
      */
     public Configurator(final CsparqlEngine engine, final Consumer<Model> persistentModel) {
+        this(engine, persistentModel, CONFIG_ROOT);
+    }
+
+    /**
+     * Registers the engine to configure from another directory than CONFIG_ROOT
+     * @param engine The engine to configure
+     * @param persistentModel The object to pass inferred provenance to
+     * @param root The directory holding a subdirectory per query
+     */
+    Configurator(final CsparqlEngine engine, final Consumer<Model> persistentModel, final Path root) {
         this.engine = engine;
         this.persistentModel = persistentModel;
+        this.root = root;
+        for (final Path entry : list(this.root)) {
+            if (!Files.isDirectory(entry)) {
+                throw IotStreamsException.configurationError(String.format(
+                        "Unexpected file %s, only directories are expected in %s",
+                        entry,
+                        this.root));
+            }
+            this.load(entry.getFileName().toString()).ifPresent(this::register);
+        }
+    }
+
+    /**
+     * Starts watching the configuration directory on a daemon thread.
+     * When files in a query's subdirectory are created, changed or deleted, the query is reloaded:
+     *   - If only its SPARQL updates, ontology or warm state bound changed, its C-SPARQL query
+     *     stays registered, keeping its windows, and a new IotStreamsFormatter takes over the warm state.
+     *   - If its C-SPARQL query changed, the old query is unregistered, then the new one registered.
+     *     If the new one does not register, the old one is registered again.
+     *   - If its C-SPARQL query was deleted, it is unregistered.
+     * If the changed configuration cannot be loaded, e.g. because it does not parse,
+     * a warning is logged and the previous configuration keeps running.
+     */
+    void watch() {
         try {
-            Files.walk(CONFIG_ROOT)
-                .filter(Files::isRegularFile)
-                .forEach(this::addFile);
+            final WatchService watcher = this.root.getFileSystem().newWatchService();
+            this.watchTree(watcher, this.root);
+            final Thread thread = new Thread(() -> this.watch(watcher), "config-watcher");
+            thread.setDaemon(true);
+            thread.start();
         } catch (final IOException e) {
             throw IotStreamsException.configurationError(e);
         }
+        Logging.info(String.format("Reloading queries when %s changes", this.root));
     }
-    
+
     /**
-     * Reads file content and interprets the file path in order to add this content
-     * to the right place.
-     * @param file A file in the configuration dir.
+     * Reads the files of a query's subdirectory into a new IotStreamsFormatter,
+     * interpreting the path of each file in order to add its content to the right place.
+     * Hidden files, e.g. left by editors, are skipped.
+     * @param name Name of the subdirectory
+     * @return The query, or empty if the subdirectory has no C-SPARQL query
      */
-    private void addFile(final Path file) {
-        Logging.info(file.toString());
-        final String content = read(file);
-        final Path rel = CONFIG_ROOT.relativize(file);
-        if (rel.getNameCount() == 2 && rel.getFileName().toString().equals(QUERY_FILE)) {
-            //<CONFIG_ROOT>/<name>/csparql-query.rq: A C-SPARQL query
-            this.registerQuery(rel.getName(0), content);
-        } else if (rel.getNameCount() == 2 && rel.getFileName().toString().equals(OWL_FILE)) {
-            //<CONFIG_ROOT>/<name>/init.ttl: A TTL ontology for initializing our Jena model
-            formatter(rel.getName(0)).setOntology(content);
-        } else if (rel.getNameCount() == 3 && rel.getFileName().toString().endsWith(".rq")) {
-            //<CONFIG_ROOT>/<name>/[coldstart/warm]/<othername>: A SPARQL update to be executed on the output of a query
-            formatter(rel.getName(0)).addSparql(
-                    rel.getName(1).toString(), 
-                    rel.getName(2).toString(), 
-                    content);
-        } else {
-            throw IotStreamsException.configurationError(String.format("Unexpected file %s at depth %d, filename=%s", rel.toString(), rel.getNameCount(), rel.getFileName().toString()));
+    private Optional<Query> load(final String name) {
+        final IotStreamsFormatter formatter = new IotStreamsFormatter(name, this.persistentModel);
+        String text = null;
+        for (final Path file : walk(this.root.resolve(name))) {
+            Logging.info(file.toString());
+            final String content = read(file);
+            final Path rel = this.root.relativize(file);
+            if (rel.getNameCount() == 2 && rel.getFileName().toString().equals(QUERY_FILE)) {
+                //<CONFIG_ROOT>/<name>/csparql-query.rq: A C-SPARQL query
+                text = content;
+            } else if (rel.getNameCount() == 2 && rel.getFileName().toString().equals(OWL_FILE)) {
+                //<CONFIG_ROOT>/<name>/init.ttl: A TTL ontology for initializing our Jena model
+                formatter.setOntology(content);
+            } else if (rel.getNameCount() == 2 && rel.getFileName().toString().equals(WARM_STATE_FILE)) {
+                //<CONFIG_ROOT>/<name>/warm-state.properties: Limits on provenance carried between windows
+                formatter.setWarmStateBound(WarmStateBound.parse(content));
+            } else if (rel.getNameCount() == 3 && rel.getFileName().toString().endsWith(".rq")) {
+                //<CONFIG_ROOT>/<name>/[coldstart/warm]/<othername>: A SPARQL update to be executed on the output of a query
+                formatter.addSparql(
+                        rel.getName(1).toString(),
+                        rel.getName(2).toString(),
+                        content);
+            } else {
+                throw IotStreamsException.configurationError(String.format("Unexpected file %s at depth %d, filename=%s", rel.toString(), rel.getNameCount(), rel.getFileName().toString()));
+            }
         }
+        return text == null ? Optional.empty() : Optional.of(new Query(name, text, formatter));
     }
-    
+
     /**
-     * Registers a new C-SPARQL query.
-     * @param name Derived from the file path
-     * @param content The text of the C-SPARQL query
+     * Registers a new C-SPARQL query, observed by a Relay to its IotStreamsFormatter.
+     * @param query The loaded query
      */
-    private void registerQuery(final Path name, final String content) {
+    private void register(final Query query) {
         try {
-            this.engine.registerQuery(
-                    content, 
-                    false)
-                .addObserver(formatter(name));
+            query.proxy = this.engine.registerQuery(
+                    query.text,
+                    false);
+            query.relay = new Relay(query.formatter);
+            query.proxy.addObserver(query.relay);
         } catch (final ParseException e) {
             throw IotStreamsException.configurationError(e);
         }
+        this.queries.put(query.name, query);
     }
-    
-    private IotStreamsFormatter formatter(final Path nameAsPath) {
-        final String name = nameAsPath.toString();
-        if (!this.observers.containsKey(name)){
-            this.observers.put(name, new IotStreamsFormatter(name, this.persistentModel));
+
+    /**
+     * Unregisters a C-SPARQL query. If the engine fails to unregister it,
+     * the query is left registered and observed, and the failure is thrown.
+     * @param query A registered query
+     */
+    private void unregister(final Query query) {
+        this.engine.unregisterQuery(query.proxy.getId());
+        query.proxy.deleteObserver(query.relay);
+        this.queries.remove(query.name);
+    }
+
+    /**
+     * Reloads a query whose subdirectory changed, see watch().
+     * @param name Name of the subdirectory
+     */
+    void reload(final String name) {
+        final Query old = this.queries.get(name);
+        final Optional<Query> loaded;
+        try {
+            loaded = Files.isDirectory(this.root.resolve(name)) ? this.load(name) : Optional.empty();
+        } catch (final IotStreamsException e) {
+            Logging.warn(String.format("Keeping the previous configuration of query %s: %s", name, e.getMessage()));
+            return;
+        }
+        if (!loaded.isPresent()) {
+            if (old != null) {
+                this.unregister(old);
+                Logging.info(String.format("Unregistered query %s", name));
+            }
+            return;
+        }
+        final Query query = loaded.get();
+        if (old != null && old.text.equals(query.text)) {
+            //Same C-SPARQL query: keep its windows, and hand its warm state over between windows
+            query.proxy = old.proxy;
+            query.relay = old.relay;
+            query.relay.handOver(query.formatter);
+            this.queries.put(name, query);
+            Logging.info(String.format("Reloaded the SPARQL updates of query %s", name));
+            return;
+        }
+        if (old != null) {
+            //Unregister first, so that a failure leaves the query registered once, as it was
+            this.unregister(old);
+        }
+        try {
+            this.register(query);
+        } catch (final IotStreamsException e) {
+            if (old != null) {
+                this.register(old);
+            }
+            Logging.warn(String.format("Keeping the previous configuration of query %s: %s", name, e.getMessage()));
+            return;
+        }
+        Logging.info(String.format("Registered query %s", name));
+    }
+
+    /**
+     * Runs on the watching thread: reloads the queries whose files change, until the thread is interrupted.
+     * @param watcher Reports changes in the watched directories
+     */
+    private void watch(final WatchService watcher) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Set<String> changed = new TreeSet<>();
+                //Collect changes until none have been made for SETTLE_MILLIS
+                WatchKey key = watcher.take();
+                while (key != null) {
+                    final Path dir = this.watched.get(key);
+                    for (final WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            //Events were lost: reload everything
+                            list(this.root).forEach(entry -> changed.add(entry.getFileName().toString()));
+                            changed.addAll(this.queries.keySet());
+                        } else {
+                            final Path path = dir.resolve((Path) event.context());
+                            if (Files.isDirectory(path)) {
+                                this.watchTree(watcher, path);
+                            }
+                            changed.add(this.root.relativize(path).getName(0).toString());
+                        }
+                    }
+                    if (!key.reset()) {
+                        this.watched.remove(key);
+                    }
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                for (final String name : changed) {
+                    try {
+                        this.reload(name);
+                    } catch (final RuntimeException e) {
+                        Logging.warn(String.format("Could not reload query %s: %s", name, e));
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException | IOException e) {
+            Logging.warn(String.format("Stopped watching %s: %s", this.root, e));
         }
-        return this.observers.get(name.toString());
     }
+
+    /**
+     * @param watcher Reports changes in the watched directories
+     * @param dir A directory to watch with all its subdirectories
+     * @throws IOException if the directory could not be watched
+     */
+    private void watchTree(final WatchService watcher, final Path dir) throws IOException {
+        try (final Stream<Path> dirs = Files.walk(dir)) {
+            for (final Path d : dirs.filter(Files::isDirectory).collect(Collectors.toList())) {
+                if (!this.watched.containsValue(d)) {
+                    this.watched.put(
+                            d.register(
+                                    watcher,
+                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY,
+                                    StandardWatchEventKinds.ENTRY_DELETE),
+                            d);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param dir A directory
+     * @return The files and directories in dir, ordered by path
+     */
+    private static List<Path> list(final Path dir) {
+        try (final Stream<Path> entries = Files.list(dir)) {
+            return entries.sorted().collect(Collectors.toList());
+        } catch (final IOException e) {
+            throw IotStreamsException.configurationError(e);
+        }
+    }
+
+    /**
+     * @param dir A directory
+     * @return The regular files in dir and its subdirectories that are not hidden, ordered by path
+     */
+    private static List<Path> walk(final Path dir) {
+        try (final Stream<Path> files = Files.walk(dir)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().startsWith("."))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (final IOException e) {
+            throw IotStreamsException.configurationError(e);
+        }
+    }
+
     /**
      * Utility for reading a file entirely, as ISO88591
      * @param file Any regular file
@@ -120,4 +340,59 @@ final class Configurator {
             throw IotStreamsException.configurationError(e);
         }
     }
+
+    /**
+     * A C-SPARQL query and the IotStreamsFormatter its windows are passed to, loaded from one subdirectory.
+     */
+    private static final class Query {
+        /** Name of the subdirectory */
+        private final String name;
+
+        /** Text of the C-SPARQL query */
+        private final String text;
+
+        /** Runs the SPARQL updates on each window of the query */
+        private final IotStreamsFormatter formatter;
+
+        /** The registration of the query in the engine, once registered */
+        private CsparqlQueryResultProxy proxy = null;
+
+        /** The only observer of proxy, once registered, shared with the queries reloaded from this one */
+        private Relay relay = null;
+
+        Query(final String name, final String text, final IotStreamsFormatter formatter) {
+            this.name = name;
+            this.text = text;
+            this.formatter = formatter;
+        }
+    }
+
+    /**
+     * The only observer of a registered C-SPARQL query, passing each window on to the current
+     * IotStreamsFormatter of the query. Reloading hands over to a new formatter here rather than
+     * changing the observers of the query while C-SPARQL may be notifying them, so each window
+     * goes to exactly one formatter, and warm state is only handed over between windows.
+     */
+    private static final class Relay implements Observer {
+        /** The formatter that windows are passed to */
+        private IotStreamsFormatter formatter;
+
+        Relay(final IotStreamsFormatter formatter) {
+            this.formatter = formatter;
+        }
+
+        @Override
+        public synchronized void update(final Observable proxy, final Object rdfTable) {
+            this.formatter.update(proxy, rdfTable);
+        }
+
+        /**
+         * Passes the following windows to a new formatter, which takes over the warm state of the current one.
+         * @param next The formatter replacing the current one
+         */
+        synchronized void handOver(final IotStreamsFormatter next) {
+            next.takeWarmState(this.formatter);
+            this.formatter = next;
+        }
+    }
 }
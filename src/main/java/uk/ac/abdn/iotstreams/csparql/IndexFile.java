@@ -0,0 +1,304 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ *
+ * @author nhc
+ *
+ * An IndexFile is an immutable file of keys of three encoded terms, sorted
+ * by the first term, then the second, then the third, e.g. a subject-predicate-object index.
+ * After the keys, the file holds a sparse index of every BLOCK-th key and its offset,
+ * which is kept in memory so that a scan reads only from the first block that can match.
+ */
+final class IndexFile {
+    /** Orders keys term by term */
+    static final Comparator<String[]> ORDER = (a, b) -> {
+        for (int i = 0; i < 3; i++) {
+            final int c = a[i].compareTo(b[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    };
+
+    /** Number of keys per entry in the sparse index */
+    private static final int BLOCK = 64;
+
+    /** The file */
+    private final Path path;
+
+    /** First key of every block */
+    private final List<String[]> blockKeys = new ArrayList<>();
+
+    /** Offset of every block */
+    private final List<Long> blockOffsets = new ArrayList<>();
+
+    /** Offset of the sparse index, which ends the keys */
+    private final long keysEnd;
+
+    /**
+     * Reads the sparse index of an existing file.
+     * @param path A file written by write()
+     * @throws IOException if the file could not be read
+     */
+    IndexFile(final Path path) throws IOException {
+        this.path = path;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final DataInputStream footer = new DataInputStream(
+                    Channels.newInputStream(channel.position(channel.size() - Long.BYTES)));
+            this.keysEnd = footer.readLong();
+            final DataInputStream index = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(this.keysEnd))));
+            final int numBlocks = index.readInt();
+            for (int i = 0; i < numBlocks; i++) {
+                this.blockKeys.add(readKey(index));
+                this.blockOffsets.add(index.readLong());
+            }
+        }
+    }
+
+    /**
+     * Writes sorted keys to a new file, and forces it to disk.
+     * @param path The file to create
+     * @param keys Keys in ORDER, without duplicates
+     * @return The written file
+     * @throws IOException if the file could not be written
+     */
+    static IndexFile write(final Path path, final Iterator<String[]> keys) throws IOException {
+        try (final FileChannel channel = FileChannel.open(
+                path,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            final CountingOutput counter = new CountingOutput(channel);
+            final DataOutputStream out = new DataOutputStream(counter);
+            final List<String[]> blockKeys = new ArrayList<>();
+            final List<Long> blockOffsets = new ArrayList<>();
+            long numKeys = 0;
+            while (keys.hasNext()) {
+                final String[] key = keys.next();
+                if (numKeys % BLOCK == 0) {
+                    out.flush();
+                    blockKeys.add(key);
+                    blockOffsets.add(counter.written);
+                }
+                writeKey(out, key);
+                numKeys++;
+            }
+            out.flush();
+            final long keysEnd = counter.written;
+            out.writeInt(blockKeys.size());
+            for (int i = 0; i < blockKeys.size(); i++) {
+                writeKey(out, blockKeys.get(i));
+                out.writeLong(blockOffsets.get(i));
+            }
+            out.writeLong(keysEnd);
+            out.flush();
+            channel.force(true);
+        }
+        return new IndexFile(path);
+    }
+
+    /**
+     * Finds the keys from a lower bound for as long as they are within a range.
+     * @param from Lower bound of the keys
+     * @param within Whether a key at or after from is still in the range; once not, the scan stops
+     * @return The keys in the range, in order
+     * @throws IOException if the file could not be read
+     */
+    List<String[]> scan(final String[] from, final Predicate<String[]> within) throws IOException {
+        final List<String[]> found = new ArrayList<>();
+        //The last block starting at or before from
+        int block = -1;
+        int low = 0;
+        int high = this.blockKeys.size() - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (ORDER.compare(this.blockKeys.get(mid), from) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        try (final Keys keys = new Keys(block < 0 ? 0 : this.blockOffsets.get(block))) {
+            while (keys.hasNext()) {
+                final String[] key = keys.next();
+                if (ORDER.compare(key, from) < 0) {
+                    continue;
+                }
+                if (!within.test(key)) {
+                    break;
+                }
+                found.add(key);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return Every key, in order, read as the Keys are consumed; close them if not consumed to the end
+     * @throws IOException if the file could not be opened
+     */
+    Keys iterator() throws IOException {
+        return new Keys(0);
+    }
+
+    /**
+     * @return The file
+     */
+    Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * @param out Stream to write to
+     * @param key Three terms
+     * @throws IOException if writing failed
+     */
+    private static void writeKey(final DataOutputStream out, final String[] key) throws IOException {
+        for (final String term : key) {
+            final byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param in Stream to read from
+     * @return Three terms
+     * @throws IOException if reading failed
+     */
+    private static String[] readKey(final DataInputStream in) throws IOException {
+        final String[] key = new String[3];
+        for (int i = 0; i < 3; i++) {
+            final int length = in.readInt();
+            if (length < 0) {
+                throw new EOFException("Corrupt index file");
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            key[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return key;
+    }
+
+    /**
+     * @param key Three terms
+     * @return Number of bytes writeKey writes for the key
+     */
+    private static long encodedLength(final String[] key) {
+        long length = 0;
+        for (final String term : key) {
+            length += Integer.BYTES + term.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the keys from an offset, in order. The file is closed
+     * when the last key has been read, or when the Keys are closed.
+     */
+    final class Keys implements Iterator<String[]>, Closeable {
+        private final FileChannel channel;
+        private final DataInputStream in;
+        private long position;
+        private String[] next;
+
+        /**
+         * @param offset Offset of a key
+         * @throws IOException if the file could not be opened
+         */
+        Keys(final long offset) throws IOException {
+            this.channel = FileChannel.open(IndexFile.this.path, StandardOpenOption.READ);
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(
+                        Channels.newInputStream(this.channel.position(offset)), 1 << 16));
+                this.position = offset;
+                this.next = this.read();
+            } catch (final IOException | RuntimeException e) {
+                this.channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public String[] next() {
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            final String[] key = this.next;
+            this.next = this.read();
+            return key;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        /**
+         * @return The next key, or null after the last one
+         */
+        private String[] read() {
+            try {
+                if (this.position >= IndexFile.this.keysEnd) {
+                    this.close();
+                    return null;
+                }
+                final String[] key = readKey(this.in);
+                this.position += encodedLength(key);
+                return key;
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes to a channel through a buffer, counting the bytes written.
+     */
+    private static final class CountingOutput extends BufferedOutputStream {
+        private long written = 0;
+
+        CountingOutput(final FileChannel channel) {
+            super(Channels.newOutputStream(channel), 1 << 16);
+        }
+
+        @Override
+        public synchronized void write(final int b) throws IOException {
+            super.write(b);
+            this.written += 1;
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) throws IOException {
+            super.write(b, off, len);
+            this.written += len;
+        }
+    }
+}
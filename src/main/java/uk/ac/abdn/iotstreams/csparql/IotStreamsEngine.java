@@ -1,8 +1,16 @@
 package uk.ac.abdn.iotstreams.csparql;
 
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.ZonedDateTime;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
 
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
 import uk.ac.abdn.iotstreams.util.Logging;
@@ -39,6 +47,18 @@ public final class IotStreamsEngine
     /** Number of quadruples put on stream so far */
     private long numQuads = 0;
     
+    /** Timestamp of the latest quadruple put on stream, in milliseconds since the epoch */
+    private volatile long streamTime = 0;
+    
+    /** Registers the queries of this engine */
+    private final Configurator configurator;
+    
+    /** Records every quadruple put on stream, or null when not recording; only changed and written holding recordingLock */
+    private volatile BinaryRdfWriter recording = null;
+    
+    /** Held while recording a quadruple, and while starting or stopping a recording, which may happen on another thread */
+    private final Object recordingLock = new Object();
+    
     /**
      * Verifies that C-SPARQL is configured for using recorded data,
      * then returns an IotStreamsEngine.
@@ -79,7 +99,15 @@ public final class IotStreamsEngine
         this.persistentModel = persistentModel;
         this.initialize();
         this.registerStream(this.rdfStream);
-        new Configurator(this, this.persistentModel);
+        this.configurator = new Configurator(this, this.persistentModel);
+    }
+    
+    /**
+     * Starts reloading queries when their configuration files change, without restarting the engine.
+     * Only the changed queries are reloaded; the others keep their windows and warm state.
+     */
+    public void reloadQueriesOnChange() {
+        this.configurator.watch();
     }
     
     /**
@@ -107,7 +135,118 @@ public final class IotStreamsEngine
     
 
     /**
-     * Adds all triples in the given model to C-SPARQL
+     * Puts a single quadruple on this engine's stream.
+     * Use this when the triples are produced directly rather than in a Jena Model.
+     * @param quad A quadruple whose object is a URI or a literal encoded by the TermDictionary
+     */
+    public void put(final RdfQuadruple quad) {
+        if (this.recording != null) {
+            synchronized (this.recordingLock) {
+                if (this.recording != null) {
+                    try {
+                        this.recording.write(quad);
+                    } catch (final IOException e) {
+                        throw IotStreamsException.recordingIOfailed(e);
+                    }
+                }
+            }
+        }
+        this.streamTime = quad.getTimestamp();
+        this.rdfStream.put(quad);
+        this.numQuads += 1;
+    }
+    
+    /**
+     * @return Timestamp of the latest quadruple put on stream, in milliseconds since the epoch,
+     * which is the time of the windows closed by putting it
+     */
+    public long getStreamTime() {
+        return this.streamTime;
+    }
+    
+    /**
+     * Starts recording every quadruple put on stream, with its timestamp, to a new file
+     * in the binary encoding of BinaryRdfWriter. The file is only ever appended to,
+     * and is gzipped if its name ends with ".gz". Any previous recording is stopped first.
+     * @param file The file to record to, which must not exist
+     */
+    public void record(final Path file) {
+        synchronized (this.recordingLock) {
+            this.stopRecording();
+            try {
+                final OutputStream stream = Files.newOutputStream(
+                        file, 
+                        StandardOpenOption.CREATE_NEW, 
+                        StandardOpenOption.WRITE);
+                this.recording = new BinaryRdfWriter(file.getFileName().toString().endsWith(".gz")
+                        ? new GZIPOutputStream(stream, 1 << 16, true)
+                        : new BufferedOutputStream(stream, 1 << 16));
+            } catch (final IOException e) {
+                throw IotStreamsException.recordingIOfailed(e);
+            }
+        }
+        Logging.info(String.format("Recording the stream to %s", file));
+    }
+    
+    /**
+     * Stops recording, if recording, and closes the file. May be called on any thread,
+     * e.g. by a shutdown hook while quadruples are being put on stream:
+     * the quadruple being recorded is written in full before the file is closed.
+     */
+    public void stopRecording() {
+        synchronized (this.recordingLock) {
+            if (this.recording != null) {
+                try {
+                    this.recording.close();
+                } catch (final IOException e) {
+                    throw IotStreamsException.recordingIOfailed(e);
+                } finally {
+                    this.recording = null;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Puts the quadruples of a recording on stream as fast as possible, with their recorded timestamps,
+     * so that queries and inferences can be rerun on exactly the same workload.
+     * A recording that ends within a quadruple, e.g. because the recording process was killed,
+     * is replayed up to that quadruple.
+     * @param file A file written by record()
+     * @return Number of quadruples replayed
+     */
+    public long replay(final Path file) {
+        if (!Config.INSTANCE.isEsperUsingExternalTimestamp()) {
+            throw IotStreamsException.configurationError(
+                    "To replay a recording, csparql.properties must contain the line "
+                    + "'esper.externaltime.enabled=true'");
+        }
+        final long start = System.nanoTime();
+        long numReplayed = 0;
+        try (final BinaryRdfReader reader = new BinaryRdfReader(BinaryRdfReader.open(file))) {
+            for (RdfQuadruple quad = reader.nextQuadruple(); quad != null; quad = reader.nextQuadruple()) {
+                this.streamTime = quad.getTimestamp();
+                this.rdfStream.put(quad);
+                numReplayed += 1;
+            }
+        } catch (final EOFException e) {
+            Logging.warn(String.format("%s ends within a quadruple, which was skipped", file));
+        } catch (final IOException e) {
+            throw IotStreamsException.recordingIOfailed(e);
+        }
+        this.numQuads += numReplayed;
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        Logging.info(String.format(
+                "%d quadruples replayed from %s in %.1f s (%.0f quadruples/s)",
+                numReplayed,
+                file,
+                seconds,
+                numReplayed / Math.max(seconds, 1e-9)));
+        return numReplayed;
+    }
+
+    /**
+     * Adds all triples in the given model to C-SPARQL, encoding terms through the TermDictionary
      * @param t Every triple in m will be passed with this timestamp
      * @param m A Model containing the triples to add
      */
@@ -120,17 +259,16 @@ public final class IotStreamsEngine
             if (o.isAnon()) {
                 IotStreamsException.internalError(String.format("Blank node in %s", m.toString()));
             }
-            this.rdfStream.put(new RdfQuadruple(
+            this.put(new RdfQuadruple(
                     triple.getSubject().getURI(),
-                    triple.getPredicate().getURI(),
+                    TermDictionary.uri(triple.getPredicate().getURI()),
                     o.isResource() ? 
                             o.asResource().getURI() : 
-                                String.format(
-                                        "\"%s\"^^%s", 
+                                TermDictionary.literal(
                                         o.asLiteral().getLexicalForm(),
-                                        o.asLiteral().getDatatypeURI()),
+                                        o.asLiteral().getDatatypeURI(),
+                                        o.asLiteral().getLanguage()),
                     timestamp));
-            this.numQuads += 1;
         }
     }
 }
@@ -13,14 +13,19 @@ import java.util.function.Consumer;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
 import uk.ac.abdn.iotstreams.util.Logging;
 
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.compose.Union;
 import com.hp.hpl.jena.ontology.OntModel;
-import com.hp.hpl.jena.ontology.OntModelSpec;
+import com.hp.hpl.jena.query.QueryException;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
-import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Statement;
-import com.hp.hpl.jena.sparql.util.NodeFactoryExtra;
+import com.hp.hpl.jena.reasoner.Reasoner;
+import com.hp.hpl.jena.reasoner.ReasonerRegistry;
 import com.hp.hpl.jena.update.UpdateAction;
+import com.hp.hpl.jena.update.UpdateFactory;
+import com.hp.hpl.jena.update.UpdateRequest;
 
 import eu.larkc.csparql.common.RDFTable;
 import eu.larkc.csparql.common.RDFTuple;
@@ -39,19 +44,25 @@ class IotStreamsFormatter extends ResultFormatter {
     /** Name picked up from directory - used for logging */
     private final String queryName;
     
-    /** The SPARQL update queries to execute */
-    private EnumMap<Stage, HashMap<String, String>> sparqlUpdateQueries =
-            new EnumMap<Stage, HashMap<String, String>>(Stage.class);
+    /** The SPARQL update queries to execute, parsed once when configured */
+    private EnumMap<Stage, HashMap<String, UpdateRequest>> sparqlUpdateQueries =
+            new EnumMap<Stage, HashMap<String, UpdateRequest>>(Stage.class);
 
     /** Model containing the ontology */
     private Optional<OntModel> plan = Optional.empty();
 
+    /** RDFS reasoner with the closure of the ontology computed once, in setOntology() */
+    private Optional<Reasoner> planReasoner = Optional.empty();
+
     /** Model storing the received triples along with the ontology */
-    private Optional<OntModel> m = Optional.empty();
+    private Optional<Model> m = Optional.empty();
 
     /** Model containing the latest provenance found */
     private Optional<Model> oldProv = Optional.empty();
 
+    /** Limits how much of the latest provenance is carried over to the next window */
+    private WarmStateBound warmStateBound = WarmStateBound.UNBOUNDED;
+
     /** Final resting place for inferred provenance */
     private final Consumer<Model> persistentModel;
 
@@ -66,94 +77,84 @@ class IotStreamsFormatter extends ResultFormatter {
         this.persistentModel = persistentModel;
         //Initialize SPARQL update query collections
         for (Stage s : Stage.values()) {
-            this.sparqlUpdateQueries.put(s, new HashMap<String, String>());
+            this.sparqlUpdateQueries.put(s, new HashMap<String, UpdateRequest>());
         }
     }
     
     /**
      * Called when C-Sparql emits a window.
-     * Adds all triples to the internal model, then runs infer().
+     * Collects the window's triples, layers them over the precomputed closure
+     * of the ontology so that only the window's own triples are reasoned over,
+     * then runs infer().
      */
     @Override
     public synchronized void update(final Observable ignored, final Object rdfTableUntyped) {
         final RDFTable rdfTable = (RDFTable) rdfTableUntyped;
-        this.m = Optional.of(ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM_RDFS_INF));
-        this.m.get().add(this.plan.get());
+        final Model window = ModelFactory.createDefaultModel();
         rdfTable.stream()
-            .map(this::convert)
-            .forEach(s -> this.m.get().add(s));
+            .map(t -> convert(t, window))
+            .forEach(window::add);
+        this.m = Optional.of(ModelFactory.createInfModel(this.planReasoner.get(), window));
         this.infer();
     }
     
     /**
-     * Converts a in an RdfTuple to a Jena Statement.
+     * Converts a in an RdfTuple to a Jena Statement, decoding the terms through the TermDictionary.
      * @param t must have URIs as element 0 and 1, and a URI or a Literal as element 2
+     * @param window The model to create the Statement in
      * @return The Statement representing elements 0,1,2 of t
      */
-    private Statement convert(final RDFTuple t) {
-        RDFNode o;
-        final String[] oSplit = t.get(2).split("\\^\\^"); //Split if this is a typed literal
-        if (oSplit.length == 2) {
-            o = this.m.get().asRDFNode(NodeFactoryExtra.createLiteralNode(
-                    oSplit[0].substring(1, oSplit[0].length() - 2), 
-                    null, 
-                    oSplit[1]));
-        } else {
-            o = this.m.get().createResource(t.get(2));            
-        }
+    private static Statement convert(final RDFTuple t, final Model window) {
         try { //Compose and return the Statement
-            return this.m.get().createStatement(
-                    this.m.get().createResource(t.get(0)), 
-                    this.m.get().createProperty(t.get(1)),
-                    o);
+            return window.asStatement(Triple.create(
+                    TermDictionary.node(t.get(0)), 
+                    TermDictionary.vocabularyNode(t.get(1)),
+                    TermDictionary.node(t.get(2))));
         } catch (final Exception e) {
             throw IotStreamsException.internalError(String.format("Problem converting %s", t.get(2)));
         }
     }
 
     /**
-     * Runs coldstart or warm SPARQL queries, updating Jena models as appropriate.
+     * Runs coldstart or warm SPARQL queries over the window (and the previous
+     * provenance, if any) through a ProvenanceDelta, so that only the triples
+     * the queries add are collected and passed on.
      */
     private void infer() {
-        final Model provmod = ModelFactory.createDefaultModel();
-        final long s = provmod.size();
-        provmod.add(this.m.get());
-        if (this.oldProv.isPresent()) {
-            //Note: this modification needs to happen before updating oldProv and persistentModel
-            provmod.add(this.oldProv.get());
-            this.sparqlUpdateQueries.get(Stage.WARM)
-                .forEach((name, query) -> update(name, query, provmod));
-            provmod.remove(this.m.get());
-            provmod.remove(this.oldProv.get());
-            if (provmod.size() > s) { //we inferred something
-                this.oldProv = Optional.of(provmod);
-                this.persistentModel.accept(provmod);
-            }
-        } else { //First run
-            this.sparqlUpdateQueries.get(Stage.COLDSTART)
-                .forEach((name, query) -> update(name, query, provmod));
-            provmod.remove(this.m.get());
-            if (provmod.size() > s) { //we inferred something
-                this.oldProv = Optional.of(provmod);
-                this.persistentModel.accept(provmod);
-            } else { //No inference - error
-                Logging.warn(String.format("The coldstart SPARQL for %s did not infer anything", this.queryName));
-            }
+        final Stage stage = this.oldProv.isPresent() ? Stage.WARM : Stage.COLDSTART;
+        final Graph base = this.oldProv.isPresent()
+                ? new Union(this.m.get().getGraph(), this.oldProv.get().getGraph())
+                : this.m.get().getGraph();
+        final ProvenanceDelta delta = new ProvenanceDelta(base);
+        final Model provmod = ModelFactory.createModelForGraph(delta);
+        this.sparqlUpdateQueries.get(stage)
+            .forEach((name, query) -> update(name, query, provmod, delta));
+        final Model inferred = ModelFactory.createModelForGraph(delta.getAdditions());
+        if (!inferred.isEmpty()) { //we inferred something
+            this.oldProv = Optional.of(this.warmStateBound.compact(inferred, this.m.get()));
+            this.persistentModel.accept(inferred);
+        } else if (stage == Stage.COLDSTART) { //No inference - error
+            Logging.warn(String.format("The coldstart SPARQL for %s did not infer anything", this.queryName));
         }
     }
     
     /**
-     * Parse&execute a SPARQL update query, logging stats about the execution.
+     * Execute a parsed SPARQL update query, logging stats about the execution.
      * @param name Name of the query, for logging
-     * @param query The SPARQL text
+     * @param query The parsed SPARQL update
      * @param provmod The model to update
+     * @param delta The graph underlying provmod, recording what the update adds
      */
-    private void update(final String name, final String query, final Model provmod) {
-        final long beforeSize = provmod.size();
+    private void update(
+            final String name, 
+            final UpdateRequest query, 
+            final Model provmod,
+            final ProvenanceDelta delta) {
+        final long beforeSize = delta.getAdditions().size();
         final Instant before = Instant.now();
-        UpdateAction.parseExecute(query, provmod);
+        UpdateAction.execute(query, provmod);
         final Instant after = Instant.now();
-        final long afterSize = provmod.size();
+        final long afterSize = delta.getAdditions().size();
         Logging.info(String.format(
                 "Query %s update %s: %d ms ; %d triples generated",
                 this.queryName,
@@ -163,24 +164,56 @@ class IotStreamsFormatter extends ResultFormatter {
     }
 
     /**
-     * Adds a SPARQL update query to the given stage.
+     * Parses a SPARQL update query and adds it to the given stage.
      * @param stage Must be "coldstart" or "warm" to decide in which case the query will be executed.
      * @param name name of this update
      * @param content The text of the query.
      */
     public void addSparql(final String stage, final String name, final String content) {
+        final String fullName = String.format("%s/%s", stage, name);
+        final UpdateRequest parsed;
+        try {
+            parsed = UpdateFactory.create(content);
+        } catch (final QueryException e) {
+            throw IotStreamsException.configurationError(String.format(
+                    "SPARQL update %s of query %s: %s", 
+                    fullName,
+                    this.queryName,
+                    e.getMessage()));
+        }
         this.sparqlUpdateQueries.get(Stage.valueOf(stage.toUpperCase())).put(
-                String.format("%s/%s", stage, name), 
-                content);
+                fullName, 
+                parsed);
     }
 
     /**
-     * Loads the given ontology into the internal Jena model.
+     * Loads the given ontology into the internal Jena model
+     * and computes its RDFS closure, which is then reused by every window.
      * @param ontology Ontology, in TTL
      */
     public void setOntology(final String ontology) {
         this.plan = Optional.of(ModelFactory.createOntologyModel());
         plan.get().read(new ByteArrayInputStream(ontology.getBytes(StandardCharsets.ISO_8859_1)), null, "TTL");
+        this.planReasoner = Optional.of(ReasonerRegistry.getRDFSReasoner().bindSchema(plan.get()));
+    }
+    
+    /**
+     * Sets the limits on the provenance carried over between windows.
+     * @param bound The limits, parsed from warm-state.properties
+     */
+    public void setWarmStateBound(final WarmStateBound bound) {
+        this.warmStateBound = bound;
+    }
+    
+    /**
+     * Carries the latest provenance over from the formatter this one replaces,
+     * so that the next window of the query runs the warm updates as it would have.
+     * @param previous The replaced formatter of the same query
+     */
+    void takeWarmState(final IotStreamsFormatter previous) {
+        synchronized (previous) {
+            this.oldProv = previous.oldProv;
+        }
     }
     
     /**
@@ -0,0 +1,74 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+
+/**
+ *
+ * @author nhc
+ *
+ * A ProvenanceDelta is a writable view of a read-only base graph.
+ * SPARQL updates see the base graph with their own changes applied,
+ * but the base graph is never modified: triples added that are not
+ * already in the base graph are recorded as additions, and triples
+ * removed from the base graph are recorded as hidden.
+ * The additions are exactly the newly inferred provenance.
+ */
+final class ProvenanceDelta extends GraphBase {
+    /** The graph the updates read from, never modified */
+    private final Graph base;
+
+    /** Triples added that were not in the base graph */
+    private final Graph additions = Factory.createDefaultGraph();
+
+    /** Triples of the base graph that have been removed */
+    private final Graph deletions = Factory.createDefaultGraph();
+
+    /**
+     * @param base The graph to read from; it will not be modified
+     */
+    ProvenanceDelta(final Graph base) {
+        this.base = base;
+    }
+
+    /**
+     * @return The triples added that were not already in the base graph
+     */
+    Graph getAdditions() {
+        return this.additions;
+    }
+
+    @Override
+    public void performAdd(final Triple t) {
+        this.deletions.delete(t);
+        if (!this.base.contains(t)) {
+            this.additions.add(t);
+        }
+    }
+
+    @Override
+    public void performDelete(final Triple t) {
+        this.additions.delete(t);
+        if (this.base.contains(t)) {
+            this.deletions.add(t);
+        }
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(final TripleMatch m) {
+        final ExtendedIterator<Triple> fromBase = this.deletions.isEmpty()
+                ? this.base.find(m)
+                : this.base.find(m).filterDrop(new Filter<Triple>() {
+                    @Override
+                    public boolean accept(final Triple t) {
+                        return ProvenanceDelta.this.deletions.contains(t);
+                    }
+                });
+        return fromBase.andThen(this.additions.find(m));
+    }
+}
@@ -0,0 +1,298 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.SynchronousQueue;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.riot.RDFDataMgr;
+
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+import uk.ac.abdn.iotstreams.util.Logging;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ *
+ * @author nhc
+ *
+ * A ProvenanceFiles appends each batch of inferred provenance to files in a directory,
+ * as N-Triples, N-Quads or binary RDF (see BinaryRdfWriter), optionally gzipped. A new file is started once the
+ * current one holds a given number of triples; batches are never split between files.
+ * The files are written by a background thread, which takes one batch at a time,
+ * and flushed after every batch, so a crash loses at most the batch being written.
+ * Files are named after the time the ProvenanceFiles was created, e.g.
+ * provenance-20160210T142730Z-0001.nq.gz
+ */
+public final class ProvenanceFiles implements Consumer<Model>, AutoCloseable {
+    /** Ends the writing */
+    private static final Batch END = new Batch(0, ModelFactory.createDefaultModel());
+
+    /** Time in file names */
+    private static final DateTimeFormatter FILE_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    /** Directory to write the files in */
+    private final Path directory;
+
+    /** N-Triples, N-Quads or binary RDF */
+    private final Format format;
+
+    /** Gzip the files? */
+    private final boolean gzip;
+
+    /** A new file is started when the current one holds at least this many triples */
+    private final long maxTriplesPerFile;
+
+    /** Start of every file name and graph name of this run */
+    private final String run;
+
+    /** Hands batches over to the writing thread */
+    private final SynchronousQueue<Batch> batches = new SynchronousQueue<>();
+
+    /** Time of each batch as it is accepted, in milliseconds since the epoch */
+    private volatile LongSupplier batchTime = System::currentTimeMillis;
+
+    /** Writes the batches */
+    private final Thread writer;
+
+    /** Set by the writing thread if writing failed */
+    private volatile RuntimeException failure = null;
+
+    /** The file being written to, or null */
+    private OutputStream out = null;
+
+    /** Encodes batches to the current file if the format is BINARY, or null */
+    private BinaryRdfWriter binary = null;
+
+    /** Number of files started */
+    private int numFiles = 0;
+
+    /** Number of triples in the current file */
+    private long numTriplesInFile = 0;
+
+    /** Number of batches written */
+    private long numBatches = 0;
+
+    /**
+     * Starts the writing thread. Files are only created when provenance is written.
+     * @param directory Directory to write the files in, created if needed
+     * @param format N-Triples, N-Quads or binary RDF
+     * @param gzip Gzip the files?
+     * @param maxTriplesPerFile A new file is started when the current one holds at least this many triples
+     */
+    public ProvenanceFiles(
+            final Path directory,
+            final Format format,
+            final boolean gzip,
+            final long maxTriplesPerFile) {
+        this.directory = directory;
+        this.format = format;
+        this.gzip = gzip;
+        this.maxTriplesPerFile = maxTriplesPerFile;
+        this.run = FILE_TIME.format(Instant.now());
+        this.writer = new Thread(this::write, "provenance-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Sets the time of each batch, which the BINARY format records with the batch.
+     * Until set, a batch is timed when it is accepted.
+     * @param batchTime Time of a batch being accepted, e.g. the stream time of the engine inferring it
+     */
+    public void setBatchTime(final LongSupplier batchTime) {
+        this.batchTime = batchTime;
+    }
+
+    /**
+     * Passes a batch of inferred provenance to the writing thread, waiting while
+     * it writes the previous batch. The batch must not be modified afterwards.
+     * @param batch Provenance inferred from one window
+     */
+    @Override
+    public void accept(final Model batch) {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        if (!batch.isEmpty()) {
+            this.handOver(new Batch(this.batchTime.getAsLong(), batch));
+        }
+    }
+
+    /**
+     * Waits until every batch has been written, then closes the current file.
+     */
+    @Override
+    public void close() {
+        if (this.writer.isAlive()) {
+            this.handOver(END);
+            try {
+                this.writer.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw IotStreamsException.internalError(e);
+            }
+            Logging.info(String.format(
+                    "%d batches of provenance written to %d files in %s",
+                    this.numBatches,
+                    this.numFiles,
+                    this.directory));
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * @param batch A batch to pass to the writing thread
+     */
+    private void handOver(final Batch batch) {
+        try {
+            this.batches.put(batch);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw IotStreamsException.internalError(e);
+        }
+    }
+
+    /**
+     * Runs on the writing thread: writes batches until the writing ends.
+     * If writing fails, e.g. because a file could not be written or a batch could not be
+     * serialized, the remaining batches are discarded so that the inferring thread
+     * is never blocked, and the failure is rethrown there.
+     */
+    private void write() {
+        try {
+            Batch batch = this.batches.take();
+            while (batch != END) {
+                if (this.failure == null) {
+                    try {
+                        this.write(batch);
+                    } catch (final IOException e) {
+                        this.failure = IotStreamsException.provenanceIOfailed(e);
+                    } catch (final RuntimeException e) {
+                        this.failure = e;
+                    }
+                }
+                batch = this.batches.take();
+            }
+            if (this.out != null) {
+                this.out.close();
+            }
+        } catch (final IOException e) {
+            this.failure = IotStreamsException.provenanceIOfailed(e);
+        } catch (final RuntimeException e) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends a batch to the current file, starting a new file first if the current one is full.
+     * @param timed The batch to write, and its time
+     * @throws IOException if writing failed
+     */
+    private void write(final Batch timed) throws IOException {
+        if (this.out == null || this.numTriplesInFile >= this.maxTriplesPerFile) {
+            this.startFile();
+        }
+        final Model batch = timed.model;
+        if (this.format == Format.BINARY) {
+            this.binary.write(timed.time, batch);
+        } else if (this.format == Format.N_QUADS) {
+            //Each batch in its own named graph
+            final Node graph = NodeFactory.createURI(String.format(
+                    "http://FoodSafety/provenance/%s/%d",
+                    this.run,
+                    this.numBatches));
+            RDFDataMgr.writeQuads(
+                    this.out,
+                    batch.getGraph().find(Node.ANY, Node.ANY, Node.ANY).mapWith(t -> new Quad(graph, t)));
+        } else {
+            RDFDataMgr.writeTriples(this.out, batch.getGraph().find(Node.ANY, Node.ANY, Node.ANY));
+        }
+        this.out.flush();
+        this.numTriplesInFile += batch.size();
+        this.numBatches += 1;
+    }
+
+    /**
+     * Closes the current file, if any, and starts the next one.
+     * @throws IOException if a file could not be closed or created
+     */
+    private void startFile() throws IOException {
+        if (this.out != null) {
+            this.out.close();
+        }
+        Files.createDirectories(this.directory);
+        this.numFiles += 1;
+        final Path file = this.directory.resolve(String.format(
+                "provenance-%s-%04d%s%s",
+                this.run,
+                this.numFiles,
+                this.format.extension,
+                this.gzip ? ".gz" : ""));
+        final OutputStream stream = Files.newOutputStream(file);
+        //Sync flush, so that everything written so far can be decompressed after a crash
+        this.out = this.gzip
+                ? new GZIPOutputStream(stream, 1 << 16, true)
+                : new BufferedOutputStream(stream, 1 << 16);
+        //Each file has its own term table, so it can be read on its own
+        this.binary = this.format == Format.BINARY ? new BinaryRdfWriter(this.out) : null;
+        this.numTriplesInFile = 0;
+        Logging.info(String.format("Writing provenance to %s", file));
+    }
+
+    /**
+     * A batch of provenance and its time.
+     */
+    private static final class Batch {
+        /** Time of the batch, in milliseconds since the epoch */
+        private final long time;
+
+        private final Model model;
+
+        Batch(final long time, final Model model) {
+            this.time = time;
+            this.model = model;
+        }
+    }
+
+    /**
+     * Formats of the files.
+     */
+    public enum Format {
+        /** One triple per line */
+        N_TRIPLES(".nt"),
+        /** One triple per line, in a named graph per batch */
+        N_QUADS(".nq"),
+        /** Each batch as a record of the binary encoding of BinaryRdfWriter, with its time, see setBatchTime() */
+        BINARY(".rdfb");
+
+        /** File name extension */
+        private final String extension;
+
+        /**
+         * @param extension File name extension
+         */
+        Format(final String extension) {
+            this.extension = extension;
+        }
+    }
+}
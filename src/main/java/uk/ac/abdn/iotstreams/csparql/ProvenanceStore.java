@@ -0,0 +1,809 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+import uk.ac.abdn.iotstreams.util.Logging;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ *
+ * @author nhc
+ *
+ * A ProvenanceStore keeps inferred provenance on disk, indexed so that it can be
+ * looked up without loading it all into memory: by any pattern of subject, predicate
+ * and object, by feature of interest, or by observation sampling time.
+ *
+ * Batches are buffered in memory and committed together, every given number
+ * of batches or milliseconds, whichever comes first. A commit writes a segment:
+ * the buffered triples sorted three ways, subject-predicate-object,
+ * predicate-object-subject and object-subject-predicate, each in an IndexFile.
+ * The segment only becomes part of the store when the manifest listing the
+ * segments has been replaced, so a crash loses at most the uncommitted batches.
+ * Segments of a similar size are merged on a background thread once there are
+ * MERGE_FACTOR of them, so each triple is rewritten a logarithmic number of times
+ * and neither commits nor lookups wait for a merge to be written.
+ */
+public final class ProvenanceStore implements Consumer<Model>, AutoCloseable {
+    /** Segments of the same tier are merged once there are this many */
+    private static final int MERGE_FACTOR = 4;
+
+    /** Segments smaller than this are in tier 0; each tier above holds segments MERGE_FACTOR times larger */
+    private static final long SMALLEST_TIER_BYTES = 1 << 16;
+
+    /** Lists the committed segments */
+    private static final String MANIFEST = "segments";
+
+    private static final String SSN = "http://purl.oclc.org/NET/ssnx/ssn#";
+    private static final Node SAMPLING_TIME = NodeFactory.createURI(SSN + "observationSamplingTime");
+    private static final Node FEATURE_OF_INTEREST = NodeFactory.createURI(SSN + "featureOfInterest");
+
+    /** Directory holding the manifest and the segment files */
+    private final Path directory;
+
+    /** Commit once this many batches are buffered */
+    private final int commitBatches;
+
+    /** Commit once the oldest buffered batch is this old */
+    private final long commitMillis;
+
+    /** Committed segments */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /** Uncommitted triples, encoded in subject-predicate-object order */
+    private final Set<String[]> buffer = new TreeSet<>(IndexFile.ORDER);
+
+    /** Commits buffered batches that have waited commitMillis */
+    private final ScheduledExecutorService committer;
+
+    /** Merges segments, one merge at a time */
+    private final ExecutorService merger;
+
+    /** Number of batches in the buffer */
+    private int numBuffered = 0;
+
+    /** Time the oldest buffered batch was accepted, in milliseconds since the epoch */
+    private long bufferedSince = 0;
+
+    /** Number of the next segment to write */
+    private long nextSegment = 0;
+
+    /** Number of triples committed by this ProvenanceStore */
+    private long numCommitted = 0;
+
+    /** Set if a timed commit or a merge failed */
+    private RuntimeException failure = null;
+
+    /** Whether a merge is being written */
+    private boolean merging = false;
+
+    /** Set when closing, after which no merge is started */
+    private boolean closing = false;
+
+    /**
+     * Opens the store in a directory, creating it if needed.
+     * Files of segments that were never committed, e.g. because of a crash, are deleted.
+     * @param directory Directory of the store
+     * @param commitBatches Commit once this many batches are buffered, e.g. 100
+     * @param commitMillis Commit once the oldest buffered batch is this many milliseconds old, e.g. 5000
+     */
+    public ProvenanceStore(final Path directory, final int commitBatches, final long commitMillis) {
+        this.directory = directory;
+        this.commitBatches = commitBatches;
+        this.commitMillis = commitMillis;
+        try {
+            Files.createDirectories(directory);
+            final Path manifest = directory.resolve(MANIFEST);
+            final List<String> committed = Files.isRegularFile(manifest)
+                    ? Files.readAllLines(manifest, StandardCharsets.UTF_8)
+                    : new ArrayList<>();
+            for (final String name : committed) {
+                this.segments.add(new Segment(directory, Long.parseLong(name)));
+            }
+            this.nextSegment = this.segments.stream().mapToLong(s -> s.number + 1).max().orElse(0);
+            this.deleteUncommitted();
+        } catch (final IOException e) {
+            throw IotStreamsException.provenanceIOfailed(e);
+        } catch (final NumberFormatException e) {
+            throw IotStreamsException.userInputError(directory.resolve(MANIFEST).toString(), e);
+        }
+        this.committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "provenance-store-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committer.scheduleWithFixedDelay(
+                this::commitIfDue,
+                commitMillis,
+                commitMillis,
+                TimeUnit.MILLISECONDS);
+        this.merger = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "provenance-store-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        synchronized (this) {
+            this.mergeIfDue();
+        }
+    }
+
+    /**
+     * Buffers a batch of inferred provenance, committing the buffer if enough batches are waiting.
+     * @param batch Provenance inferred from one window
+     */
+    @Override
+    public synchronized void accept(final Model batch) {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        batch.getGraph().find(Node.ANY, Node.ANY, Node.ANY).forEachRemaining(t -> this.buffer.add(new String[] {
+            encode(t.getSubject()),
+            encode(t.getPredicate()),
+            encode(t.getObject())}));
+        if (this.numBuffered == 0) {
+            this.bufferedSince = System.currentTimeMillis();
+        }
+        this.numBuffered += 1;
+        if (this.numBuffered >= this.commitBatches) {
+            this.commit();
+        }
+    }
+
+    /**
+     * Finds the triples matching a pattern, committed or not.
+     * @param s Subject, or Node.ANY
+     * @param p Predicate, or Node.ANY
+     * @param o Object, or Node.ANY
+     * @return The matching triples
+     */
+    public synchronized List<Triple> find(final Node s, final Node p, final Node o) {
+        final String[] pattern = {bound(s), bound(p), bound(o)};
+        final long numBound = Arrays.stream(pattern).filter(Objects::nonNull).count();
+        //An index in which the bound terms come first
+        for (final Index index : Index.values()) {
+            final String[] key = index.key(pattern);
+            int prefix = 0;
+            while (prefix < 3 && key[prefix] != null) {
+                prefix++;
+            }
+            if (prefix == numBound) {
+                final int length = prefix;
+                final String[] from = new String[3];
+                for (int i = 0; i < 3; i++) {
+                    from[i] = i < length ? key[i] : "";
+                }
+                return decode(this.scan(index, from, k -> {
+                    for (int i = 0; i < length; i++) {
+                        if (!k[i].equals(key[i])) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+        }
+        throw IotStreamsException.internalError("Every pattern has an index");
+    }
+
+    /**
+     * @param foi A feature of interest
+     * @return Every triple about each observation of the feature of interest
+     */
+    public synchronized Model observationsOf(final Node foi) {
+        return this.describe(this.find(Node.ANY, FEATURE_OF_INTEREST, foi).stream()
+                .map(Triple::getSubject)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Finds observations by their ssn:observationSamplingTime.
+     * Sampling times are found by their lexical form, so they must be in UTC
+     * as SSNModeller writes them, e.g. "2016-02-10T14:28:00Z".
+     * @param from Earliest sampling time, inclusive
+     * @param to Latest sampling time, inclusive
+     * @return Every triple about each observation sampled between from and to
+     */
+    public synchronized Model observationsBetween(final Instant from, final Instant to) {
+        final String predicate = encode(SAMPLING_TIME);
+        //Lexical forms sort by time down to the second
+        final String low = "\"" + secondsPrefix(from);
+        final String high = "\"" + secondsPrefix(to) + Character.MAX_VALUE;
+        return this.describe(decode(this.scan(
+                    Index.POS,
+                    new String[] {predicate, low, ""},
+                    k -> k[0].equals(predicate) && k[1].compareTo(high) <= 0)).stream()
+                .filter(t -> {
+                    final Object value = t.getObject().getLiteralValue();
+                    if (!(value instanceof XSDDateTime)) {
+                        return false;
+                    }
+                    final Instant time = ((XSDDateTime) value).asCalendar().toInstant();
+                    return !time.isBefore(from) && !time.isAfter(to);
+                })
+                .map(Triple::getSubject)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Commits the buffered batches, stops the timed commits and waits for the merge being written, if any.
+     * No further merge is started, so the store can be left with segments that are due to be merged;
+     * they are merged once the store is opened again.
+     */
+    @Override
+    public void close() {
+        this.committer.shutdown();
+        try {
+            this.committer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            this.closing = true;
+        }
+        this.merger.shutdown();
+        try {
+            this.merger.awaitTermination(1, TimeUnit.HOURS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            this.commit();
+            Logging.info(String.format(
+                    "%d triples of provenance committed to %s",
+                    this.numCommitted,
+                    this.directory));
+        }
+    }
+
+    /**
+     * Waits until no merge is being written or due, e.g. for tests.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void awaitMerges() throws InterruptedException {
+        while (this.merging) {
+            this.wait();
+        }
+    }
+
+    /**
+     * Runs on the committing thread: commits the buffer if its oldest batch has waited long enough.
+     */
+    private synchronized void commitIfDue() {
+        if (this.failure == null
+                && this.numBuffered > 0
+                && System.currentTimeMillis() - this.bufferedSince >= this.commitMillis) {
+            try {
+                this.commit();
+            } catch (final RuntimeException e) {
+                this.failure = e;
+            }
+        }
+    }
+
+    /**
+     * Writes the buffer as a new segment, then starts a merge if one is due.
+     */
+    private void commit() {
+        if (this.buffer.isEmpty()) {
+            this.numBuffered = 0;
+            return;
+        }
+        try {
+            final List<Segment> committed = new ArrayList<>(this.segments);
+            committed.add(new Segment(this.directory, this.nextSegment++, index -> sorted(index, this.buffer)));
+            this.writeManifest(committed);
+            this.segments.add(committed.get(committed.size() - 1));
+            this.numCommitted += this.buffer.size();
+            this.buffer.clear();
+            this.numBuffered = 0;
+            this.mergeIfDue();
+        } catch (final IOException e) {
+            throw IotStreamsException.provenanceIOfailed(e);
+        }
+    }
+
+    /**
+     * Starts merging the oldest MERGE_FACTOR segments of the lowest tier that has as many,
+     * unless a merge is being written or the store is closing. Called while holding the lock.
+     */
+    private void mergeIfDue() {
+        if (this.merging || this.closing || this.failure != null) {
+            return;
+        }
+        final Map<Integer, List<Segment>> tiers = new TreeMap<>();
+        for (final Segment segment : this.segments) {
+            tiers.computeIfAbsent(tier(segment.bytes), t -> new ArrayList<>()).add(segment);
+        }
+        for (final List<Segment> tier : tiers.values()) {
+            if (tier.size() >= MERGE_FACTOR) {
+                final List<Segment> old = new ArrayList<>(tier.subList(0, MERGE_FACTOR));
+                final long number = this.nextSegment++;
+                this.merging = true;
+                this.merger.execute(() -> this.merge(old, number));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs on the merging thread: writes the keys of segments as one new segment without
+     * holding the lock, then commits it in their place. The old segments are only read,
+     * as segments are never changed, and are deleted once they are no longer committed.
+     * @param old The segments to merge
+     * @param number Number of the merged segment
+     */
+    private void merge(final List<Segment> old, final long number) {
+        try {
+            final List<IndexFile.Keys> opened = new ArrayList<>();
+            final Segment merged;
+            try {
+                merged = new Segment(this.directory, number, index -> {
+                    final List<Iterator<String[]>> sources = new ArrayList<>();
+                    for (final Segment segment : old) {
+                        final IndexFile.Keys keys = segment.files[index.ordinal()].iterator();
+                        opened.add(keys);
+                        sources.add(keys);
+                    }
+                    return new Merge(sources);
+                });
+            } finally {
+                for (final IndexFile.Keys keys : opened) {
+                    keys.close();
+                }
+            }
+            synchronized (this) {
+                final List<Segment> committed = new ArrayList<>(this.segments);
+                committed.removeAll(old);
+                committed.add(merged);
+                this.writeManifest(committed);
+                this.segments.clear();
+                this.segments.addAll(committed);
+                for (final Segment segment : old) {
+                    segment.delete();
+                }
+                this.merging = false;
+                this.mergeIfDue();
+                this.notifyAll();
+            }
+        } catch (final IOException e) {
+            this.mergeFailed(IotStreamsException.provenanceIOfailed(e));
+        } catch (final UncheckedIOException e) {
+            this.mergeFailed(IotStreamsException.provenanceIOfailed(e.getCause()));
+        } catch (final RuntimeException e) {
+            this.mergeFailed(e);
+        }
+    }
+
+    /**
+     * @param e Why a merge failed, to be rethrown by the next accept() or by close()
+     */
+    private synchronized void mergeFailed(final RuntimeException e) {
+        this.failure = e;
+        this.merging = false;
+        this.notifyAll();
+    }
+
+    /**
+     * @param bytes Size of a segment
+     * @return Tier of the segment: 0 if smaller than SMALLEST_TIER_BYTES, and one more for each MERGE_FACTOR times larger
+     */
+    static int tier(final long bytes) {
+        int tier = 0;
+        for (long size = bytes / SMALLEST_TIER_BYTES; size > 0; size /= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Finds keys in an index of every segment and in the buffer.
+     * @param index The index to scan
+     * @param from Lower bound of the keys, in the order of index
+     * @param within Whether a key at or after from is still in the range
+     * @return The keys found, in subject-predicate-object order, without duplicates
+     */
+    private Collection<String[]> scan(final Index index, final String[] from, final Predicate<String[]> within) {
+        final Set<String[]> found = new TreeSet<>(IndexFile.ORDER);
+        try {
+            for (final Segment segment : this.segments) {
+                segment.files[index.ordinal()].scan(from, within).forEach(k -> found.add(index.triple(k)));
+            }
+        } catch (final IOException e) {
+            throw IotStreamsException.provenanceIOfailed(e);
+        }
+        for (final String[] triple : this.buffer) {
+            final String[] key = index.key(triple);
+            if (IndexFile.ORDER.compare(key, from) >= 0 && within.test(key)) {
+                found.add(triple);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param subjects Resources
+     * @return Every triple with one of the resources as subject
+     */
+    private Model describe(final List<Node> subjects) {
+        final Model model = ModelFactory.createDefaultModel();
+        for (final Node subject : subjects) {
+            this.find(subject, Node.ANY, Node.ANY).forEach(model.getGraph()::add);
+        }
+        return model;
+    }
+
+    /**
+     * Replaces the manifest, which commits the segments listed in it.
+     * @param committed The segments of the store
+     * @throws IOException if the manifest could not be written
+     */
+    private void writeManifest(final List<Segment> committed) throws IOException {
+        //Write to a temporary file first, so that a crash never leaves a partial manifest
+        final Path tmp = Files.createTempFile(this.directory, MANIFEST, ".tmp");
+        try (final Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (final Segment segment : committed) {
+                out.write(Long.toString(segment.number));
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, this.directory.resolve(MANIFEST),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the files in the directory that belong to no committed segment.
+     * @throws IOException if the directory could not be listed
+     */
+    private void deleteUncommitted() throws IOException {
+        final Set<Path> committed = new HashSet<>();
+        this.segments.forEach(segment -> {
+            for (final IndexFile file : segment.files) {
+                committed.add(file.getPath().getFileName());
+            }
+        });
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (final Path file : files) {
+                if (!file.getFileName().toString().equals(MANIFEST) && !committed.contains(file.getFileName())) {
+                    Logging.warn(String.format("Deleting %s, which was never committed", file));
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param index An index
+     * @param triples Triples in subject-predicate-object order
+     * @return The triples as keys of the index, in order
+     */
+    private static Iterator<String[]> sorted(final Index index, final Collection<String[]> triples) {
+        final Set<String[]> keys = new TreeSet<>(IndexFile.ORDER);
+        triples.forEach(t -> keys.add(index.key(t)));
+        return keys.iterator();
+    }
+
+    /**
+     * @param node A concrete node, or Node.ANY or null
+     * @return The encoded node, or null for any node
+     */
+    private static String bound(final Node node) {
+        return node == null || node == Node.ANY ? null : encode(node);
+    }
+
+    /**
+     * Encodes a node so that the encoded nodes of each kind sort by their lexical form:
+     *   - A URI as "<" followed by the URI
+     *   - A blank node as "_" followed by its label
+     *   - A literal as "\"lexical form\"", followed by "^^datatype URI" or "@language" if it has either
+     * @param node A concrete node
+     * @return The encoded node
+     */
+    static String encode(final Node node) {
+        if (node.isURI()) {
+            return "<" + node.getURI();
+        }
+        if (node.isBlank()) {
+            return "_" + node.getBlankNodeLabel();
+        }
+        final String lexicalForm = "\"" + node.getLiteralLexicalForm() + "\"";
+        if (node.getLiteralDatatypeURI() != null) {
+            return lexicalForm + "^^" + node.getLiteralDatatypeURI();
+        }
+        if (!node.getLiteralLanguage().isEmpty()) {
+            return lexicalForm + "@" + node.getLiteralLanguage();
+        }
+        return lexicalForm;
+    }
+
+    /**
+     * @param term A node encoded by encode()
+     * @return The node
+     */
+    static Node decode(final String term) {
+        switch (term.charAt(0)) {
+        case '<':
+            return NodeFactory.createURI(term.substring(1));
+        case '_':
+            return NodeFactory.createAnon(AnonId.create(term.substring(1)));
+        default:
+            final int end = term.lastIndexOf('"');
+            final String lexicalForm = term.substring(1, end);
+            final String suffix = term.substring(end + 1);
+            if (suffix.startsWith("^^")) {
+                return NodeFactory.createLiteral(
+                        lexicalForm,
+                        null,
+                        TypeMapper.getInstance().getSafeTypeByName(suffix.substring(2)));
+            }
+            return NodeFactory.createLiteral(lexicalForm, suffix.isEmpty() ? null : suffix.substring(1), false);
+        }
+    }
+
+    /**
+     * @param triples Encoded triples in subject-predicate-object order
+     * @return The triples
+     */
+    private static List<Triple> decode(final Collection<String[]> triples) {
+        return triples.stream()
+                .map(t -> Triple.create(decode(t[0]), decode(t[1]), decode(t[2])))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param time A time
+     * @return The time in UTC, to the second, as at the start of an xsd:dateTime, e.g. "2016-02-10T14:28:00"
+     */
+    private static String secondsPrefix(final Instant time) {
+        final String iso = time.truncatedTo(ChronoUnit.SECONDS).toString();
+        return iso.substring(0, iso.length() - 1);
+    }
+
+    /**
+     * The orders in which triples are indexed.
+     */
+    private enum Index {
+        /** Subject, predicate, object */
+        SPO(0, 1, 2),
+        /** Predicate, object, subject */
+        POS(1, 2, 0),
+        /** Object, subject, predicate */
+        OSP(2, 0, 1);
+
+        /** Position in the triple of each term of a key */
+        private final int[] order;
+
+        /**
+         * @param order Position in the triple of each term of a key
+         */
+        Index(final int... order) {
+            this.order = order;
+        }
+
+        /**
+         * @param triple Terms in subject-predicate-object order
+         * @return The terms in the order of this index
+         */
+        String[] key(final String[] triple) {
+            final String[] key = new String[3];
+            for (int i = 0; i < 3; i++) {
+                key[i] = triple[this.order[i]];
+            }
+            return key;
+        }
+
+        /**
+         * @param key Terms in the order of this index
+         * @return The terms in subject-predicate-object order
+         */
+        String[] triple(final String[] key) {
+            final String[] triple = new String[3];
+            for (int i = 0; i < 3; i++) {
+                triple[this.order[i]] = key[i];
+            }
+            return triple;
+        }
+
+        /**
+         * @return File name extension of the index
+         */
+        String extension() {
+            return "." + this.name().toLowerCase();
+        }
+    }
+
+    /**
+     * A committed set of triples, in one IndexFile per Index.
+     */
+    private static final class Segment {
+        /** Number of the segment, which names its files */
+        private final long number;
+
+        /** The file of each index */
+        private final IndexFile[] files = new IndexFile[Index.values().length];
+
+        /** Size of the files */
+        private final long bytes;
+
+        /**
+         * Opens the files of an existing segment.
+         * @param directory Directory of the store
+         * @param number Number of the segment
+         * @throws IOException if a file could not be read
+         */
+        Segment(final Path directory, final long number) throws IOException {
+            this.number = number;
+            for (final Index index : Index.values()) {
+                this.files[index.ordinal()] = new IndexFile(directory.resolve(number + index.extension()));
+            }
+            this.bytes = this.size();
+        }
+
+        /**
+         * Writes the files of a new segment.
+         * @param directory Directory of the store
+         * @param number Number of the segment
+         * @param keys The keys of each index, in order and without duplicates
+         * @throws IOException if a file could not be written
+         */
+        Segment(
+                final Path directory,
+                final long number,
+                final Keys keys) throws IOException {
+            this.number = number;
+            for (final Index index : Index.values()) {
+                this.files[index.ordinal()] = IndexFile.write(
+                        directory.resolve(number + index.extension()),
+                        keys.of(index));
+            }
+            this.bytes = this.size();
+        }
+
+        /**
+         * @return Size of the files
+         * @throws IOException if a file could not be read
+         */
+        private long size() throws IOException {
+            long size = 0;
+            for (final IndexFile file : this.files) {
+                size += Files.size(file.getPath());
+            }
+            return size;
+        }
+
+        /**
+         * Deletes the files of the segment, once it is no longer committed.
+         * @throws IOException if a file could not be deleted
+         */
+        void delete() throws IOException {
+            for (final IndexFile file : this.files) {
+                Files.deleteIfExists(file.getPath());
+            }
+        }
+    }
+
+    /**
+     * The keys to write to each index of a new segment.
+     */
+    @FunctionalInterface
+    private interface Keys {
+        /**
+         * @param index An index
+         * @return The keys of the index, in order and without duplicates
+         * @throws IOException if the keys could not be read
+         */
+        Iterator<String[]> of(Index index) throws IOException;
+    }
+
+    /**
+     * Merges sorted keys, dropping duplicates.
+     */
+    private static final class Merge implements Iterator<String[]> {
+        /** The next key of each source that has one, smallest first */
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> IndexFile.ORDER.compare(a.key, b.key));
+
+        /** The key returned last */
+        private String[] last = null;
+
+        /**
+         * @param sources Iterators over sorted keys
+         */
+        Merge(final List<Iterator<String[]>> sources) {
+            sources.forEach(this::advance);
+            this.skipDuplicates();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.heads.isEmpty();
+        }
+
+        @Override
+        public String[] next() {
+            final Head head = this.heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            this.last = head.key;
+            this.advance(head.source);
+            this.skipDuplicates();
+            return this.last;
+        }
+
+        /**
+         * @param source A source whose next key, if any, should be queued
+         */
+        private void advance(final Iterator<String[]> source) {
+            if (source.hasNext()) {
+                this.heads.add(new Head(source.next(), source));
+            }
+        }
+
+        /**
+         * Drops queued keys equal to the key returned last.
+         */
+        private void skipDuplicates() {
+            while (this.last != null
+                    && !this.heads.isEmpty()
+                    && IndexFile.ORDER.compare(this.heads.peek().key, this.last) == 0) {
+                this.advance(this.heads.poll().source);
+            }
+        }
+
+        /**
+         * The next key of a source.
+         */
+        private static final class Head {
+            private final String[] key;
+            private final Iterator<String[]> source;
+
+            Head(final String[] key, final Iterator<String[]> source) {
+                this.key = key;
+                this.source = source;
+            }
+        }
+    }
+}
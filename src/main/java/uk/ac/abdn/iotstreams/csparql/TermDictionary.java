@@ -0,0 +1,162 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.hp.hpl.jena.datatypes.RDFDatatype;
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+
+/**
+ *
+ * @author nhc
+ *
+ * The TermDictionary defines how RDF terms are encoded as the Strings
+ * carried by C-SPARQL quadruples, and shares the encoded terms between
+ * the stream entry (IotStreamsEngine, SSNModeller) and the window decoding
+ * (IotStreamsFormatter):
+ *   - A URI is encoded as itself, e.g. "http://purl.oclc.org/NET/ssnx/ssn#System"
+ *   - A typed literal is encoded as "\"lexical form\"^^datatype URI"
+ *   - A plain literal is encoded as "\"lexical form\"", and a language-tagged one as "\"lexical form\"@language"
+ * Vocabulary URIs (predicates, classes, datatypes) are interned along with their Jena Node,
+ * so each of them is allocated and parsed once. Minted URIs such as observation IRIs are
+ * unbounded, so only the most recently decoded ones are kept, per thread.
+ */
+public final class TermDictionary {
+    /** Number of recently decoded non-vocabulary URIs to keep */
+    private static final int RECENT_NODES = 10000;
+
+    /** Vocabulary URI -> its Jena Node, whose getURI() is the interned String */
+    private static final ConcurrentMap<String, Node> VOCABULARY = new ConcurrentHashMap<>();
+
+    /** Datatype URI -> "\"^^datatype URI", appended to the lexical form of literals */
+    private static final ConcurrentMap<String, String> LITERAL_SUFFIXES = new ConcurrentHashMap<>();
+
+    /** Datatype URI -> Jena datatype */
+    private static final ConcurrentMap<String, RDFDatatype> DATATYPES = new ConcurrentHashMap<>();
+
+    /**
+     * Recently decoded non-vocabulary URIs, in access order. Each decoding thread
+     * (i.e. each query's formatter) keeps its own, so decoding takes no lock.
+     */
+    private static final ThreadLocal<Map<String, Node>> RECENT = ThreadLocal.withInitial(
+            () -> new LinkedHashMap<String, Node>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Node> eldest) {
+                    return this.size() > RECENT_NODES;
+                }
+            });
+
+    /**
+     * Utility class.
+     */
+    private TermDictionary() {
+        //No instances
+    }
+
+    /**
+     * Interns a vocabulary URI: a predicate, class or other term used over and over.
+     * Do not use this for minted URIs, as interned URIs are kept forever.
+     * @param uri e.g. "http://purl.oclc.org/NET/ssnx/ssn#System"
+     * @return The interned String equal to uri
+     */
+    public static String uri(final String uri) {
+        return vocabularyNode(uri).getURI();
+    }
+
+    /**
+     * Encodes a typed or plain literal.
+     * @param lexicalForm e.g. "19.5"
+     * @param datatypeURI e.g. "http://www.w3.org/2001/XMLSchema#double", or null for a plain literal
+     * @return The encoded literal, e.g. "\"19.5\"^^http://www.w3.org/2001/XMLSchema#double"
+     */
+    public static String literal(final String lexicalForm, final String datatypeURI) {
+        if (datatypeURI == null) {
+            return "\"" + lexicalForm + "\"";
+        }
+        return "\"" + lexicalForm + LITERAL_SUFFIXES.computeIfAbsent(datatypeURI, dt -> "\"^^" + dt);
+    }
+
+    /**
+     * Encodes any literal, e.g. one of a Jena Model, whose datatype is null if it is plain or language-tagged.
+     * @param lexicalForm e.g. "kitchen"
+     * @param datatypeURI e.g. "http://www.w3.org/2001/XMLSchema#double", or null
+     * @param language e.g. "en", or "" or null if the literal has no language tag
+     * @return The encoded literal, e.g. "\"kitchen\"@en"
+     */
+    public static String literal(final String lexicalForm, final String datatypeURI, final String language) {
+        if (language != null && !language.isEmpty()) {
+            return "\"" + lexicalForm + "\"@" + language;
+        }
+        return literal(lexicalForm, datatypeURI);
+    }
+
+    /**
+     * Decodes a term known to be a vocabulary URI, e.g. the predicate of a quadruple.
+     * @param uri e.g. "http://purl.oclc.org/NET/ssnx/ssn#hasValue"
+     * @return The shared Jena Node for uri
+     */
+    static Node vocabularyNode(final String uri) {
+        return VOCABULARY.computeIfAbsent(uri, NodeFactory::createURI);
+    }
+
+    /**
+     * Decodes any term encoded by this dictionary.
+     * @param term A URI or an encoded literal
+     * @return The Jena Node for term
+     */
+    static Node node(final String term) {
+        if (term.startsWith("\"")) {
+            return literalNode(term);
+        }
+        final Node vocabulary = VOCABULARY.get(term);
+        if (vocabulary != null) {
+            return vocabulary;
+        }
+        return RECENT.get().computeIfAbsent(term, NodeFactory::createURI);
+    }
+
+    /**
+     * Encodes a Jena Node, e.g. one read back from a recording of the stream.
+     * @param node A URI or a literal
+     * @return The encoded term, interned if it is a vocabulary URI
+     */
+    static String term(final Node node) {
+        if (node.isURI()) {
+            final Node vocabulary = VOCABULARY.get(node.getURI());
+            return vocabulary == null ? node.getURI() : vocabulary.getURI();
+        }
+        return literal(
+                node.getLiteralLexicalForm(),
+                node.getLiteralDatatypeURI(),
+                node.getLiteralLanguage());
+    }
+
+    /**
+     * Decodes an encoded literal without regular expressions.
+     * @param term e.g. "\"19.5\"^^http://www.w3.org/2001/XMLSchema#double", "\"plain\"" or "\"tagged\"@en"
+     * @return The literal Node
+     */
+    private static Node literalNode(final String term) {
+        final int suffix = term.lastIndexOf("\"^^");
+        if (suffix < 0) {
+            final int end = term.lastIndexOf('"');
+            if (end == term.length() - 1) { //Plain literal
+                return NodeFactory.createLiteral(term.substring(1, end));
+            }
+            //Language-tagged literal
+            return NodeFactory.createLiteral(term.substring(1, end), term.substring(end + 2), false);
+        }
+        return NodeFactory.createLiteral(
+                term.substring(1, suffix),
+                null,
+                DATATYPES.computeIfAbsent(
+                        term.substring(suffix + 3),
+                        TypeMapper.getInstance()::getSafeTypeByName));
+    }
+}
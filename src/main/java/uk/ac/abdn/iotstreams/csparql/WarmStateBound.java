@@ -0,0 +1,201 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+import uk.ac.abdn.iotstreams.util.Logging;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDateTime;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+/**
+ *
+ * @author nhc
+ *
+ * A WarmStateBound limits how much provenance an IotStreamsFormatter carries
+ * over to the warm stage of the next window. It is read from an optional
+ * warm-state.properties file next to the query, e.g.
+ * <pre>
+ * # Forget observations sampled more than 6 hours before the latest one
+ * horizon=PT6H
+ * # Never carry more than 10000 triples forward
+ * maxTriples=10000
+ * # Only keep the latest observation (the head of the fso:follows chain) per feature of interest
+ * latestPerFeatureOfInterest=true
+ * </pre>
+ * All settings are optional. Only the carried-over state is compacted; every
+ * inferred triple is still passed to the persistent model.
+ */
+final class WarmStateBound {
+    /** A bound that keeps everything */
+    static final WarmStateBound UNBOUNDED = new WarmStateBound(Optional.empty(), Optional.empty(), false);
+
+    private static final String SSN = "http://purl.oclc.org/NET/ssnx/ssn#";
+    private static final Property SAMPLING_TIME = ResourceFactory.createProperty(SSN + "observationSamplingTime");
+    private static final Property FEATURE_OF_INTEREST = ResourceFactory.createProperty(SSN + "featureOfInterest");
+
+    /** Observations sampled longer than this before the latest one are dropped */
+    private final Optional<Duration> horizon;
+
+    /** Upper bound on the number of triples carried forward */
+    private final Optional<Long> maxTriples;
+
+    /** Keep only the latest observation per feature of interest? */
+    private final boolean latestPerFeatureOfInterest;
+
+    /**
+     * @param horizon Observations sampled longer than this before the latest one are dropped
+     * @param maxTriples Upper bound on the number of triples carried forward
+     * @param latestPerFeatureOfInterest Keep only the latest observation per feature of interest?
+     */
+    private WarmStateBound(
+            final Optional<Duration> horizon,
+            final Optional<Long> maxTriples,
+            final boolean latestPerFeatureOfInterest) {
+        this.horizon = horizon;
+        this.maxTriples = maxTriples;
+        this.latestPerFeatureOfInterest = latestPerFeatureOfInterest;
+    }
+
+    /**
+     * Parses the content of a warm-state.properties file.
+     * @param content The file content
+     * @return The bound described by the file
+     */
+    static WarmStateBound parse(final String content) {
+        final Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(content));
+            return new WarmStateBound(
+                    Optional.ofNullable(properties.getProperty("horizon")).map(Duration::parse),
+                    Optional.ofNullable(properties.getProperty("maxTriples")).map(Long::valueOf),
+                    Boolean.parseBoolean(properties.getProperty("latestPerFeatureOfInterest")));
+        } catch (final IOException | DateTimeParseException | NumberFormatException e) {
+            throw IotStreamsException.configurationError(e);
+        }
+    }
+
+    /**
+     * Compacts provenance before it is carried over to the next window.
+     * @param prov The provenance inferred in this window
+     * @param window The window's triples, used to look up sampling times
+     * and features of interest of the observations in prov
+     * @return prov itself if nothing had to go, otherwise a compacted copy
+     */
+    Model compact(final Model prov, final Model window) {
+        if (!this.horizon.isPresent() && !this.maxTriples.isPresent() && !this.latestPerFeatureOfInterest) {
+            return prov;
+        }
+        final Map<RDFNode, Long> times = new HashMap<>();
+        final Map<RDFNode, RDFNode> features = new HashMap<>();
+        for (final Model source : new Model[] {window, prov}) {
+            source.listStatements(null, SAMPLING_TIME, (RDFNode) null)
+                .forEachRemaining(s -> epochMillis(s).ifPresent(t -> times.merge(s.getSubject(), t, Math::max)));
+            source.listStatements(null, FEATURE_OF_INTEREST, (RDFNode) null)
+                .forEachRemaining(s -> features.put(s.getSubject(), s.getObject()));
+        }
+        final Set<RDFNode> dropped = new HashSet<>();
+        if (this.latestPerFeatureOfInterest) {
+            final Map<RDFNode, RDFNode> latest = new HashMap<>();
+            features.forEach((observation, foi) -> {
+                if (times.containsKey(observation)) {
+                    latest.merge(foi, observation, (a, b) -> times.get(a) >= times.get(b) ? a : b);
+                }
+            });
+            features.forEach((observation, foi) -> {
+                if (times.containsKey(observation) && !latest.get(foi).equals(observation)) {
+                    dropped.add(observation);
+                }
+            });
+        }
+        if (this.horizon.isPresent() && !times.isEmpty()) {
+            final long oldest = times.values().stream().mapToLong(Long::longValue).max().getAsLong()
+                    - this.horizon.get().toMillis();
+            times.forEach((observation, t) -> {
+                if (t < oldest) {
+                    dropped.add(observation);
+                }
+            });
+        }
+        final Model result = ModelFactory.createDefaultModel();
+        prov.listStatements().forEachRemaining(s -> {
+            if (!mentions(s, dropped)) {
+                result.add(s);
+            }
+        });
+        if (this.maxTriples.isPresent() && result.size() > this.maxTriples.get()) {
+            this.truncate(result, times);
+        }
+        if (result.size() < prov.size()) {
+            Logging.info(String.format(
+                    "Warm state compacted from %d to %d triples",
+                    prov.size(),
+                    result.size()));
+            return result;
+        }
+        return prov;
+    }
+
+    /**
+     * Removes statements about the oldest observations until the state fits maxTriples.
+     * If that is not enough, the remaining statements are cut arbitrarily.
+     * @param state The state to truncate
+     * @param times Sampling time of each known observation
+     */
+    private void truncate(final Model state, final Map<RDFNode, Long> times) {
+        final long max = this.maxTriples.get();
+        final List<RDFNode> oldestFirst = new ArrayList<>(times.keySet());
+        oldestFirst.sort(Comparator.comparing(times::get));
+        for (final RDFNode observation : oldestFirst) {
+            if (state.size() <= max) {
+                return;
+            }
+            state.removeAll(observation.asResource(), null, (RDFNode) null);
+            state.removeAll(null, null, observation);
+        }
+        if (state.size() > max) {
+            Logging.warn(String.format(
+                    "Warm state has %d triples not about timed observations; keeping %d of them",
+                    state.size(),
+                    max));
+            state.remove(state.listStatements().toList().subList(0, (int) (state.size() - max)));
+        }
+    }
+
+    /**
+     * @param s Any statement
+     * @param nodes Resources to look for
+     * @return Whether the subject or object of s is in nodes
+     */
+    private static boolean mentions(final Statement s, final Set<RDFNode> nodes) {
+        return nodes.contains(s.getSubject()) || nodes.contains(s.getObject());
+    }
+
+    /**
+     * @param s A statement whose object should be an xsd:dateTime
+     * @return The object as milliseconds since the epoch, if it was an xsd:dateTime
+     */
+    private static Optional<Long> epochMillis(final Statement s) {
+        if (s.getObject().isLiteral() && s.getLiteral().getValue() instanceof XSDDateTime) {
+            return Optional.of(((XSDDateTime) s.getLiteral().getValue()).asCalendar().getTimeInMillis());
+        }
+        return Optional.empty();
+    }
+}
@@ -6,16 +6,20 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
 import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading;
 import uk.ac.abdn.iotstreams.util.Constants;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
@@ -24,57 +28,198 @@ import uk.ac.abdn.iotstreams.util.IotStreamsException;
  * 
  * @author nhc
  *
- * A FoiAnnotator reads a JSON file mapping datetimes to feature-of-interest-URIs.
- * If a reading matches the time stamp, its FOI is updated to the given value; otherwise
- * it is returned unchanged.
+ * A FoiAnnotator reads a JSON file mapping datetimes, or intervals of datetimes,
+ * to feature-of-interest-URIs. An interval is written "from/to", includes from
+ * and excludes to. Intervals may not overlap.
+ * If a reading matches a time stamp or falls in an interval, its FOI is updated to
+ * the given value; otherwise it is returned unchanged.
  * Example input file content:
- * {"2016-12-240T12:34:56+00:00": "http://example.org/meatItem345"}
+ * {"2016-12-24T12:34:56+00:00": "http://example.org/meatItem345",
+ *  "2016-12-24T13:00:00+00:00/2016-12-24T15:30:00+00:00": "http://example.org/meatItem346"}
+ * The annotations are kept as sorted arrays of intervals: a single lookup is a
+ * binary search, and a batch ordered by time is annotated in one pass.
  */
 public final class FoiAnnotator
     implements UnaryOperator<TimedTemperatureReading> {
     /** Path to the input JSON file */
     private static final Path INPUT_PATH = Paths.get("config/simulator/annotations.json.txt");
     
-    /** Internal cache of the annotations */
-    private Map<ZonedDateTime, String> time2foi = 
-            new HashMap<ZonedDateTime, String>();
+    /** Start of each interval in milliseconds since the epoch, ascending */
+    private final long[] from;
+    
+    /** End of each interval in milliseconds since the epoch, excluded */
+    private final long[] to;
+    
+    /** FOI of each interval */
+    private final String[] foi;
+    
+    /** FOI index of each interval */
+    private final int[] foiIndex;
     
     /**
      * Reads and parses the input JSON file
      */
     public FoiAnnotator() {
+        this(INPUT_PATH);
+    }
+    
+    /**
+     * Utility constructor for allowing unit tests of the annotator
+     * @param inputPath Path to the input JSON file
+     */
+    FoiAnnotator(final Path inputPath) {
+        final List<Interval> intervals;
         try {
-            new Gson().fromJson(
+            intervals = new Gson().fromJson(
                 Files.newBufferedReader(
-                    INPUT_PATH,
+                    inputPath,
                     Charset.forName("UTF-8")), 
                 Annotations.class)
             .entrySet()
             .stream()
-            .forEach(entry -> time2foi.put(
-                    LocalDateTime.parse(entry.getKey(), DateTimeFormatter.ISO_OFFSET_DATE_TIME)
-                        .atZone(Constants.UK), 
-                    entry.getValue()));
+            .map(entry -> Interval.parse(entry.getKey(), entry.getValue()))
+            .sorted(Comparator.comparingLong(interval -> interval.from))
+            .collect(Collectors.toList());
         } catch (JsonSyntaxException e) {
-            throw IotStreamsException.userInputError(String.format("File '%s'", INPUT_PATH.toString()), e);
+            throw IotStreamsException.userInputError(String.format("File '%s'", inputPath.toString()), e);
         } catch (JsonIOException e) {
-            throw IotStreamsException.userInputError(String.format("File '%s'", INPUT_PATH.toString()), e);
+            throw IotStreamsException.userInputError(String.format("File '%s'", inputPath.toString()), e);
         } catch (IOException e) {
             throw IotStreamsException.annotationIOfailed(e);
         }
+        for (int i = 1; i < intervals.size(); i++) {
+            if (intervals.get(i).from < intervals.get(i - 1).to) {
+                throw IotStreamsException.userInputError(
+                        String.format("File '%s'", inputPath.toString()),
+                        new IllegalArgumentException(String.format(
+                                "Annotations '%s' and '%s' overlap",
+                                intervals.get(i - 1).key,
+                                intervals.get(i).key)));
+            }
+        }
+        this.from = intervals.stream().mapToLong(interval -> interval.from).toArray();
+        this.to = intervals.stream().mapToLong(interval -> interval.to).toArray();
+        this.foi = intervals.stream().map(interval -> interval.foi).toArray(String[]::new);
+        this.foiIndex = intervals.stream().mapToInt(interval -> ReadingBatch.foiIndex(interval.foi)).toArray();
     }
     
     /**
-     * If the reading matches a time stamp in the input JSON annotations,
+     * If the reading matches a time stamp or interval in the input JSON annotations,
      * the reading's FOI is updated to the given value; otherwise
      * it is left unchanged.
      */
     @Override
     public TimedTemperatureReading apply(final TimedTemperatureReading r) {
-        r.foi = this.time2foi.getOrDefault(r.time, r.foi);
+        final int interval = this.find(r.epochMillis);
+        if (interval >= 0) {
+            r.foi = this.foi[interval];
+        }
         return r;
     }
     
+    /**
+     * Updates the FOI of every reading in the batch that matches a time stamp
+     * or interval in the input JSON annotations, leaving the others unchanged.
+     * Consecutive readings in order of time are matched by moving forward
+     * through the intervals; a reading earlier than the one before it is
+     * looked up by binary search.
+     * @param batch Any batch of readings
+     */
+    public void annotate(final ReadingBatch batch) {
+        if (this.from.length == 0) {
+            return;
+        }
+        long previous = Long.MIN_VALUE;
+        //The first interval that does not end at or before the current reading
+        int cursor = 0;
+        for (int row = 0; row < batch.size(); row++) {
+            final long time = batch.epochMillis(row);
+            if (time < previous) {
+                final int floor = this.floor(time);
+                cursor = floor >= 0 && time < this.to[floor] ? floor : floor + 1;
+            }
+            previous = time;
+            while (cursor < this.to.length && this.to[cursor] <= time) {
+                cursor++;
+            }
+            if (cursor < this.from.length && this.from[cursor] <= time) {
+                batch.setFoi(row, this.foiIndex[cursor]);
+            }
+        }
+    }
+    
+    /**
+     * @param time Milliseconds since the epoch
+     * @return The interval containing time, or -1 if none
+     */
+    private int find(final long time) {
+        final int floor = this.floor(time);
+        return floor >= 0 && time < this.to[floor] ? floor : -1;
+    }
+    
+    /**
+     * @param time Milliseconds since the epoch
+     * @return The last interval starting at or before time, or -1 if none
+     */
+    private int floor(final long time) {
+        final int index = Arrays.binarySearch(this.from, time);
+        return index >= 0 ? index : -index - 2;
+    }
+    
+    /**
+     * One annotation: a time stamp or an interval, and its FOI.
+     */
+    private static final class Interval {
+        /** The annotation as written in the input file */
+        private final String key;
+        private final long from;
+        private final long to;
+        private final String foi;
+        
+        private Interval(final String key, final long from, final long to, final String foi) {
+            this.key = key;
+            this.from = from;
+            this.to = to;
+            this.foi = foi;
+        }
+        
+        /**
+         * @param key A datetime, or two datetimes separated by '/'
+         * @param foi The FOI of readings at that time
+         * @return The parsed annotation; a single datetime covers one millisecond
+         */
+        static Interval parse(final String key, final String foi) {
+            final int slash = key.indexOf('/');
+            if (slash < 0) {
+                final long time = epochMillis(key);
+                return new Interval(key, time, time + 1, foi);
+            }
+            final long from = epochMillis(key.substring(0, slash));
+            final long to = epochMillis(key.substring(slash + 1));
+            if (to <= from) {
+                throw IotStreamsException.userInputError(
+                        key,
+                        new IllegalArgumentException("An interval must end after it starts"));
+            }
+            return new Interval(key, from, to, foi);
+        }
+        
+        /**
+         * @param dateTime e.g. "2016-12-24T12:34:56+00:00", taken as UK local time
+         * @return dateTime in milliseconds since the epoch
+         */
+        private static long epochMillis(final String dateTime) {
+            try {
+                return LocalDateTime.parse(dateTime, DateTimeFormatter.ISO_OFFSET_DATE_TIME)
+                        .atZone(Constants.UK)
+                        .toInstant()
+                        .toEpochMilli();
+            } catch (final DateTimeParseException e) {
+                throw IotStreamsException.userInputError(dateTime, e);
+            }
+        }
+    }
+    
     @SuppressWarnings("serial")
     private static class Annotations extends HashMap<String,String> {
         // This is merely an alias to pass to GSON
@@ -0,0 +1,268 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+/**
+ *
+ * @author nhc
+ *
+ * An IngestQueue passes modelled readings to the engine on its own thread,
+ * so that modelling and stream processing overlap. Readings are buffered in a
+ * bounded ring buffer and put on the stream in the order they were queued.
+ * When the buffer is full, whole readings are either waited for or dropped,
+ * as chosen by the Overflow policy. Unless every reading carries the descriptions,
+ * a reading carrying the description of its sensor or feature of interest is never dropped,
+ * as it may be the only one in its period to carry it. When an observation is dropped, the observation following it is
+ * relinked by fso:follows to the last observation before it that was not dropped.
+ */
+public final class IngestQueue implements Consumer<List<RdfQuadruple>>, AutoCloseable {
+    /** Ends the queue */
+    private static final List<RdfQuadruple> END = Collections.emptyList();
+
+    /** Stands for the lack of a previous observation in relinks */
+    private static final String NONE = "";
+
+    /** Modelled readings, each as its list of quadruples */
+    private final BlockingQueue<List<RdfQuadruple>> readings;
+
+    /** What to do when the buffer is full */
+    private final Overflow overflow;
+
+    /** Whether readings carrying a description are never dropped */
+    private final boolean keepDescribing;
+
+    /** Puts the quadruples on the stream */
+    private final Consumer<RdfQuadruple> engine;
+
+    /** Takes readings from the buffer and passes them to the engine */
+    private final Thread ingester;
+
+    /** Set by the ingesting thread if the engine failed */
+    private volatile RuntimeException failure = null;
+
+    /** Number of readings dropped because the buffer was full */
+    private long numDropped = 0;
+
+    /**
+     * The observation each dropped observation followed, or NONE, until the observation
+     * following the dropped one is relinked. A reading is dropped, and a reading is taken
+     * and relinked, while holding the lock of this map.
+     */
+    private final Map<String, String> relinks = new HashMap<>();
+
+    /**
+     * Starts the ingesting thread.
+     * @param engine Puts the quadruples on the stream
+     * @param capacity Number of readings to buffer
+     * @param overflow What to do when the buffer is full
+     * @param keepDescribing Never drop readings carrying a description; false if every reading carries them
+     */
+    IngestQueue(
+            final Consumer<RdfQuadruple> engine,
+            final int capacity,
+            final Overflow overflow,
+            final boolean keepDescribing) {
+        this.engine = engine;
+        this.readings = new ArrayBlockingQueue<>(capacity);
+        this.overflow = overflow;
+        this.keepDescribing = keepDescribing;
+        this.ingester = new Thread(this::ingest, "engine-ingest");
+        this.ingester.setDaemon(true);
+        this.ingester.start();
+    }
+
+    /**
+     * Queues a modelled reading, waiting or dropping a reading if the buffer is full.
+     * Waits rather than drop if every reading that could be dropped carries a description to keep.
+     * @param reading The quadruples of one reading
+     */
+    @Override
+    public void accept(final List<RdfQuadruple> reading) {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        if (reading.isEmpty()) {
+            return;
+        }
+        switch (this.overflow) {
+        case BLOCK:
+            this.put(reading);
+            break;
+        case DROP_NEWEST:
+            if (this.isKept(reading)) {
+                this.put(reading);
+            } else if (!this.readings.offer(reading)) {
+                synchronized (this.relinks) {
+                    this.dropped(reading);
+                }
+            }
+            break;
+        case DROP_OLDEST:
+            while (!this.readings.offer(reading)) {
+                if (!this.dropOldest()) {
+                    this.put(reading);
+                    break;
+                }
+            }
+            break;
+        default:
+            throw IotStreamsException.internalError(String.format(
+                    "The IngestQueue needs to handle the new overflow policy %s",
+                    this.overflow));
+        }
+    }
+
+    /**
+     * Waits until every queued reading has been passed to the engine, then stops the ingesting thread.
+     */
+    @Override
+    public void close() {
+        this.put(END);
+        try {
+            this.ingester.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw IotStreamsException.internalError(e);
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * @return Number of readings dropped because the buffer was full
+     */
+    public long getNumDropped() {
+        return this.numDropped;
+    }
+
+    /**
+     * @param reading A reading to queue, waiting while the buffer is full
+     */
+    private void put(final List<RdfQuadruple> reading) {
+        try {
+            this.readings.put(reading);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw IotStreamsException.internalError(e);
+        }
+    }
+
+    /**
+     * @param reading A reading
+     * @return Whether the reading must not be dropped
+     */
+    private boolean isKept(final List<RdfQuadruple> reading) {
+        return this.keepDescribing && SSNModeller.isDescribing(reading);
+    }
+
+    /**
+     * Drops the oldest queued reading which does not carry a description to keep.
+     * @return false if every queued reading carries a description to keep
+     */
+    private boolean dropOldest() {
+        synchronized (this.relinks) {
+            final Iterator<List<RdfQuadruple>> queued = this.readings.iterator();
+            while (queued.hasNext()) {
+                final List<RdfQuadruple> reading = queued.next();
+                if (reading != END && !this.isKept(reading)) {
+                    queued.remove();
+                    this.dropped(reading);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Counts a dropped reading and notes which observation the one following it must be relinked to.
+     * Called while holding the lock of relinks.
+     * @param reading A reading which will not be passed to the engine
+     */
+    private void dropped(final List<RdfQuadruple> reading) {
+        final RdfQuadruple follows = SSNModeller.follows(reading);
+        this.relinks.put(SSNModeller.observation(reading), follows == null ? NONE : follows.getObject());
+        this.numDropped++;
+    }
+
+    /**
+     * Links the observation of a reading to the last observation it follows which was not dropped.
+     * @param reading A reading taken from the buffer
+     * @return The reading, or a copy of it if it followed a dropped observation
+     */
+    private List<RdfQuadruple> relink(final List<RdfQuadruple> reading) {
+        if (this.overflow == Overflow.BLOCK || reading == END) {
+            return reading;
+        }
+        synchronized (this.relinks) {
+            if (this.relinks.isEmpty()) {
+                return reading;
+            }
+            final RdfQuadruple follows = SSNModeller.follows(reading);
+            if (follows == null || !this.relinks.containsKey(follows.getObject())) {
+                return reading;
+            }
+            String previous = follows.getObject();
+            while (this.relinks.containsKey(previous)) {
+                previous = this.relinks.remove(previous);
+            }
+            final List<RdfQuadruple> relinked = new ArrayList<>(reading.subList(0, reading.size() - 1));
+            if (previous != NONE) {
+                relinked.add(new RdfQuadruple(
+                        follows.getSubject(),
+                        follows.getPredicate(),
+                        previous,
+                        follows.getTimestamp()));
+            }
+            return relinked;
+        }
+    }
+
+    /**
+     * Runs on the ingesting thread: passes readings to the engine until the queue ends.
+     * If the engine fails, the remaining readings are discarded so that the
+     * queueing thread is never blocked, and the failure is rethrown there.
+     */
+    private void ingest() {
+        try {
+            List<RdfQuadruple> reading = this.relink(this.readings.take());
+            while (reading != END) {
+                if (this.failure == null) {
+                    try {
+                        reading.forEach(this.engine);
+                    } catch (final RuntimeException e) {
+                        this.failure = e;
+                    }
+                }
+                reading = this.relink(this.readings.take());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * What to do with a reading when the buffer is full.
+     */
+    public enum Overflow {
+        /** Wait until the engine has taken a reading: nothing is lost, modelling slows down to the engine */
+        BLOCK,
+        /** Drop the reading being queued, unless it carries a description */
+        DROP_NEWEST,
+        /** Drop the oldest queued reading which does not carry a description to make room */
+        DROP_OLDEST;
+    }
+}
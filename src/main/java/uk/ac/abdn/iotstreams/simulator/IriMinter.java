@@ -0,0 +1,36 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import java.util.UUID;
+
+/**
+ *
+ * @author nhc
+ *
+ * An IriMinter creates the IRIs of the individuals modelled for each reading,
+ * such as its observation and sensor output.
+ */
+@FunctionalInterface
+public interface IriMinter {
+    /**
+     * Reproducible IRIs made of the sensor, the time of the reading and a counter
+     * of the readings of the sensor, e.g. ".../wirelesstag-3/1455114480000-17".
+     * Modelling the same readings twice gives the same IRIs.
+     */
+    IriMinter SEQUENTIAL = (base, sensor, epochMillis, sequence) ->
+            base + sensor + '/' + epochMillis + '-' + sequence;
+
+    /** Random IRIs, different every time the readings are modelled */
+    IriMinter RANDOM = (base, sensor, epochMillis, sequence) ->
+            base + UUID.randomUUID();
+
+    /**
+     * Must return different IRIs for different sequence numbers of a sensor,
+     * and may be called by several threads at the same time for different sensors.
+     * @param base Start of the IRI, ending with "/", e.g. "http://FoodSafety/observation/temperature/"
+     * @param sensor Name of the sensor that made the reading, unique among the sensors, e.g. "wirelesstag-3"
+     * @param epochMillis Timestamp of the reading, in milliseconds since the epoch
+     * @param sequence Number of readings of the sensor modelled before this one
+     * @return A new IRI
+     */
+    String mint(String base, String sensor, long epochMillis, long sequence);
+}
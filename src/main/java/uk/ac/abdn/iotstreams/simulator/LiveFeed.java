@@ -0,0 +1,224 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+import uk.ac.abdn.iotstreams.simulator.meatprobe.MeatProbeFilesParser;
+import uk.ac.abdn.iotstreams.simulator.meatprobe.MeatProbeTail;
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.wirelesstag.WirelessTagClient;
+import uk.ac.abdn.iotstreams.util.Constants;
+import uk.ac.abdn.iotstreams.util.Logging;
+import uk.ac.abdn.iotstreams.util.UkTime;
+
+/**
+ *
+ * @author nhc
+ *
+ * A LiveFeed keeps passing new sensor readings to an engine using live data.
+ * Every poll, it fetches the readings each wireless tag made since its latest
+ * reading already passed on, and parses the lines appended to the meat probe
+ * files since the previous poll. The new readings are merged by time and modelled
+ * as they arrive, so nothing but the latest state of each sensor is kept.
+ * Wireless tag readings made before the LiveFeed was created are ignored;
+ * the meat probe files are read from where the previous LiveFeed stopped.
+ */
+public final class LiveFeed {
+    /** Models the readings and passes the quadruples to the engine */
+    private final SSNModeller modeller;
+
+    /** Time between polls */
+    private final Duration pollInterval;
+
+    /** Polled wireless tags, by the feature of interest they observe and their sensor ID */
+    private final Map<Map.Entry<String, Integer>, Tag> tags = new LinkedHashMap<>();
+
+    /** Follows the meat probe files, if added */
+    private Optional<MeatProbeTail> meatProbe = Optional.empty();
+
+    /** Annotates the readings of the meat probe */
+    private Consumer<ReadingBatch> meatProbeAnnotator = batch -> { };
+
+    /** Time the LiveFeed was created, in milliseconds since the epoch */
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * @param engine Puts the modelled quadruples on the stream of an engine for live data
+     * @param iris Mints the IRIs of the modelled individuals, e.g. IriMinter.SEQUENTIAL
+     * @param describeEvery Emit the static descriptions of sensors and features of interest with
+     * their first reading in each period of this length, e.g. one minute, or with every reading
+     * if zero; or only once if empty
+     * @param pollInterval Time between polls, e.g. one minute
+     */
+    public LiveFeed(
+            final Consumer<RdfQuadruple> engine,
+            final IriMinter iris,
+            final Optional<Duration> describeEvery,
+            final Duration pollInterval) {
+        this.modeller = new SSNModeller(engine, iris, describeEvery);
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Polls a wireless tag for new readings of a feature of interest.
+     * A tag observing several features of interest is added once for each of them.
+     * @param client Facade to the wireless tag API
+     * @param sensorId The ID of the sensor to get data for, e.g. 3
+     * @param foi IRI of the feature of interest the sensor observes
+     */
+    public void add(
+            final WirelessTagClient client,
+            final int sensorId,
+            final String foi) {
+        this.tags.put(
+                new SimpleImmutableEntry<>(foi, sensorId),
+                new Tag(client, sensorId, batch -> batch.setFoi(foi), this.startMillis));
+    }
+
+    /**
+     * Follows the meat probe files, see MeatProbeFilesParser.tail().
+     * @param parser parser for the meat probe files
+     * @param foiAnnotator object to replace raw fields with manual annotations
+     */
+    public void add(
+            final MeatProbeFilesParser parser,
+            final Consumer<ReadingBatch> foiAnnotator) {
+        this.meatProbe.ifPresent(MeatProbeTail::close);
+        this.meatProbe = Optional.of(parser.tail());
+        this.meatProbeAnnotator = foiAnnotator;
+    }
+
+    /**
+     * Polls for new readings until the thread is interrupted.
+     * A poll that fails, e.g. because the wireless tag server could not be reached
+     * or because of a bug, is logged and retried at the next poll.
+     */
+    public void run() {
+        Logging.info(String.format(
+                "Polling %d wireless tags%s every %s",
+                this.tags.size(),
+                this.meatProbe.isPresent() ? " and the meat probe files" : "",
+                this.pollInterval));
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    this.poll();
+                } catch (final RuntimeException e) {
+                    Logging.warn(String.format("Poll failed, retrying in %s: %s", this.pollInterval, e));
+                }
+                try {
+                    Thread.sleep(this.pollInterval.toMillis());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            this.meatProbe.ifPresent(MeatProbeTail::close);
+        }
+    }
+
+    /**
+     * Passes every reading made since the previous poll to the engine, in order of time.
+     * @return Number of readings passed on
+     */
+    long poll() {
+        final List<Iterator<ReadingBatch>> sources = new ArrayList<>();
+        final Map<Tag, Long> lastSeen = new LinkedHashMap<>();
+        this.tags.values().forEach(tag -> lastSeen.put(tag, tag.poll(sources)));
+        this.meatProbe.ifPresent(tail -> tail.poll().stream()
+                .map(batch -> slice(batch, Long.MIN_VALUE, this.meatProbeAnnotator))
+                .forEach(batch -> sources.add(Collections.singletonList(batch).iterator())));
+        final long[] numReadings = {0};
+        new TimeOrderedMerge(sources).forEachRemaining((batch, row) -> {
+            this.modeller.accept(batch, row);
+            numReadings[0] += 1;
+        });
+        //The new readings have been passed on: do not fetch them again, nor read them again after a restart
+        lastSeen.forEach(Tag::commit);
+        this.meatProbe.ifPresent(MeatProbeTail::checkpoint);
+        if (numReadings[0] > 0) {
+            Logging.info(String.format("%d new readings", numReadings[0]));
+        }
+        return numReadings[0];
+    }
+
+    /**
+     * @param batch Readings of a sensor
+     * @param after Keep readings after this time, in milliseconds since the epoch
+     * @param foiAnnotator object to replace raw fields with manual annotations
+     * @return batch, sliced, sorted by time and annotated
+     */
+    private static ReadingBatch slice(
+            final ReadingBatch batch,
+            final long after,
+            final Consumer<ReadingBatch> foiAnnotator) {
+        batch.retainBetween(after, Long.MAX_VALUE);
+        batch.sortByTime();
+        foiAnnotator.accept(batch);
+        return batch;
+    }
+
+    /**
+     * A polled wireless tag and the time of its latest reading passed on.
+     */
+    private static final class Tag {
+        private final WirelessTagClient client;
+        private final int sensorId;
+        private final Consumer<ReadingBatch> foiAnnotator;
+
+        /** Time of the latest reading passed on, in milliseconds since the epoch */
+        private long lastSeen;
+
+        Tag(
+                final WirelessTagClient client,
+                final int sensorId,
+                final Consumer<ReadingBatch> foiAnnotator,
+                final long lastSeen) {
+            this.client = client;
+            this.sensorId = sensorId;
+            this.foiAnnotator = foiAnnotator;
+            this.lastSeen = lastSeen;
+        }
+
+        /**
+         * Fetches the days since the latest reading passed on, keeping only the newer readings.
+         * They are fetched again by the next poll unless commit() is called once they are passed on.
+         * @param sources Receives the new readings, as a source of one batch per day
+         * @return The time of the latest new reading, to commit() once they are passed on
+         */
+        long poll(final List<Iterator<ReadingBatch>> sources) {
+            final LocalDate today = LocalDate.now(Constants.UK);
+            final LocalDate lastSeenDate = UkTime.zoned(this.lastSeen).toLocalDate();
+            final List<ReadingBatch> batches = this.client.getStatsRawBatches(
+                    this.sensorId,
+                    lastSeenDate.isBefore(today) ? lastSeenDate : today,
+                    today)
+                .map(batch -> slice(batch, this.lastSeen, this.foiAnnotator))
+                .filter(batch -> batch.size() > 0)
+                .collect(Collectors.toList());
+            sources.add(batches.iterator());
+            return batches.stream()
+                    .mapToLong(batch -> batch.epochMillis(batch.size() - 1))
+                    .reduce(this.lastSeen, Math::max);
+        }
+
+        /**
+         * @param latest The time returned by poll(), whose readings have been passed on
+         */
+        void commit(final long latest) {
+            this.lastSeen = latest;
+        }
+    }
+}
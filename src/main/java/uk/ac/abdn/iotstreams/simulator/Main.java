@@ -1,18 +1,27 @@
 package uk.ac.abdn.iotstreams.simulator;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Optional;
+import java.util.function.Consumer;
 
+import uk.ac.abdn.iotstreams.csparql.BinaryRdfReader;
 import uk.ac.abdn.iotstreams.csparql.IotStreamsEngine;
+import uk.ac.abdn.iotstreams.csparql.ProvenanceFiles;
+import uk.ac.abdn.iotstreams.csparql.ProvenanceStore;
 import uk.ac.abdn.iotstreams.simulator.meatprobe.MeatProbeFilesParser;
-import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading;
 import uk.ac.abdn.iotstreams.simulator.wirelesstag.WirelessTagClient;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
+import uk.ac.abdn.iotstreams.util.Logging;
 
 import com.google.gson.Gson;
 import com.hp.hpl.jena.rdf.model.Model;
@@ -31,63 +40,199 @@ public final class Main {
      * and download wireless tag data from the internet.
      * The readings will contain temperature from fromDate to toDate
      * 
+     * 
+     * With the argument "live", the application instead runs until stopped,
+     * polling for new readings and writing inferences as soon as they are made.
+     * 
+     * With the argument "replay" followed by a recording made with "recordStream" in the input,
+     * the application instead puts the recorded quadruples on the stream as fast as possible,
+     * without fetching, parsing or modelling any readings.
+     * 
+     * With the argument "decode" followed by files of binary RDF, e.g. provenance
+     * files in the BINARY format, the application writes their triples to System.out as N-Triples.
+     * 
      * This application requires its input to be provided in a file at Input.INPUT_PATH
-     * @param args not used
+     * @param args "live" to run on live data, "replay" and a recording to replay,
+     * "decode" and files to decode, or nothing to run on recorded data
      */
     public static void main(final String[] args) {
+        if (args.length > 0 && args[0].equals("decode")) {
+            decode(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         //Parse input file
         final Input input = Input.readAndparse();
         try {
-            run(input);
+            if (args.length > 0 && args[0].equals("live")) {
+                runLive(input);
+            } else if (args.length > 0 && args[0].equals("replay")) {
+                if (args.length < 2) {
+                    throw IotStreamsException.usageError("The argument replay must be followed by a recording");
+                }
+                run(input, engine -> replay(Paths.get(args[1]), engine));
+            } else {
+                run(input, engine -> simulate(input, engine));
+            }
         } catch (final Exception e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * Runs an analysis of recorded data on an engine, passing its inferences to the provenance
+     * files or store of the input, or else writing them to System.out when it is done.
+     * @param input Parsed from file system
+     * @param analysis Puts the data on the stream of the given engine, which runs the queries and inferences
+     */
+    private static void run(final Input input, final Consumer<IotStreamsEngine> analysis) {
+        if (input.provenance == null && input.provenanceStore == null) {
+            //Jena Model collecting all inferences
+            final Model persistentModel = ModelFactory.createDefaultModel();
+            analysis.accept(IotStreamsEngine.forRecordedData(persistentModel::add));
+            //Output all inferred data on System.out
+            persistentModel.write(System.out, "N3");
+            return;
+        }
+        final Optional<ProvenanceFiles> files = Optional.ofNullable(input.provenance).map(ProvenanceOutput::open);
+        try {
+            final Optional<ProvenanceStore> store = Optional.ofNullable(input.provenanceStore).map(StoreOutput::open);
+            try {
+                final IotStreamsEngine engine = IotStreamsEngine.forRecordedData(inferred -> {
+                    files.ifPresent(f -> f.accept(inferred));
+                    store.ifPresent(s -> s.accept(inferred));
+                });
+                //Each batch is timed by the recorded data it was inferred from
+                files.ifPresent(f -> f.setBatchTime(engine::getStreamTime));
+                analysis.accept(engine);
+            } finally {
+                store.ifPresent(ProvenanceStore::close);
+            }
+        } finally {
+            files.ifPresent(ProvenanceFiles::close);
+        }
+    }
+    
     /**
      * Analyzes the readings of each tag in the input paired with the
      * meat probe readings.
      * @param input Parsed from file system
+     * @param engine An engine for recorded data
      */
-    private static void run(final Input input) {
-        //Jena Model collecting all inferences
-        final Model persistentModel = ModelFactory.createDefaultModel();
+    private static void simulate(final Input input, final IotStreamsEngine engine) {
         //Connect to wireless tag site
         final WirelessTagClient client = new WirelessTagClient();
         client.logTagList();
-        final IotStreamsEngine engine = IotStreamsEngine.forRecordedData(persistentModel::add);
-        final Simulator simulator = new Simulator(input.from, input.to, engine);
+        final Simulator simulator = new Simulator(
+                input.from, 
+                input.to, 
+                engine::put, 
+                input.maxParallelFetches,
+                input.randomIris ? IriMinter.RANDOM : IriMinter.SEQUENTIAL,
+                input.describeEvery());
+        simulator.setIngestQueue(input.ingestQueueCapacity, input.ingestOverflow);
+        input.recordStream().ifPresent(engine::record);
         //Get meat probe data
         simulator
             .add(new MeatProbeFilesParser(),
-                 new FoiAnnotator());
+                 new FoiAnnotator()::annotate);
         //Get wireless tag data
         input.foi2wirelessTagID.forEach(
                 (foi, id) -> simulator.add(
                                 client, 
                                 id,
-                                r -> setFoi(foi, r)));
+                                batch -> batch.setFoi(foi)));
         //Run the queries and inferences
-        simulator.done();
+        try {
+            simulator.done();
+        } finally {
+            engine.stopRecording();
+        }
         //Log stats from engine
         engine.log();
-        //Output all inferred data on System.out
-        persistentModel.write(System.out, "N3");
     }
     
     /**
-     * Sets r.foi to foi
-     * @param foi Any feature of interest
-     * @param r Any reading
-     * @return r after update
+     * Puts the quadruples of a recording on the stream of an engine as fast as possible.
+     * @param recording A file recorded by an IotStreamsEngine
+     * @param engine An engine for recorded data
      */
-    private static TimedTemperatureReading setFoi(
-            final String foi, 
-            final TimedTemperatureReading r) {
-        r.foi = foi;
-        return r;
+    private static void replay(final Path recording, final IotStreamsEngine engine) {
+        engine.replay(recording);
+        engine.log();
     }
-
+    
+    /**
+     * Feeds new readings of each tag in the input and new meat probe files
+     * to an engine using live data, until the process is stopped.
+     * Inferences are written to the provenance files or store of the input, or else to
+     * System.out as N-Triples, when they are made, so they do not accumulate in memory.
+     * @param input Parsed from file system
+     */
+    private static void runLive(final Input input) {
+        final Optional<ProvenanceFiles> files = Optional.ofNullable(input.provenance).map(ProvenanceOutput::open);
+        final Optional<ProvenanceStore> store = Optional.ofNullable(input.provenanceStore).map(StoreOutput::open);
+        final Consumer<Model> persistentModel;
+        if (!files.isPresent() && !store.isPresent()) {
+            persistentModel = inferred -> {
+                synchronized (System.out) {
+                    inferred.write(System.out, "N-TRIPLES");
+                    System.out.flush();
+                }
+            };
+        } else {
+            //Finish the current file and commit the store when the process is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                files.ifPresent(ProvenanceFiles::close);
+                store.ifPresent(ProvenanceStore::close);
+            }));
+            persistentModel = inferred -> {
+                files.ifPresent(f -> f.accept(inferred));
+                store.ifPresent(s -> s.accept(inferred));
+            };
+        }
+        final IotStreamsEngine engine = IotStreamsEngine.forLiveData(persistentModel);
+        //Each batch is timed by the readings it was inferred from
+        files.ifPresent(f -> f.setBatchTime(engine::getStreamTime));
+        //Queries can be changed without restarting
+        engine.reloadQueriesOnChange();
+        input.recordStream().ifPresent(recording -> {
+            engine.record(recording);
+            //Close the recording when the process is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(engine::stopRecording));
+        });
+        final WirelessTagClient client = new WirelessTagClient();
+        final LiveFeed feed = new LiveFeed(
+                engine::put,
+                input.randomIris ? IriMinter.RANDOM : IriMinter.SEQUENTIAL,
+                input.describeEvery(),
+                input.pollInterval());
+        feed.add(new MeatProbeFilesParser(),
+                 new FoiAnnotator()::annotate);
+        input.foi2wirelessTagID.forEach((foi, id) -> feed.add(client, id, foi));
+        feed.run();
+    }
+    
+    /**
+     * Writes the triples of files of binary RDF to System.out as N-Triples, one batch at a time.
+     * A file that ends within a batch, e.g. because its writer crashed, is written up to
+     * that batch, as BinaryRdfReader.read() reads it.
+     * @param files Files written by a BinaryRdfWriter, gzipped if their names end with ".gz"
+     */
+    private static void decode(final String[] files) {
+        for (final String file : files) {
+            try (final BinaryRdfReader reader = new BinaryRdfReader(BinaryRdfReader.open(Paths.get(file)))) {
+                for (Model batch = reader.next(); batch != null; batch = reader.next()) {
+                    batch.write(System.out, "N-TRIPLES");
+                }
+            } catch (final EOFException e) {
+                Logging.warn(String.format("%s ends within a batch, which was skipped", file));
+            } catch (final IOException e) {
+                throw IotStreamsException.userInputError(file, e);
+            }
+        }
+        System.out.flush();
+    }
+    
     /**
      * 
      * @author nhc
@@ -101,6 +246,30 @@ public final class Main {
         private String from;
         private String to;
         private HashMap<String, Integer> foi2wirelessTagID;
+        /** Optional: number of wireless tags to fetch data for at the same time */
+        private int maxParallelFetches = 4;
+        /** Optional: mint random IRIs instead of reproducible ones */
+        private boolean randomIris = false;
+        /**
+         * Optional: emit the static descriptions of sensors and features of interest with their first
+         * reading in each period of this ISO duration, at most half the range of the shortest query window;
+         * by default PT0S, with every reading
+         */
+        private String describeEvery = "PT0S";
+        /** Optional: emit the static descriptions of sensors and features of interest only once instead */
+        private boolean describeOnce = false;
+        /** Optional: number of readings to buffer for the engine on a separate thread; 0 for none */
+        private int ingestQueueCapacity = 0;
+        /** Optional: BLOCK, DROP_NEWEST or DROP_OLDEST readings when the ingest queue is full */
+        private IngestQueue.Overflow ingestOverflow = IngestQueue.Overflow.BLOCK;
+        /** Optional: ISO duration between polls for new readings in live mode */
+        private String pollInterval = "PT1M";
+        /** Optional: write inferences to files instead of System.out */
+        private ProvenanceOutput provenance;
+        /** Optional: commit inferences to an indexed store instead of System.out */
+        private StoreOutput provenanceStore;
+        /** Optional: record every quadruple put on the stream to this new file, for the argument replay */
+        private String recordStream;
         
         /**
          * Read and parse JSON from INPUT_PATH
@@ -117,5 +286,89 @@ public final class Main {
                 throw IotStreamsException.userInputError(INPUT_PATH.toString(), e);
             }
         }
+
+        /**
+         * @return The parsed describeEvery, or empty if describeOnce
+         */
+        Optional<Duration> describeEvery() {
+            if (this.describeOnce) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(Duration.parse(this.describeEvery));
+            } catch (final DateTimeParseException e) {
+                throw IotStreamsException.userInputError(this.describeEvery, e);
+            }
+        }
+
+        /**
+         * @return The file to record the stream to, if any
+         */
+        Optional<Path> recordStream() {
+            return Optional.ofNullable(this.recordStream).map(Paths::get);
+        }
+
+        /**
+         * @return The parsed pollInterval
+         */
+        Duration pollInterval() {
+            try {
+                return Duration.parse(this.pollInterval);
+            } catch (final DateTimeParseException e) {
+                throw IotStreamsException.userInputError(this.pollInterval, e);
+            }
+        }
+    }
+    
+    /**
+     * Defines where to write inferred provenance, see ProvenanceFiles.
+     * This class is instantiated by the GSON library, parsed from JSON input.
+     */
+    private static final class ProvenanceOutput {
+        /** Directory to write the files in */
+        private String directory = "provenance";
+        /** N_TRIPLES, N_QUADS or BINARY */
+        private ProvenanceFiles.Format format = ProvenanceFiles.Format.N_TRIPLES;
+        /** Gzip the files? */
+        private boolean gzip = false;
+        /** Start a new file once the current one holds this many triples */
+        private long maxTriplesPerFile = 1000000;
+        
+        /**
+         * @return A ProvenanceFiles writing as defined
+         */
+        ProvenanceFiles open() {
+            if (this.format == null || this.maxTriplesPerFile <= 0) {
+                throw IotStreamsException.configurationError(
+                        "The provenance format must be one of "
+                        + Arrays.toString(ProvenanceFiles.Format.values())
+                        + ", and maxTriplesPerFile must be positive");
+            }
+            return new ProvenanceFiles(Paths.get(this.directory), this.format, this.gzip, this.maxTriplesPerFile);
+        }
+    }
+    
+    /**
+     * Defines where and how often to commit inferred provenance, see ProvenanceStore.
+     * This class is instantiated by the GSON library, parsed from JSON input.
+     */
+    private static final class StoreOutput {
+        /** Directory of the store */
+        private String directory = "provenance-store";
+        /** Commit once this many batches are buffered */
+        private int commitEveryBatches = 100;
+        /** Commit once the oldest buffered batch is this many milliseconds old */
+        private long commitEveryMillis = 5000;
+        
+        /**
+         * @return The ProvenanceStore defined
+         */
+        ProvenanceStore open() {
+            if (this.commitEveryBatches <= 0 || this.commitEveryMillis <= 0) {
+                throw IotStreamsException.configurationError(
+                        "commitEveryBatches and commitEveryMillis of the provenance store must be positive");
+            }
+            return new ProvenanceStore(Paths.get(this.directory), this.commitEveryBatches, this.commitEveryMillis);
+        }
     }
 }
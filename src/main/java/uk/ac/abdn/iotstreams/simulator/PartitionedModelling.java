@@ -0,0 +1,233 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+/**
+ *
+ * @author nhc
+ *
+ * PartitionedModelling models the readings of each partition of sensors on
+ * its own thread, then merges the modelled readings of all partitions by time
+ * on the calling thread before passing them to the engine.
+ * Each sensor must belong to a single partition, so that the readings of every
+ * sensor are modelled in order by one thread at a time. A bounded queue per partition keeps
+ * the modelling from running far ahead of the engine. There are at most as many
+ * modelling threads as processors: a partition whose queue is full gives up its thread,
+ * and is modelled further once the engine has taken half of its queue.
+ */
+final class PartitionedModelling {
+    /** Number of modelled readings buffered per partition */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /** Ends the queue of a partition */
+    private static final List<RdfQuadruple> END = Collections.emptyList();
+
+    /** Models readings of any sensor */
+    private final SSNModeller modeller;
+
+    /** The partitions, each with its time-ordered sources */
+    private final List<Partition> partitions = new ArrayList<>();
+
+    /** Runs the modelling of the partitions while run() is running */
+    private ExecutorService workers;
+
+    /**
+     * @param modeller Models readings of any sensor
+     * @param partitions The sources of each partition of sensors
+     */
+    PartitionedModelling(
+            final SSNModeller modeller,
+            final Collection<List<Iterator<ReadingBatch>>> partitions) {
+        this.modeller = modeller;
+        partitions.forEach(sources -> this.partitions.add(new Partition(this.partitions.size(), sources)));
+    }
+
+    /**
+     * Models all readings and passes them on in order of time.
+     * Readings with the same time are passed on in the order of their partitions.
+     * @param engine Receives the quadruples of each reading
+     * @return Number of readings modelled
+     */
+    long run(final Consumer<List<RdfQuadruple>> engine) {
+        this.workers = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(this.partitions.size(), Runtime.getRuntime().availableProcessors())),
+                task -> {
+                    final Thread thread = new Thread(task, "ssn-modeller");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            this.partitions.forEach(Partition::schedule);
+            final PriorityQueue<Partition> heads = new PriorityQueue<>(
+                    Math.max(1, this.partitions.size()),
+                    Comparator.comparingLong(Partition::time).thenComparingInt(p -> p.index));
+            this.partitions.stream()
+                .filter(Partition::advance)
+                .forEach(heads::add);
+            long numReadings = 0;
+            while (!heads.isEmpty()) {
+                final Partition partition = heads.poll();
+                engine.accept(partition.head);
+                numReadings += 1;
+                if (partition.advance()) {
+                    heads.add(partition);
+                }
+            }
+            return numReadings;
+        } finally {
+            this.workers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Number of readings that were out of order in their sources
+     */
+    long getNumOutOfOrder() {
+        return this.partitions.stream()
+                .mapToLong(partition -> partition.numOutOfOrder)
+                .sum();
+    }
+
+    /**
+     * The sources of one partition of sensors, and the queue of their modelled readings.
+     */
+    private final class Partition {
+        /** Position among the partitions, to order readings with the same time */
+        private final int index;
+
+        /** The time-ordered sources of the partition */
+        private final List<Iterator<ReadingBatch>> sources;
+
+        /** Modelled readings, each as its list of quadruples; END ends the partition */
+        private final BlockingQueue<List<RdfQuadruple>> modelled = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        /** Whether a modelling step is submitted or running; only one is at a time */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        /** Merges the sources, created by the first modelling step */
+        private TimeOrderedMerge merge = null;
+
+        /** Set by a modelling step if modelling failed, before END is queued */
+        private volatile Throwable failure = null;
+
+        /** Set by the modelling step that queues END */
+        private volatile long numOutOfOrder = 0;
+
+        /** The next modelled reading to pass on, taken from the queue */
+        private List<RdfQuadruple> head = Collections.emptyList();
+
+        Partition(final int index, final List<Iterator<ReadingBatch>> sources) {
+            this.index = index;
+            this.sources = sources;
+        }
+
+        /**
+         * Submits a modelling step.
+         */
+        void schedule() {
+            this.scheduled.set(true);
+            PartitionedModelling.this.workers.execute(this::model);
+        }
+
+        /**
+         * Runs on a modelling thread: merges the sources by time and models readings
+         * until the queue is full or every reading is queued. Whatever goes wrong,
+         * even an Error, is left for the calling thread and ends the queue.
+         */
+        private void model() {
+            boolean ended = true;
+            try {
+                if (this.merge == null) {
+                    this.merge = new TimeOrderedMerge(this.sources);
+                }
+                while (true) {
+                    while (this.modelled.remainingCapacity() > 0) {
+                        if (!this.merge.next(this::model)) {
+                            this.numOutOfOrder = this.merge.getNumOutOfOrder();
+                            return;
+                        }
+                    }
+                    //Full: give up the thread until the calling thread has taken half the queue
+                    this.scheduled.set(false);
+                    if (this.modelled.remainingCapacity() < QUEUE_CAPACITY / 2
+                            || !this.scheduled.compareAndSet(false, true)) {
+                        ended = false;
+                        return;
+                    }
+                }
+            } catch (final Throwable e) {
+                this.failure = e;
+            } finally {
+                if (ended) {
+                    //If the queue is full, the calling thread sees the failure before it needs END
+                    this.modelled.offer(END);
+                }
+            }
+        }
+
+        /**
+         * Runs on a modelling thread: models a reading and queues it.
+         * @param batch A batch of readings
+         * @param row The row of the reading in batch
+         */
+        private void model(final ReadingBatch batch, final int row) {
+            final List<RdfQuadruple> quads = new ArrayList<>(32);
+            PartitionedModelling.this.modeller.model(batch, row, quads::add);
+            this.modelled.add(quads);
+        }
+
+        /**
+         * Runs on the calling thread: takes the next modelled reading from the queue,
+         * and resumes modelling once half the queue is free.
+         * @return Whether there was a next reading
+         */
+        boolean advance() {
+            try {
+                this.head = this.modelled.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw IotStreamsException.internalError(e);
+            }
+            final Throwable modellingFailure = this.failure;
+            if (modellingFailure instanceof RuntimeException) {
+                throw (RuntimeException) modellingFailure;
+            }
+            if (modellingFailure instanceof Error) {
+                throw (Error) modellingFailure;
+            }
+            if (modellingFailure != null) {
+                throw IotStreamsException.internalError(modellingFailure.toString());
+            }
+            if (this.head != END
+                    && this.modelled.remainingCapacity() >= QUEUE_CAPACITY / 2
+                    && this.scheduled.compareAndSet(false, true)) {
+                PartitionedModelling.this.workers.execute(this::model);
+            }
+            return this.head != END;
+        }
+
+        /**
+         * @return Time of the next modelled reading
+         */
+        long time() {
+            return this.head.get(0).getTimestamp();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import uk.ac.abdn.iotstreams.csparql.TermDictionary;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+/**
+ *
+ * @author nhc
+ *
+ * A QuadTemplate is a precompiled set of triple patterns over a fixed term table.
+ * Some terms are constants (known when the template is built), the rest are
+ * variables bound per instantiation. Instantiating the template emits one
+ * RdfQuadruple per pattern without building any intermediate Jena model.
+ */
+final class QuadTemplate {
+    /** Constant terms, indexed by term number; null for variables */
+    private final String[] constants;
+
+    /** Term number of each variable, in the order variables were declared */
+    private final int[] variables;
+
+    /** Subject/predicate/object term numbers, three per pattern */
+    private final int[] patterns;
+
+    /**
+     * @param builder The builder holding the term table and patterns
+     */
+    private QuadTemplate(final Builder builder) {
+        this.constants = builder.terms.toArray(new String[builder.terms.size()]);
+        this.variables = builder.variables.stream().mapToInt(Integer::intValue).toArray();
+        this.patterns = builder.patterns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Emits all patterns with the variables bound to the given values.
+     * @param values One value per variable, in declaration order
+     * @param timestamp Timestamp to put on every emitted quadruple
+     * @param sink Receives the emitted quadruples
+     */
+    void instantiate(
+            final String[] values,
+            final long timestamp,
+            final Consumer<RdfQuadruple> sink) {
+        if (values.length != this.variables.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Template has %d variables, got %d values",
+                    this.variables.length,
+                    values.length));
+        }
+        final String[] terms = this.constants.clone();
+        for (int i = 0; i < values.length; i++) {
+            terms[this.variables[i]] = values[i];
+        }
+        for (int i = 0; i < this.patterns.length; i += 3) {
+            sink.accept(new RdfQuadruple(
+                    terms[this.patterns[i]],
+                    terms[this.patterns[i + 1]],
+                    terms[this.patterns[i + 2]],
+                    timestamp));
+        }
+    }
+
+    /**
+     * Collects terms and patterns for a QuadTemplate.
+     */
+    static final class Builder {
+        private final List<String> terms = new ArrayList<>();
+        private final List<Integer> variables = new ArrayList<>();
+        private final List<Integer> patterns = new ArrayList<>();
+
+        /**
+         * @param value A vocabulary URI, interned through the TermDictionary
+         * @return The term number of the new constant
+         */
+        int constant(final String value) {
+            final int existing = this.terms.indexOf(value);
+            if (existing >= 0) {
+                return existing;
+            }
+            this.terms.add(TermDictionary.uri(value));
+            return this.terms.size() - 1;
+        }
+
+        /**
+         * @return The term number of a new variable, bound at instantiation
+         */
+        int variable() {
+            this.terms.add(null);
+            this.variables.add(this.terms.size() - 1);
+            return this.terms.size() - 1;
+        }
+
+        /**
+         * Adds the pattern (s, p, o) to the template.
+         * @param s term number of the subject
+         * @param p term number of the predicate
+         * @param o term number of the object
+         * @return this builder
+         */
+        Builder triple(final int s, final int p, final int o) {
+            this.patterns.add(s);
+            this.patterns.add(p);
+            this.patterns.add(o);
+            return this;
+        }
+
+        /**
+         * @return The compiled template
+         */
+        QuadTemplate build() {
+            return new QuadTemplate(this);
+        }
+    }
+}
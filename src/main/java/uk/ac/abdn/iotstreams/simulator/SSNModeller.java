@@ -1,186 +1,459 @@
 package uk.ac.abdn.iotstreams.simulator;
 
-import java.time.ZonedDateTime;
-import java.util.GregorianCalendar;
-import java.util.UUID;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
-import java.util.function.Function;
 
+import uk.ac.abdn.iotstreams.csparql.TermDictionary;
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
 import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
 
-import com.hp.hpl.jena.ontology.Individual;
-import com.hp.hpl.jena.ontology.OntModel;
-import com.hp.hpl.jena.rdf.model.Literal;
-import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.ModelFactory;
+import eu.larkc.csparql.cep.api.RdfQuadruple;
 
 /**
  * 
  * @author nhc
  *
- * An SSNModeller expresses a parsed sensor reading in the SSN ontology,
- * then passes the resulting model on to a C-SPARQL engine.
+ * An SSNModeller expresses a parsed sensor reading, or each reading of a batch,
+ * in the SSN ontology, then passes the resulting quadruples on to a C-SPARQL engine.
+ * Every reading has the same shape, so the triples are emitted from
+ * a precompiled QuadTemplate rather than built up in a Jena model.
+ * Each sensor has its own chain of observations linked by fso:follows.
+ * The static description of a sensor, its system and the features of interest it
+ * observes is emitted with every reading by default. It can instead be emitted with the first
+ * reading in each period of describeEvery since the epoch, e.g. in each minute, so that a query
+ * window spanning a whole period holds the descriptions of the sensors and features of interest
+ * observed in that period, while each other reading only adds the triples of its own observation.
+ * The IRIs of the modelled individuals are minted by an IriMinter.
  */
 final class SSNModeller
-    implements Consumer<TimedTemperatureReading> {
-    private OntModel model;
-    private Individual lastWirelessObservation = null;
-    private Individual lastMeatProbeObservation = null;
-    private final Function<ZonedDateTime, Consumer<Model>> modelConsumer;
+    implements Consumer<TimedTemperatureReading>, ReadingBatch.RowConsumer {
+    /** Templates for observations made by a wireless tag */
+    private static final Templates WIRELESS_TAG_TEMPLATES =
+            new Templates(Prefix.FS_EXT + "meatSurfaceTemp");
+
+    /** Templates for observations made by the meat probe */
+    private static final Templates MEAT_PROBE_TEMPLATES =
+            new Templates(Prefix.FS_EXT + "meatCoreTemp");
+
+    /** Links an observation to the previous observation of its sensor */
+    static final String FOLLOWS = TermDictionary.uri(Prefix.FS + "follows");
+    private static final String OBSERVATION_SAMPLING_TIME = TermDictionary.uri(Prefix.SSN + "observationSamplingTime");
+    private static final String HAS_SUBSYSTEM = TermDictionary.uri(Prefix.SSN + "hasSubsystem");
+    private static final String HAS_PROPERTY = TermDictionary.uri(Prefix.SSN + "hasProperty");
+    private static final String XSD_DOUBLE = TermDictionary.uri(Prefix.XSD + "double");
+    private static final String XSD_DATE_TIME = TermDictionary.uri(Prefix.XSD + "dateTime");
+
+    /** The chain of observations of each sensor, see key() */
+    private final ConcurrentMap<Long, Chain> chains = new ConcurrentHashMap<>();
+    private final Consumer<RdfQuadruple> quadConsumer;
+
+    /** Mints the IRIs of the individuals of each reading */
+    private final IriMinter iris;
+
+    /** Value of describeEvery when describing sensors and features of interest only once */
+    private static final long ONCE = -1;
+
+    /**
+     * Length of the periods in which sensors and features of interest are described, in milliseconds:
+     * 0 to describe them with every reading, or ONCE
+     */
+    private final long describeEvery;
     
     //TODO: Add URLs to use as "last observation" when there hasn't been any observations yet?
-    SSNModeller(final Function<ZonedDateTime, Consumer<Model>> engine) {
-        this.modelConsumer = engine;
+    /**
+     * @param engine Receives the quadruples
+     * @param iris Mints the IRIs of the individuals of each reading
+     * @param describeEvery Describe sensors and features of interest with their first reading in each
+     * period of this length since the epoch, e.g. half the range of the shortest query window,
+     * or with every reading if zero; or only with their very first reading if empty
+     */
+    SSNModeller(
+            final Consumer<RdfQuadruple> engine,
+            final IriMinter iris,
+            final Optional<Duration> describeEvery) {
+        this.quadConsumer = engine;
+        this.iris = iris;
+        if (describeEvery.isPresent() && describeEvery.get().isNegative()) {
+            throw IotStreamsException.configurationError(
+                    "Sensors and features of interest cannot be described in periods of negative length");
+        }
+        this.describeEvery = describeEvery.map(Duration::toMillis).orElse(ONCE);
     }
     
     @Override
     public void accept(final TimedTemperatureReading reading) {
-        this.model = ModelFactory.createOntologyModel();
-        if (reading.sensorType == TimedTemperatureReading.SensorType.WIRELESS_TAG) {
-            this.lastWirelessObservation =
-                    this.generateWirelessTagSensorAnnotations(
-                            reading, 
-                            this.lastWirelessObservation);
-        } else if (reading.sensorType == TimedTemperatureReading.SensorType.MEAT_PROBE) {
-            this.lastMeatProbeObservation =
-                    this.generateMeatProbeAnnotations(
-                            reading, 
-                            this.lastMeatProbeObservation);
+        this.model(
+                reading.sensorType,
+                reading.sensorId,
+                reading.epochMillis,
+                reading.temperature,
+                reading.foi,
+                this.quadConsumer);
+    }
+    
+    @Override
+    public void accept(final ReadingBatch batch, final int row) {
+        this.model(batch, row, this.quadConsumer);
+    }
+    
+    /**
+     * Models a reading of a batch, passing the quadruples to the given sink
+     * instead of the engine. Readings of different sensors may be modelled
+     * on different threads at the same time, but the readings of each sensor
+     * must be modelled by one thread at a time, in order of time.
+     * @param batch A batch of readings
+     * @param row The row of the reading in batch
+     * @param sink Receives the quadruples of the reading
+     */
+    void model(final ReadingBatch batch, final int row, final Consumer<RdfQuadruple> sink) {
+        this.model(
+                batch.sensorType,
+                batch.sensorId(row),
+                batch.epochMillis(row),
+                batch.temperature(row),
+                batch.foi(row),
+                sink);
+    }
+    
+    /**
+     * Models every reading of a batch, in the order of the batch.
+     * @param batch Any batch of readings
+     */
+    void accept(final ReadingBatch batch) {
+        for (int row = 0; row < batch.size(); row++) {
+            this.accept(batch, row);
+        }
+    }
+    
+    /**
+     * Models a single reading, chained to the latest reading of the same sensor.
+     * @param sensorType The type of sensor that made the reading
+     * @param sensorId ID of the sensor that made the reading
+     * @param epochMillis Timestamp of the reading, in milliseconds since the epoch
+     * @param temperature Temperature of the reading
+     * @param foi Feature of interest of the reading
+     * @param sink Receives the quadruples of the reading
+     */
+    private void model(
+            final SensorType sensorType,
+            final int sensorId,
+            final long epochMillis,
+            final double temperature,
+            final String foi,
+            final Consumer<RdfQuadruple> sink) {
+        final Chain chain = this.chains.computeIfAbsent(
+                key(sensorType, sensorId),
+                key -> new Chain(sensorType, sensorId));
+        if (sensorType == SensorType.WIRELESS_TAG) {
+            this.annotateSingleSensorData(
+                            WIRELESS_TAG_TEMPLATES,
+                            epochMillis,
+                            temperature,
+                            foi,
+                            "http://FoodSafety/system/wirelesstag/" + sensorId,
+                            chain,
+                            sink);
+        } else if (sensorType == SensorType.MEAT_PROBE) {
+            this.annotateSingleSensorData(
+                            MEAT_PROBE_TEMPLATES,
+                            epochMillis,
+                            temperature,
+                            foi,
+                            "http://FoodSafety/sensor/meatProbe/mp",
+                            chain,
+                            sink);
         } else {
             throw IotStreamsException.internalError(String.format(
                     "The SSNModeller needs to handle the new sensor type %s", 
-                    reading.sensorType));
+                    sensorType));
         }
-        modelConsumer.apply(reading.time).accept(this.model);
-        this.model = null;
     }
     
     /**
-     * @param r Reading to make provenance model for
-     * @param sensorID
-     * @param oldObservation Latest observation
-     * @return New observation (which is already added to this.model)
-     */
-    private Individual generateMeatProbeAnnotations(
-            final TimedTemperatureReading r,
-            final Individual oldObservation) {
-        final Individual meatprobe = model.createIndividual(
-                "http://FoodSafety/sensor/meatProbe/mp",
-                model.createClass(Prefix.SSN+"System"));
-        // create instances of individual sensors for temp, humidity and movement (note Sensing Device is subclass of ssn:Sensor)
-        final Individual meatprobeSensor = sensorDescribtion(
-                meatprobe,
-                Prefix.METEO+"TmeperatureSensor");
-        return annotateSingleSensorData(
-                r, 
-                meatprobeSensor, 
-                "temperature", 
-                Prefix.FS_EXT+"meatCoreTemp",
-                oldObservation);
+     * @param sensorType The type of a sensor
+     * @param sensorId The ID of the sensor
+     * @return A key identifying the sensor
+     */
+    private static Long key(final SensorType sensorType, final int sensorId) {
+        return ((long) sensorType.ordinal() << 32) | (sensorId & 0xffffffffL);
     }
     
     /**
-     * @param r Reading to make provenance model for
-     * @param sensorID
-     * @param oldObservation Latest observation
-     * @return New observation (which is already added to this.model)
-     */
-    private Individual generateWirelessTagSensorAnnotations(
-            final TimedTemperatureReading r,
-            final Individual oldObservation) {
-        //static ssn info relevant to all data coming from the same sensor 
-        //create instance of main System that will represent a single wirelesstag
-        final Individual  wirelessTagSystem = 
-                model.createIndividual(
-                        "http://FoodSafety/system/wirelesstag/" + r.sensorId,
-                        model.createClass(Prefix.SSN+"System"));
-        // create instances of individual sensors for temp, humidity and movement (note Sensing Device is subclass of ssn:Sensor)
-        final Individual  temperatureSensor = 
-                sensorDescribtion(
-                        wirelessTagSystem,
-                        Prefix.METEO+"TmeperatureSensor");
-        // annotate data from temperature sensor 
-        return annotateSingleSensorData(
-                r, 
-                temperatureSensor, 
-                "temperature", 
-                Prefix.FS_EXT+"meatSurfaceTemp", 
-                oldObservation);
-    }
-
-    private Individual annotateSingleSensorData(
-            final TimedTemperatureReading reading,
-            final Individual sensor, 
-            final String sensorType,
-            final String observedProperty,
-            final Individual oldObservation)
-    {
-        // ---- individuals 
-        Individual newObservation = model.createIndividual("http://FoodSafety/observation/"+sensorType+"/" + UUID.randomUUID(),
-                model.createClass(Prefix.SSN + "Observation"));
-        Individual newSensorOutput = model.createIndividual("http://FoodSafety/sensorOutput/"+sensorType+"/" + UUID.randomUUID(),
-                model.createClass(Prefix.SSN + "SensorOutput"));
-        Individual newObservationValue = model.createIndividual("http://FoodSafety/observationValue/"+sensorType+"/" + UUID.randomUUID(),
-                model.createClass(Prefix.SK + "QuantityObservationValue"));
-        Individual property = model.createIndividual(observedProperty,
-                model.createClass(Prefix.SSN + "Property"));
-        Individual fetureOfInterest = model.createIndividual(
-                reading.foi,
-                model.createClass(Prefix.SSN + "FeatureOfInterest"));
-        Literal sensorReading = model.createTypedLiteral(reading.temperature);
-        // ---- properties
-        // set time of observation
-        newObservation.setPropertyValue(
-                model.createProperty(Prefix.SSN + "observationSamplingTime"),
-                this.model.createTypedLiteral(GregorianCalendar.from(reading.time)));
-        // link sensor and sensor output
-        newSensorOutput.setPropertyValue(model.createProperty(Prefix.SSN + "isProducedBy"),
-                sensor);
-        // link observation and sensor output
-        newObservation.setPropertyValue(model.createProperty(Prefix.SSN + "observationResult"),
-                newSensorOutput);
-        // link sensor output and quantity observation value 
-        newSensorOutput.setPropertyValue(model.createProperty(Prefix.SSN + "hasValue"),
-                newObservationValue);
-        // link  observation value to sensor reading 
-        newObservationValue.setPropertyValue(model.createProperty(Prefix.SK + "hasQuantityValue"),
-                sensorReading);
-        // link  observation to foi
-        newObservation.setPropertyValue(model.createProperty(Prefix.SSN + "featureOfInterest"),
-                fetureOfInterest);        
-        // link  foi and property
-        fetureOfInterest.setPropertyValue(model.createProperty(Prefix.SSN + "hasProperty"),
-                property);
-        // link  property and sensor
-        sensor.setPropertyValue(model.createProperty(Prefix.SSN + "observes"),
-                        property);
+     * Describes the sensor and the feature of interest if they are due to be
+     * described, then mints fresh IRIs for the reading and emits its observation triples.
+     * @param templates The templates matching the sensor type
+     * @param timestamp Timestamp of the reading, in milliseconds since the epoch
+     * @param temperature Temperature of the reading
+     * @param foi Feature of interest of the reading
+     * @param system IRI of the ssn:System the sensor belongs to
+     * @param chain The chain of observations of the sensor, which the new observation is added to
+     * @param sink Receives the quadruples of the reading
+     */
+    private void annotateSingleSensorData(
+            final Templates templates,
+            final long timestamp,
+            final double temperature,
+            final String foi,
+            final String system,
+            final Chain chain,
+            final Consumer<RdfQuadruple> sink) {
+        final long period = this.period(timestamp);
+        final boolean everyReading = this.describeEvery == 0;
+        if (everyReading || chain.describedIn != period) {
+            templates.sensor.instantiate(new String[] {chain.device, system}, timestamp, sink);
+            chain.describedIn = period;
+        }
+        final Long foiDescribedIn = chain.foiDescribedIn.put(foi, period);
+        if (everyReading || foiDescribedIn == null || foiDescribedIn != period) {
+            templates.featureOfInterest.instantiate(new String[] {foi}, timestamp, sink);
+        }
+        final String oldObservation = chain.lastObservation;
+        final long sequence = chain.sequence++;
+        final String newObservation = this.iris.mint(
+                "http://FoodSafety/observation/temperature/", chain.sensor, timestamp, sequence);
+        templates.observation.instantiate(
+                new String[] {
+                    newObservation,
+                    this.iris.mint("http://FoodSafety/sensorOutput/temperature/", chain.sensor, timestamp, sequence),
+                    this.iris.mint("http://FoodSafety/observationValue/temperature/", chain.sensor, timestamp, sequence),
+                    chain.device,
+                    foi,
+                    TermDictionary.literal(
+                            Double.toString(temperature),
+                            XSD_DOUBLE),
+                    TermDictionary.literal(
+                            xsdDateTime(timestamp),
+                            XSD_DATE_TIME)
+                },
+                timestamp,
+                sink);
         if (oldObservation != null) {
-        // link  new observation to the previous one 
-        newObservation.setPropertyValue(model.createProperty(Prefix.FS + "follows"),
-                        oldObservation);
+            // link  new observation to the previous one 
+            sink.accept(new RdfQuadruple(
+                    newObservation,
+                    FOLLOWS,
+                    oldObservation,
+                    timestamp));
         }
+        chain.lastObservation = newObservation;
+    }
+
+    /**
+     * @param reading The quadruples of one modelled reading
+     * @return Whether the reading carries the description of its sensor or of its feature of interest
+     */
+    static boolean isDescribing(final List<RdfQuadruple> reading) {
+        for (final RdfQuadruple quad : reading) {
+            if (HAS_SUBSYSTEM.equals(quad.getPredicate()) || HAS_PROPERTY.equals(quad.getPredicate())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param reading The quadruples of one modelled reading
+     * @return IRI of the observation of the reading
+     */
+    static String observation(final List<RdfQuadruple> reading) {
+        for (final RdfQuadruple quad : reading) {
+            if (OBSERVATION_SAMPLING_TIME.equals(quad.getPredicate())) {
+                return quad.getSubject();
+            }
+        }
+        throw IotStreamsException.internalError("A modelled reading has no observation");
+    }
+
+    /**
+     * @param reading The quadruples of one modelled reading
+     * @return The quadruple linking the observation of the reading to the previous one, which is
+     * emitted last, or null if it is the first observation of its sensor
+     */
+    static RdfQuadruple follows(final List<RdfQuadruple> reading) {
+        final RdfQuadruple last = reading.get(reading.size() - 1);
+        return FOLLOWS.equals(last.getPredicate()) ? last : null;
+    }
+
+    /**
+     * @param timestamp Timestamp of a reading
+     * @return The period of describeEvery the reading is in; the same for every reading if describing
+     * once or with every reading
+     */
+    private long period(final long timestamp) {
+        return this.describeEvery <= 0 ? 0 : Math.floorDiv(timestamp, this.describeEvery);
+    }
+
+    /**
+     * The observations of one sensor so far, and when its static description
+     * was emitted. Only used by the thread modelling the readings of the sensor.
+     */
+    private static final class Chain {
+        /** Name of the sensor for minting IRIs, e.g. "wirelesstag-3" */
+        private final String sensor;
+
+        /** IRI of the ssn:SensingDevice, the same for every reading of the sensor */
+        private final String device;
+
+        /** Number of readings of the sensor modelled so far */
+        private long sequence = 0;
+
+        /** IRI of the latest observation of the sensor, or null */
+        private String lastObservation = null;
+
+        /** Period the sensor was last described in, or Long.MIN_VALUE if never */
+        private long describedIn = Long.MIN_VALUE;
+
+        /** Period each feature of interest was last described in */
+        private final Map<String, Long> foiDescribedIn = new HashMap<>();
+
+        Chain(final SensorType sensorType, final int sensorId) {
+            this.sensor = sensorType.name().toLowerCase(Locale.ROOT).replace("_", "") + '-' + sensorId;
+            this.device = "http://FoodSafety/sensor/sensingDevice/" + this.sensor;
+        }
+    }
+
+    /**
+     * The templates for the readings of one type of sensor.
+     */
+    private static final class Templates {
+        /** Emitted for every reading */
+        private final QuadTemplate observation;
+
+        /** Static description of a sensor and its system. Variables: sensing device, system. */
+        private final QuadTemplate sensor;
+
+        /** Static description of a feature of interest. Variables: feature of interest. */
+        private final QuadTemplate featureOfInterest;
+
+        /**
+         * @param observedProperty IRI of the property observed by the sensor
+         */
+        Templates(final String observedProperty) {
+            this.observation = observationTemplate();
+            this.sensor = sensorTemplate(observedProperty);
+            this.featureOfInterest = featureOfInterestTemplate(observedProperty);
+        }
+    }
+
+    /**
+     * Builds the template for one temperature observation. Variables, in order:
+     * observation, sensor output, observation value, sensing device,
+     * feature of interest, temperature literal, sampling time literal.
+     * @return The compiled template
+     */
+    private static QuadTemplate observationTemplate() {
+        final QuadTemplate.Builder b = new QuadTemplate.Builder();
+        final int observation = b.variable();
+        final int sensorOutput = b.variable();
+        final int observationValue = b.variable();
+        final int sensor = b.variable();
+        final int featureOfInterest = b.variable();
+        final int temperature = b.variable();
+        final int samplingTime = b.variable();
+        final int type = b.constant(Prefix.RDF + "type");
+        // ---- individuals
+        b.triple(observation, type, b.constant(Prefix.SSN + "Observation"))
+         .triple(sensorOutput, type, b.constant(Prefix.SSN + "SensorOutput"))
+         .triple(observationValue, type, b.constant(Prefix.SK + "QuantityObservationValue"))
         // ---- properties
-       return newObservation;
+         // set time of observation
+         .triple(observation, b.constant(Prefix.SSN + "observationSamplingTime"), samplingTime)
+         // link sensor and sensor output
+         .triple(sensorOutput, b.constant(Prefix.SSN + "isProducedBy"), sensor)
+         // link observation and sensor output
+         .triple(observation, b.constant(Prefix.SSN + "observationResult"), sensorOutput)
+         // link sensor output and quantity observation value 
+         .triple(sensorOutput, b.constant(Prefix.SSN + "hasValue"), observationValue)
+         // link  observation value to sensor reading 
+         .triple(observationValue, b.constant(Prefix.SK + "hasQuantityValue"), temperature)
+         // link  observation to foi
+         .triple(observation, b.constant(Prefix.SSN + "featureOfInterest"), featureOfInterest);
+        return b.build();
     }
-    
-    // create instances of individual sensors for temp, humidity, movement and meat probe (note Sensing Device is subclass of ssn:Sensor)
-    private Individual sensorDescribtion (
-            final Individual mainSystem, 
-            final String sensorType) {
-        final Individual sensor = model.createIndividual(
-                "http://FoodSafety/sensor/sensingDevice/"+UUID.randomUUID(),
-                model.createClass(Prefix.SSN+"SensingDevice"));
-        sensor.addRDFType(
-                model.getResource(sensorType));
-        mainSystem.setPropertyValue(
-                model.createProperty(Prefix.SSN+ "hasSubsystem"),
-                sensor);
-        return sensor; 
+
+    /**
+     * Builds the template describing a sensor, the property it observes and its system,
+     * along with the classes used by the observations. Variables, in order: sensing device, system.
+     * @param observedProperty IRI of the property observed by the sensor
+     * @return The compiled template
+     */
+    private static QuadTemplate sensorTemplate(final String observedProperty) {
+        final QuadTemplate.Builder b = new QuadTemplate.Builder();
+        final int sensor = b.variable();
+        final int system = b.variable();
+        final int type = b.constant(Prefix.RDF + "type");
+        final int owlClass = b.constant(Prefix.OWL + "Class");
+        final int property = b.constant(observedProperty);
+        // ---- classes the individuals are created with
+        for (final String owlClassName : new String[] {
+                Prefix.SSN + "Observation",
+                Prefix.SSN + "SensorOutput",
+                Prefix.SK + "QuantityObservationValue",
+                Prefix.SSN + "Property",
+                Prefix.SSN + "FeatureOfInterest",
+                Prefix.SSN + "SensingDevice",
+                Prefix.SSN + "System"}) {
+            b.triple(b.constant(owlClassName), type, owlClass);
+        }
+        // ---- individuals
+        b.triple(property, type, b.constant(Prefix.SSN + "Property"))
+         .triple(sensor, type, b.constant(Prefix.SSN + "SensingDevice"))
+         .triple(sensor, type, b.constant(Prefix.METEO + "TmeperatureSensor"))
+         .triple(system, type, b.constant(Prefix.SSN + "System"))
+        // ---- properties
+         // link  property and sensor
+         .triple(sensor, b.constant(Prefix.SSN + "observes"), property)
+         // link system and sensor
+         .triple(system, b.constant(Prefix.SSN + "hasSubsystem"), sensor);
+        return b.build();
+    }
+
+    /**
+     * Builds the template describing a feature of interest. Variables: feature of interest.
+     * @param observedProperty IRI of the property of the feature of interest observed by the sensor
+     * @return The compiled template
+     */
+    private static QuadTemplate featureOfInterestTemplate(final String observedProperty) {
+        final QuadTemplate.Builder b = new QuadTemplate.Builder();
+        final int featureOfInterest = b.variable();
+        final int type = b.constant(Prefix.RDF + "type");
+        b.triple(featureOfInterest, type, b.constant(Prefix.SSN + "FeatureOfInterest"))
+         // link  foi and property
+         .triple(featureOfInterest, b.constant(Prefix.SSN + "hasProperty"), b.constant(observedProperty));
+        return b.build();
+    }
+
+    /**
+     * Formats a timestamp the way Jena writes an xsd:dateTime made from a Calendar:
+     * in UTC, with trailing zeros of the fractional seconds removed.
+     * @param epochMillis Milliseconds since the epoch
+     * @return e.g. "2016-02-10T14:28:00Z" or "2016-02-10T14:28:05.5Z"
+     */
+    static String xsdDateTime(final long epochMillis) {
+        final String iso = Instant.ofEpochMilli(epochMillis).toString();
+        if (iso.indexOf('.') < 0) {
+            return iso;
+        }
+        int end = iso.length() - 1; //position of the 'Z'
+        while (iso.charAt(end - 1) == '0') {
+            end--;
+        }
+        return iso.substring(0, end) + "Z";
     }
 
     @SuppressWarnings("unused")
     private static class Prefix {
+        public static String RDF = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
         public static String SSN = "http://purl.oclc.org/NET/ssnx/ssn#";
         public static String PROV = "http://www.w3.org/ns/prov#";
         public static String RDFS = "http://www.w3.org/2000/01/rdf-schema#";
@@ -1,22 +1,36 @@
 package uk.ac.abdn.iotstreams.simulator;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeParseException;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.function.UnaryOperator;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import com.hp.hpl.jena.rdf.model.Model;
+import eu.larkc.csparql.cep.api.RdfQuadruple;
 
 import uk.ac.abdn.iotstreams.simulator.meatprobe.MeatProbeFilesParser;
-import uk.ac.abdn.iotstreams.simulator.sensordata.MeatProbeReading;
-import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading;
-import uk.ac.abdn.iotstreams.simulator.sensordata.WirelessTagReading;
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
 import uk.ac.abdn.iotstreams.simulator.wirelesstag.WirelessTagClient;
 import uk.ac.abdn.iotstreams.util.Constants;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
@@ -30,8 +44,14 @@ import uk.ac.abdn.iotstreams.util.Logging;
  * these on to a reasoner.
  */
 public final class Simulator {
+    /** Number of readings per batch parsed from a meat probe file */
+    private static final int MEAT_PROBE_BATCH_ROWS = 1 << 12;
+
     /** Provide sliced sensor data to this object */
-    private final Consumer<TimedTemperatureReading> consumer;
+    private final SSNModeller consumer;
+
+    /** Provide the modelled quadruples to this object */
+    private final Consumer<RdfQuadruple> engine;
     
     /** Slice sensor data by time of reading: Must be after this time. */
     private final ZonedDateTime fromDateTime;
@@ -39,12 +59,36 @@ public final class Simulator {
     /** Slice sensor data by time of reading: Must be before this time. */
     private final ZonedDateTime toDateTime;
 
-    /** Cache for sorting all readings by timestamp */
-    private final Stream.Builder<TimedTemperatureReading> readings = Stream.builder();
+    /** fromDateTime in milliseconds since the epoch */
+    private final long fromMillis;
+
+    /** toDateTime in milliseconds since the epoch */
+    private final long toMillis;
+
+    /**
+     * The time-ordered sources of sliced batches of readings, one per sensor or file,
+     * partitioned by sensor: each partition is modelled on its own thread in done()
+     */
+    private final Map<String, List<Iterator<ReadingBatch>>> partitions = new LinkedHashMap<>();
 
-    /** Number of readings cached so far */
+    /** Number of readings provided so far */
     private long numReadings = 0;
-    
+
+    /** Number of readings buffered between modelling and the engine, or 0 to pass them on directly */
+    private int ingestQueueCapacity = 0;
+
+    /** What to do with a reading when the ingest queue is full */
+    private IngestQueue.Overflow ingestOverflow = IngestQueue.Overflow.BLOCK;
+
+    /** Whether every reading carries the descriptions of its sensor and feature of interest */
+    private final boolean describesEveryReading;
+
+    /** Number of readings dropped because the ingest queue was full */
+    private long numDropped = 0;
+
+    /** Fetches wireless tag data and parses meat probe files in the background, a bounded number at a time */
+    private final ExecutorService fetcher;
+
     /**
      * Parses from and to as LocalDate/LocalDateTime in the ISO format
      * and registers both of these along with the dataConsumer.
@@ -52,30 +96,90 @@ public final class Simulator {
      * LocalDate/LocalDateTime in the ISO format, e.g. "2016-01-31T15:36:59"
      * @param to Slice sensor data by only providing readings before this time.
      * LocalDate/LocalDateTime in the ISO format, e.g. "2016-01-31T15:36:59"
-     * @param annotator Pass every  
-     * @param dataConsumer The object to provide sliced data to
+     * @param engine The object to provide the modelled quadruples to
+     * @param maxParallelFetches Maximum number of wireless tags to fetch data for,
+     * or batches of meat probe files to parse, at the same time; at least 1
+     * @param iris Mints the IRIs of the modelled individuals, e.g. IriMinter.SEQUENTIAL
+     * @param describeEvery Emit the static descriptions of sensors and features of interest with
+     * their first reading in each period of this length, e.g. one minute, or with every reading
+     * if zero; or only once if empty
      */
     public Simulator(
             final String from, 
             final String to, 
-            final Function<ZonedDateTime, Consumer<Model>> engine) {
-        this.consumer = new SSNModeller(engine);
+            final Consumer<RdfQuadruple> engine,
+            final int maxParallelFetches,
+            final IriMinter iris,
+            final Optional<Duration> describeEvery) {
+        if (maxParallelFetches < 1) {
+            throw IotStreamsException.configurationError(String.format(
+                    "The maximum number of parallel fetches must be at least 1, not %d",
+                    maxParallelFetches));
+        }
+        this.consumer = new SSNModeller(engine, iris, describeEvery);
+        this.describesEveryReading = describeEvery.map(Duration::isZero).orElse(false);
+        this.engine = engine;
+        this.fetcher = Executors.newFixedThreadPool(maxParallelFetches, task -> {
+            final Thread thread = new Thread(task, "sensor-data-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
         this.fromDateTime = Simulator.parse(from, LocalTime.MIN);
         this.toDateTime = Simulator.parse(to, LocalTime.MAX);
+        this.fromMillis = this.fromDateTime.toInstant().toEpochMilli();
+        this.toMillis = this.toDateTime.toInstant().toEpochMilli();
     }
 
-    private <T extends TimedTemperatureReading> void filterAndCache(final Stream<T> readings) {
-        readings
-        //Filter by time of day
-        .filter((reading) -> reading.time.isAfter(this.fromDateTime))
-        .filter((reading) -> reading.time.isBefore(this.toDateTime))
-        //Pass on to the cache
-        .forEach(this.readings.andThen(r -> this.numReadings += 1));
+    /**
+     * Passes the modelled readings to the engine on a separate thread through
+     * a bounded queue, instead of on the thread merging them, so that modelling
+     * and stream processing overlap. Readings keep their order.
+     * @param capacity Number of readings to buffer, or 0 to pass readings on directly
+     * @param overflow What to do with a reading when the queue is full
+     */
+    public void setIngestQueue(final int capacity, final IngestQueue.Overflow overflow) {
+        if (capacity < 0 || overflow == null) {
+            throw IotStreamsException.configurationError(
+                    "The ingest queue capacity must be at least 0, and its overflow policy one of "
+                    + Arrays.toString(IngestQueue.Overflow.values()));
+        }
+        this.ingestQueueCapacity = capacity;
+        this.ingestOverflow = overflow;
+    }
+
+    /**
+     * Registers a source of readings to be sliced, annotated and merged when done() is called.
+     * Nothing is read from the source until then, and if the time of its first reading is known,
+     * not until the merge reaches that time.
+     * @param partition Identifies the sensors of the source; every source of a sensor must use the same partition
+     * @param startMillis No reading of the source is before this time, if known
+     * @param batches Batches of readings following each other in time
+     * @param foiAnnotator object to replace raw fields with manual annotations
+     */
+    private void register(
+            final String partition,
+            final OptionalLong startMillis,
+            final Stream<ReadingBatch> batches,
+            final Consumer<ReadingBatch> foiAnnotator) {
+        final Iterator<ReadingBatch> sliced = batches
+            .map(batch -> {
+                //Filter by time of day
+                batch.retainBetween(this.fromMillis, this.toMillis);
+                batch.sortByTime();
+                foiAnnotator.accept(batch);
+                return batch;
+            })
+            .iterator();
+        this.partitions.computeIfAbsent(partition, p -> new ArrayList<>()).add(startMillis.isPresent()
+                ? TimeOrderedMerge.startingAt(startMillis.getAsLong(), sliced)
+                : sliced);
     }
     
     /**
-     * Gets data from a specific wireless tag, slices that data
-     * and provides the result to the registered consumer.
+     * Starts getting data from a specific wireless tag in the background,
+     * and registers that data to be sliced and provided to the registered consumer.
+     * Data for several tags is fetched concurrently; done() waits for each fetch
+     * when it needs its readings.
      * @param client Facade to the wireless tag API
      * @param sensorId The ID of the sensor to get data for, e.g. 3
      * @param foiAnnotator object to replace raw fields with manual annotations
@@ -83,37 +187,169 @@ public final class Simulator {
     public void add(
             final WirelessTagClient client, 
             final int sensorId, 
-            final UnaryOperator<TimedTemperatureReading> foiAnnotator) {
+            final Consumer<ReadingBatch> foiAnnotator) {
         //Get data for the dates (the API cannot slice on time of day)
-        final Stream<WirelessTagReading> readings = client.getStatsRaw(
+        final Future<Stream<ReadingBatch>> fetched = this.fetcher.submit(() -> client.getStatsRawBatches(
             sensorId,
             this.fromDateTime.toLocalDate(), 
-            this.toDateTime.toLocalDate());
-        this.filterAndCache(readings.map(foiAnnotator));
+            this.toDateTime.toLocalDate()));
+        this.register(
+                "wirelesstag/" + sensorId,
+                OptionalLong.empty(),
+                Simulator.lazy(() -> Simulator.await(fetched)),
+                foiAnnotator);
+    }
+
+    /**
+     * @param batches Creates the Stream of batches
+     * @return A Stream that calls batches only when it is consumed
+     */
+    private static Stream<ReadingBatch> lazy(final Supplier<Stream<ReadingBatch>> batches) {
+        return StreamSupport.stream(
+                () -> batches.get().spliterator(),
+                Spliterator.ORDERED,
+                false);
+    }
+
+    /**
+     * Waits for a background fetch to complete.
+     * @param fetched The pending fetch
+     * @return The fetched readings
+     */
+    private static <T> T await(final Future<T> fetched) {
+        try {
+            return fetched.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw IotStreamsException.internalError(e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw IotStreamsException.internalError(e);
+        }
     }
     
     /**
-     * Gets data from a directory of meat probe files, slices that data
-     * and provides the result to the registered consumer.
+     * Registers a directory of meat probe files to be parsed in the background,
+     * sliced and provided to the registered consumer.
+     * Each file is a separate source, which is opened in done() once the readings reach
+     * the time of its first line, and parsed in batches of a bounded number of readings:
+     * only the open files are held in memory, each as the batch being merged and the next batch,
+     * which is parsed on the fetcher meanwhile. The readings of a file are expected in order
+     * of time; readings earlier than the first line of their file are passed on late and counted.
      * @param parser parser for the meat probe files
      * @param foiAnnotator object to replace raw fields with manual annotations
      */
     public void add(
             final MeatProbeFilesParser parser, 
-            final UnaryOperator<TimedTemperatureReading> foiAnnotator) {
-        //Get data
-        final Stream<MeatProbeReading> readings = parser.parse();
-        this.filterAndCache(readings.map(foiAnnotator));
+            final Consumer<ReadingBatch> foiAnnotator) {
+        for (final Path file : parser.listFiles()) {
+            final OptionalLong startMillis = parser.firstReadingMillis(file);
+            if (startMillis.isPresent()) {
+                this.register(
+                        "meatprobe",
+                        startMillis,
+                        StreamSupport.stream(
+                                Spliterators.spliteratorUnknownSize(
+                                        new ReadAhead(() -> parser.parseFileInBatches(file, MEAT_PROBE_BATCH_ROWS)),
+                                        Spliterator.ORDERED),
+                                false),
+                        foiAnnotator);
+            }
+        }
     }
 
     /**
      * Call this once all readings have been added.
+     * Models the readings of each partition of sensors on its own thread, merging
+     * the sources of the partition by time, then provides the modelled readings
+     * of all partitions to the engine in order of time.
      */
     public void done() {
+        Logging.info(String.format(
+                "Modelling %d sources of readings in %d partitions",
+                this.partitions.values().stream().mapToInt(List::size).sum(),
+                this.partitions.size()));
+        final PartitionedModelling modelling = new PartitionedModelling(this.consumer, this.partitions.values());
+        try {
+            if (this.ingestQueueCapacity > 0) {
+                try (final IngestQueue queue = new IngestQueue(
+                        this.engine,
+                        this.ingestQueueCapacity,
+                        this.ingestOverflow,
+                        !this.describesEveryReading)) {
+                    this.numReadings = modelling.run(queue);
+                    this.numDropped = queue.getNumDropped();
+                }
+            } else {
+                this.numReadings = modelling.run(reading -> reading.forEach(this.engine));
+            }
+        } finally {
+            this.fetcher.shutdownNow();
+        }
         Logging.info(String.format("%d readings in Simulator", this.numReadings));
-        this.readings.build()
-            .sorted(Comparator.comparing(r -> r.time))
-            .forEachOrdered(this.consumer);
+        if (this.numDropped > 0) {
+            Logging.warn(String.format(
+                    "%d readings were dropped because the ingest queue was full",
+                    this.numDropped));
+        }
+        if (modelling.getNumOutOfOrder() > 0) {
+            Logging.warn(String.format(
+                    "%d readings were out of order between the batches of their source",
+                    modelling.getNumOutOfOrder()));
+        }
+    }
+
+    /**
+     * Parses the batches of one file on the fetcher, one batch ahead of the merge.
+     * The file is only opened when the merge first asks for its readings.
+     */
+    private final class ReadAhead implements Iterator<ReadingBatch> {
+        /** Opens the file */
+        private final Supplier<Iterator<ReadingBatch>> open;
+
+        /** The batches of the open file, only used on the fetcher, by one task at a time */
+        private Iterator<ReadingBatch> batches = null;
+
+        /** The pending parse of the next batch, which is null at the end of the file */
+        private Future<ReadingBatch> pending = null;
+
+        /**
+         * @param open Opens the file, returning its batches
+         */
+        ReadAhead(final Supplier<Iterator<ReadingBatch>> open) {
+            this.open = open;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.pending == null) {
+                this.pending = Simulator.this.fetcher.submit(this::parseNext);
+            }
+            return Simulator.await(this.pending) != null;
+        }
+
+        @Override
+        public ReadingBatch next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final ReadingBatch batch = Simulator.await(this.pending);
+            this.pending = Simulator.this.fetcher.submit(this::parseNext);
+            return batch;
+        }
+
+        /**
+         * Runs on the fetcher.
+         * @return The next batch of the file, or null at the end of the file
+         */
+        private ReadingBatch parseNext() {
+            if (this.batches == null) {
+                this.batches = this.open.get();
+            }
+            return this.batches.hasNext() ? this.batches.next() : null;
+        }
     }
 
     /**
@@ -0,0 +1,173 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+
+/**
+ *
+ * @author nhc
+ *
+ * A TimeOrderedMerge merges any number of sources of readings into one
+ * sequence ordered by time, holding only the current batch of each source in memory.
+ * Each source is a sequence of batches; each batch must be ordered by time,
+ * and the batches of a source should follow each other in time.
+ * A reading earlier than one already passed on is passed on late and counted.
+ * A Deferred source is not read from until the merge reaches its start time,
+ * so that sources following each other in time are not all held in memory at once.
+ */
+final class TimeOrderedMerge {
+    /** Every source that has readings left, ordered by its next reading */
+    private final PriorityQueue<Cursor> sources;
+
+    /** Time of the latest reading passed on */
+    private long latest = Long.MIN_VALUE;
+
+    /** Number of readings passed on later than a reading with a later time */
+    private long numOutOfOrder = 0;
+
+    /**
+     * @param sources The sources to merge
+     */
+    TimeOrderedMerge(final List<Iterator<ReadingBatch>> sources) {
+        this.sources = new PriorityQueue<>(
+                Math.max(1, sources.size()),
+                Comparator.comparingLong(Cursor::time));
+        sources.stream()
+            .map(Cursor::new)
+            .filter(cursor -> !cursor.opened || cursor.advance())
+            .forEach(this.sources::add);
+    }
+
+    /**
+     * Passes every reading of every source on in order of time.
+     * @param consumer Receives the readings
+     */
+    void forEachRemaining(final ReadingBatch.RowConsumer consumer) {
+        while (this.next(consumer)) {
+            //Passed on a reading
+        }
+    }
+
+    /**
+     * Passes the next reading in order of time on, if any.
+     * @param consumer Receives the reading
+     * @return Whether there was a reading left
+     */
+    boolean next(final ReadingBatch.RowConsumer consumer) {
+        Cursor source = this.sources.poll();
+        while (source != null && !source.opened) {
+            //The merge reached the start time of a Deferred source: read its first batch
+            source.opened = true;
+            if (source.advance()) {
+                this.sources.add(source);
+            }
+            source = this.sources.poll();
+        }
+        if (source == null) {
+            return false;
+        }
+        final long time = source.time();
+        if (time < this.latest) {
+            this.numOutOfOrder += 1;
+        } else {
+            this.latest = time;
+        }
+        consumer.accept(source.batch, source.row);
+        if (source.advance()) {
+            this.sources.add(source);
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of readings passed on out of order so far
+     */
+    long getNumOutOfOrder() {
+        return this.numOutOfOrder;
+    }
+
+    /**
+     * @param startMillis No reading of the source is before this time, in milliseconds since the epoch
+     * @param batches The source
+     * @return The source, deferred until the merge reaches startMillis
+     */
+    static Deferred startingAt(final long startMillis, final Iterator<ReadingBatch> batches) {
+        return new Deferred() {
+            @Override
+            public long startMillis() {
+                return startMillis;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return batches.hasNext();
+            }
+
+            @Override
+            public ReadingBatch next() {
+                return batches.next();
+            }
+        };
+    }
+
+    /**
+     * A source whose readings are known not to be before a start time,
+     * e.g. from the first line of a file, and which is only read from once
+     * every earlier reading of the other sources has been passed on.
+     */
+    interface Deferred extends Iterator<ReadingBatch> {
+        /**
+         * @return No reading of the source is before this time, in milliseconds since the epoch
+         */
+        long startMillis();
+    }
+
+    /**
+     * The position of the next reading in one source.
+     */
+    private static final class Cursor {
+        private final Iterator<ReadingBatch> batches;
+        private ReadingBatch batch = null;
+        private int row = -1;
+
+        /** Whether the source has been read from; false until the merge reaches a Deferred source */
+        private boolean opened;
+
+        /** Start time of a Deferred source */
+        private final long startMillis;
+
+        /**
+         * @param batches The source, see advance() to move to its first reading
+         */
+        Cursor(final Iterator<ReadingBatch> batches) {
+            this.batches = batches;
+            this.opened = !(batches instanceof Deferred);
+            this.startMillis = this.opened ? Long.MIN_VALUE : ((Deferred) batches).startMillis();
+        }
+
+        /**
+         * Moves to the next reading, taking the next batch when needed.
+         * @return Whether there was a next reading
+         */
+        boolean advance() {
+            this.row++;
+            while (this.batch == null || this.row >= this.batch.size()) {
+                if (!this.batches.hasNext()) {
+                    this.batch = null;
+                    return false;
+                }
+                this.batch = this.batches.next();
+                this.row = 0;
+            }
+            return true;
+        }
+
+        long time() {
+            return this.opened ? this.batch.epochMillis(this.row) : this.startMillis;
+        }
+    }
+}
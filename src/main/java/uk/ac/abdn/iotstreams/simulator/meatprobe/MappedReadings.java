@@ -0,0 +1,358 @@
+package uk.ac.abdn.iotstreams.simulator.meatprobe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.MeatProbeReading;
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+import uk.ac.abdn.iotstreams.util.UkTime;
+
+/**
+ *
+ * @author nhc
+ *
+ * MappedReadings parses the readings of one memory-mapped meat probe file
+ * as they are consumed, in the order they appear in the file.
+ * Lines have the layout "id,dd/MM/yyyy HH:mm:ss,temperature", e.g.
+ * "42,15/12/2015 02:16:14,37.0", and are parsed directly from the
+ * ISO-8859-1 bytes without creating Strings, and the timestamp is
+ * converted straight to epoch milliseconds. Any other line is skipped.
+ * The readings can also be parsed into a single ReadingBatch, or lazily into batches of a bounded size.
+ * Lines are accepted exactly as the previous parser (Files.readAllLines, String.split,
+ * Integer.parseInt, DateTimeFormatter and Double.parseDouble) accepted them:
+ *   - lines end with "\n", "\r\n" or a lone "\r"
+ *   - the id may have a sign, e.g. "+42"
+ *   - trailing commas are ignored, e.g. "42,15/12/2015 02:16:14,37.0,"
+ *   - the hour 24 is the midnight ending the day, but only as "24:00:00"
+ *   - the day is clamped to the length of the month, e.g. 31/02/2016 is 29/02/2016
+ *   - the temperature is anything Double.parseDouble accepts, including "NaN"
+ */
+final class MappedReadings extends Spliterators.AbstractSpliterator<MeatProbeReading> {
+    /** Charset used for decoding all meat probe files */
+    private static final Charset ISO88591 = Charset.forName("ISO-8859-1");
+
+    /** Length of "dd/MM/yyyy HH:mm:ss" */
+    private static final int TIMESTAMP_LENGTH = 19;
+
+    /** Returned by parseTimestamp when the timestamp could not be parsed */
+    private static final long INVALID = Long.MIN_VALUE;
+
+    /** Powers of ten that are exact as doubles */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest mantissa that is exact as a double */
+    private static final long MAX_EXACT = 1L << 53;
+
+    /** The contents of the file */
+    private final ByteBuffer bytes;
+
+    /** Start of the next line to parse */
+    private int position = 0;
+
+    /** ID of the latest parsed reading */
+    private int id;
+
+    /** Timestamp of the latest parsed reading, in milliseconds since the epoch */
+    private long epochMillis;
+
+    /** Temperature of the latest parsed reading */
+    private double temperature;
+
+    /**
+     * Maps the file. The mapping stays valid after the file is closed.
+     * @param path Path to a meat probe file
+     */
+    MappedReadings(final Path path) {
+        this(map(path));
+    }
+
+    /**
+     * @param bytes Lines of a meat probe file, from index 0 to the limit
+     */
+    MappedReadings(final ByteBuffer bytes) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.bytes = bytes;
+    }
+
+    /**
+     * @param path Path to a meat probe file
+     * @return The contents of the file
+     */
+    private static ByteBuffer map(final Path path) {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(String.format("%s is too large to map", path));
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (final IOException e) {
+            throw IotStreamsException.meatProbeIOfailed(e);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super MeatProbeReading> action) {
+        if (!this.parseNext()) {
+            return false;
+        }
+        action.accept(new MeatProbeReading(this.id, this.epochMillis, this.temperature));
+        return true;
+    }
+
+    /**
+     * Parses all remaining readings into a batch.
+     * @return The readings, in the order they appear in the file
+     */
+    ReadingBatch toBatch() {
+        final ReadingBatch batch = new ReadingBatch(SensorType.MEAT_PROBE, this.bytes.limit() / 32);
+        final int foi = ReadingBatch.foiIndex(SensorType.MEAT_PROBE.defaultFoi);
+        while (this.parseNext()) {
+            batch.add(this.epochMillis, this.temperature, Double.NaN, 0, foi);
+        }
+        return batch;
+    }
+
+    /**
+     * Parses the next readings into a batch.
+     * @param maxRows Maximum number of readings in the batch, at least 1
+     * @return The next readings, in the order they appear in the file; empty if there are none left
+     */
+    ReadingBatch nextBatch(final int maxRows) {
+        final ReadingBatch batch = new ReadingBatch(SensorType.MEAT_PROBE, Math.min(maxRows, 1 + this.bytes.limit() / 32));
+        final int foi = ReadingBatch.foiIndex(SensorType.MEAT_PROBE.defaultFoi);
+        while (batch.size() < maxRows && this.parseNext()) {
+            batch.add(this.epochMillis, this.temperature, Double.NaN, 0, foi);
+        }
+        return batch;
+    }
+
+    /**
+     * Parses the remaining readings into batches as they are consumed, so that
+     * only the batch being consumed is held in memory.
+     * @param maxRows Maximum number of readings per batch, at least 1
+     * @return The batches, in the order the readings appear in the file; none is empty
+     */
+    Iterator<ReadingBatch> batches(final int maxRows) {
+        return new Iterator<ReadingBatch>() {
+            /** The parsed batch not yet returned, if any */
+            private ReadingBatch next = null;
+
+            @Override
+            public boolean hasNext() {
+                if (this.next == null) {
+                    this.next = MappedReadings.this.nextBatch(maxRows);
+                }
+                return this.next.size() > 0;
+            }
+
+            @Override
+            public ReadingBatch next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final ReadingBatch batch = this.next;
+                this.next = null;
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Parses lines until one holds a reading.
+     * @return Whether a reading was parsed into id, epochMillis and temperature
+     */
+    private boolean parseNext() {
+        final int limit = this.bytes.limit();
+        while (this.position < limit) {
+            final int start = this.position;
+            int end = start;
+            while (end < limit && this.bytes.get(end) != '\n' && this.bytes.get(end) != '\r') {
+                end++;
+            }
+            this.position = end + 1;
+            if (end + 1 < limit && this.bytes.get(end) == '\r' && this.bytes.get(end + 1) == '\n') {
+                this.position++;
+            }
+            if (this.parseLine(start, end)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single line into id, epochMillis and temperature.
+     * @param start Index of the first byte of the line
+     * @param end Index after the last byte of the line
+     * @return Whether the line could be parsed
+     */
+    private boolean parseLine(final int start, final int end) {
+        //The id
+        int i = start;
+        final boolean negative = i < end && this.bytes.get(i) == '-';
+        if (negative || (i < end && this.bytes.get(i) == '+')) {
+            i++;
+        }
+        final int idStart = i;
+        final long maxId = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long number = 0;
+        while (i < end && isDigit(this.bytes.get(i)) && number <= maxId) {
+            number = number * 10 + (this.bytes.get(i++) - '0');
+        }
+        if (i == idStart || i >= end || this.bytes.get(i) != ',' || number > maxId) {
+            return false;
+        }
+        //The timestamp
+        final int time = i + 1;
+        final int value = time + TIMESTAMP_LENGTH + 1;
+        if (value > end || this.bytes.get(value - 1) != ',') {
+            return false;
+        }
+        final long timestamp = this.parseTimestamp(time);
+        if (timestamp == INVALID) {
+            return false;
+        }
+        //The temperature, ignoring trailing commas as String.split does
+        int valueEnd = end;
+        while (valueEnd > value && this.bytes.get(valueEnd - 1) == ',') {
+            valueEnd--;
+        }
+        if (!this.parseTemperature(value, valueEnd)) {
+            return false;
+        }
+        this.id = (int) (negative ? -number : number);
+        this.epochMillis = timestamp;
+        return true;
+    }
+
+    /**
+     * @param at Index of a UK local timestamp in the layout "dd/MM/yyyy HH:mm:ss"
+     * @return The timestamp in milliseconds since the epoch, or INVALID if it could not be parsed
+     */
+    private long parseTimestamp(final int at) {
+        if (this.bytes.get(at + 2) != '/'
+                || this.bytes.get(at + 5) != '/'
+                || this.bytes.get(at + 10) != ' '
+                || this.bytes.get(at + 13) != ':'
+                || this.bytes.get(at + 16) != ':') {
+            return INVALID;
+        }
+        final int day = this.digits(at, 2);
+        final int month = this.digits(at + 3, 2);
+        final int year = this.digits(at + 6, 4);
+        final int hour = this.digits(at + 11, 2);
+        final int minute = this.digits(at + 14, 2);
+        final int second = this.digits(at + 17, 2);
+        if (year < 1
+                || month < 1 || month > 12
+                || day < 1 || day > 31
+                || hour < 0 || hour > 24
+                || minute < 0 || minute > 59
+                || second < 0 || second > 59
+                || (hour == 24 && (minute > 0 || second > 0))) {
+            return INVALID;
+        }
+        //Like the smart resolver of DateTimeFormatter, e.g. 31/02 is the last day of February
+        final int lengthOfMonth = Month.of(month).length(Year.isLeap(year));
+        if (hour == 24) {
+            //Like the smart resolver, 24:00:00 is midnight at the start of the next day
+            return UkTime.epochMillis(
+                    LocalDate.of(year, month, Math.min(day, lengthOfMonth)).plusDays(1).toEpochDay(),
+                    0);
+        }
+        return UkTime.epochMillis(year, month, Math.min(day, lengthOfMonth), hour, minute, second);
+    }
+
+    /**
+     * @param at Index of the first digit
+     * @param count Number of digits
+     * @return The decimal number, or -1 if any byte was not a digit
+     */
+    private int digits(final int at, final int count) {
+        int result = 0;
+        for (int i = at; i < at + count; i++) {
+            final byte b = this.bytes.get(i);
+            if (!isDigit(b)) {
+                return -1;
+            }
+            result = result * 10 + (b - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Parses a decimal number such as "37.0" or "-4" into temperature. Numbers that
+     * cannot be parsed exactly this way, e.g. "1e2" or "NaN", fall back to Double.parseDouble.
+     * @param start Index of the first byte of the number
+     * @param end Index after the last byte of the number
+     * @return Whether the number could be parsed
+     */
+    private boolean parseTemperature(final int start, final int end) {
+        int i = start;
+        final boolean negative = i < end && this.bytes.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int decimals = -1;
+        for (; i < end; i++) {
+            final byte b = this.bytes.get(i);
+            if (isDigit(b)) {
+                mantissa = mantissa * 10 + (b - '0');
+                numDigits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end
+                && numDigits > 0
+                && numDigits <= 15
+                && mantissa < MAX_EXACT
+                && decimals < POWERS_OF_TEN.length) {
+            //Exact mantissa divided by an exact power of ten is correctly rounded
+            final double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+            this.temperature = negative ? -value : value;
+            return true;
+        }
+        final byte[] text = new byte[end - start];
+        for (int j = 0; j < text.length; j++) {
+            text[j] = this.bytes.get(start + j);
+        }
+        try {
+            this.temperature = Double.parseDouble(new String(text, ISO88591));
+            return true;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param b A byte of the file
+     * @return Whether b is an ASCII digit
+     */
+    private static boolean isDigit(final byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -1,17 +1,20 @@
 package uk.ac.abdn.iotstreams.simulator.meatprobe;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import uk.ac.abdn.iotstreams.simulator.sensordata.MeatProbeReading;
-import uk.ac.abdn.iotstreams.util.Constants;
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
 
 /**
@@ -23,79 +26,89 @@ import uk.ac.abdn.iotstreams.util.IotStreamsException;
 public class MeatProbeFilesParser {
     /** The directory containing the meat probe files */
     private static final Path PATH = Paths.get("config/simulator/meatprobe");
-    
-    /** Charset used for decoding all meat probe files */
-    private static final Charset ISO88591 = Charset.forName("ISO-8859-1");
+
+    /** The offsets read up to by tail(), kept between runs */
+    private static final Path CHECKPOINT_PATH = Paths.get("config/simulator/meatprobe-offsets.properties");
     
     /**
-     * Parses all files in the directory containing the meat probe files
+     * Parses all files in the directory containing the meat probe files.
+     * The files are parsed in parallel, so the readings are in no particular order.
      * @return A Stream containing every meat probe reading
      */
     public Stream<MeatProbeReading> parse() {
-        try {
-            return 
-                    //For each file in the given directory
-                    Files.walk(this.getPath())
-                    //Read all lines of the file
-                    .map(MeatProbeFilesParser::readAllLines)
-                    //Concatenate the lines of all the files
-                    .reduce(Stream.empty(), Stream::concat)
-                    //Remove the header lines
-                    .filter(line -> !line.contains("Temperature"))
-                    //Split remaining lines by the commas
-                    .map(line -> line.split(","))
-                    //Skip any line that did not have exactly 2 commas (i.e. 3 parts)
-                    .filter(parts -> parts.length == 3)
-                    //Parse the line into a MeatProbeReading (or null if not parseable)
-                    .map(MeatProbeFilesParser::parseSingleReading)
-                    //Remove null values
-                    .filter(reading -> reading != null);
-        } catch (final IOException e) {
-            throw IotStreamsException.meatProbeIOfailed(e);
-        }
+        return this.parseEachFile().parallel().flatMap(Function.identity());
     }
     
     /**
-     * Utility method for allowing unit tests of the parser
-     * @return The path of the directory containing the meat probe files
+     * Parses each file in the directory containing the meat probe files separately,
+     * so that the readings of each file stay in the order they were recorded.
+     * Each file is memory-mapped and parsed as its Stream is consumed.
+     * @return A Stream containing a Stream of readings per file
      */
-    protected Path getPath() {
-        return PATH;
+    public Stream<Stream<MeatProbeReading>> parseEachFile() {
+        return this.listFiles().stream()
+                .map(path -> StreamSupport.stream(
+                        () -> new MappedReadings(path),
+                        Spliterator.ORDERED | Spliterator.NONNULL,
+                        false));
     }
     
     /**
-     * Parses a String array into a fully typed single reading.
-     * @param triple A String[] of length 3, e.g. {"42", "15/12/2015 02:16:14", "37.0"}
-     * @return A parsed reading, or null if the data could not be parsed
+     * Parses a single meat probe file into batches of readings, in the order they were recorded.
+     * The file is memory-mapped, and each batch is parsed when it is consumed.
+     * @param file A file in the directory containing the meat probe files
+     * @param maxRows Maximum number of readings per batch, at least 1
+     * @return The batches of readings of the file
      */
-    private static MeatProbeReading parseSingleReading(final String[] triple) {
-        try {
-            return new MeatProbeReading(
-                    Integer.parseInt(triple[0]), 
-                    LocalDateTime.parse(
-                            triple[1], 
-                            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss"))
-                        .atZone(Constants.UK), 
-                    Double.parseDouble(triple[2]));
-        } catch (final NumberFormatException e) {
-            return null;
-        } catch (final DateTimeParseException e) {
-            return null;
-        }
+    public Iterator<ReadingBatch> parseFileInBatches(final Path file, final int maxRows) {
+        return new MappedReadings(file).batches(maxRows);
     }
     
     /**
-     * Reads and decodes all lines of the file on the given path
-     * @param path Path to a meat probe file
-     * @return a Stream with one element per line in the file
+     * Parses the first reading of a single meat probe file.
+     * @param file A file in the directory containing the meat probe files
+     * @return The time of the first reading, in milliseconds since the epoch, or empty if the file has none
      */
-    private static Stream<String> readAllLines(final Path path) {
-        try {
-            return Files.isDirectory(path) 
-                    ? Stream.empty() 
-                    : Files.readAllLines(path, ISO88591).stream();
+    public OptionalLong firstReadingMillis(final Path file) {
+        final ReadingBatch first = new MappedReadings(file).nextBatch(1);
+        return first.size() == 0 ? OptionalLong.empty() : OptionalLong.of(first.epochMillis(0));
+    }
+    
+    /**
+     * @return Every file in the directory containing the meat probe files
+     */
+    public List<Path> listFiles() {
+        try (final Stream<Path> paths = Files.walk(this.getPath())) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
         } catch (final IOException e) {
             throw IotStreamsException.meatProbeIOfailed(e);
         }
     }
+    
+    /**
+     * Follows the directory containing the meat probe files, parsing only
+     * what is appended to the files, and resuming where the previous tail stopped.
+     * @return A MeatProbeTail, which must be closed when no longer used
+     */
+    public MeatProbeTail tail() {
+        return new MeatProbeTail(this.getPath(), this.getCheckpointPath());
+    }
+    
+    /**
+     * Utility method for allowing unit tests of the parser
+     * @return The path of the directory containing the meat probe files
+     */
+    protected Path getPath() {
+        return PATH;
+    }
+    
+    /**
+     * Utility method for allowing unit tests of tail()
+     * @return The path of the file keeping the offsets read up to by tail()
+     */
+    protected Path getCheckpointPath() {
+        return CHECKPOINT_PATH;
+    }
 }
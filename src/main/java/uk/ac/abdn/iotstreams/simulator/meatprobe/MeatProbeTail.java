@@ -0,0 +1,296 @@
+package uk.ac.abdn.iotstreams.simulator.meatprobe;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+import uk.ac.abdn.iotstreams.util.Logging;
+
+/**
+ *
+ * @author nhc
+ *
+ * A MeatProbeTail follows a directory of meat probe files as they are written,
+ * parsing only the complete lines appended to each file since it was last read.
+ * A last line without a line end is read once the file has not grown for a whole poll.
+ * Changed files are found with a WatchService. The byte offset read up to in
+ * each file is committed once the readings have been passed on, and kept in a
+ * checkpoint file outside the directory, so that a restarted MeatProbeTail
+ * resumes where the previous one stopped.
+ * Without a checkpoint file, the files already in the directory are skipped.
+ */
+public final class MeatProbeTail implements AutoCloseable {
+    /** The directory containing the meat probe files */
+    private final Path directory;
+
+    /** File keeping the offsets between runs */
+    private final Path checkpoint;
+
+    /** Reports files created or appended to in the directory */
+    private final WatchService watcher;
+
+    /** The watched directory of each watch key */
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+
+    /** Bytes read and passed on so far, by path relative to the directory */
+    private final Map<String, Long> offsets = new HashMap<>();
+
+    /** Bytes read by the latest poll, until checkpoint() commits them to offsets */
+    private final Map<String, Long> pending = new HashMap<>();
+
+    /** Size of each file whose last line had no line end when it was last read */
+    private final Map<String, Long> unterminated = new HashMap<>();
+
+    /** Read every file at the next poll, e.g. because events were lost */
+    private boolean rescan = true;
+
+    /**
+     * Starts watching the directory and loads the checkpoint file, if any.
+     * @param directory The directory containing the meat probe files
+     * @param checkpoint File keeping the offsets between runs, outside the directory
+     */
+    MeatProbeTail(final Path directory, final Path checkpoint) {
+        this.directory = directory;
+        this.checkpoint = checkpoint;
+        try {
+            this.watcher = directory.getFileSystem().newWatchService();
+            this.watch(directory);
+            if (Files.isRegularFile(checkpoint)) {
+                this.load();
+            } else {
+                for (final Path file : this.listFiles()) {
+                    this.offsets.put(this.key(file), Files.size(file));
+                }
+            }
+        } catch (final IOException e) {
+            throw IotStreamsException.meatProbeIOfailed(e);
+        }
+    }
+
+    /**
+     * Parses the complete lines appended to any file since the readings last passed on.
+     * A last line without a line end is left until it is ended, or until the file
+     * has not grown since the previous poll. A file that has shrunk is read again from its start.
+     * The lines are read again by the next poll unless checkpoint() is called first.
+     * @return One batch per file with new readings, in the order they were recorded
+     */
+    public List<ReadingBatch> poll() {
+        try {
+            final Set<Path> changed = this.changedFiles();
+            //The readings of the previous poll were not passed on: read them again
+            this.pending.keySet().forEach(key -> changed.add(this.directory.resolve(key)));
+            this.pending.clear();
+            this.unterminated.keySet().forEach(key -> changed.add(this.directory.resolve(key)));
+            final List<ReadingBatch> batches = new ArrayList<>();
+            for (final Path file : changed) {
+                if (Files.isRegularFile(file)) {
+                    final ReadingBatch batch = this.readAppended(file);
+                    if (batch.size() > 0) {
+                        batches.add(batch);
+                    }
+                } else {
+                    this.unterminated.remove(this.key(file));
+                }
+            }
+            return batches;
+        } catch (final IOException e) {
+            //The events of the files not read are lost
+            this.rescan = true;
+            throw IotStreamsException.meatProbeIOfailed(e);
+        }
+    }
+
+    /**
+     * Commits the offsets read up to by the latest poll() and saves them, so that
+     * neither the next poll nor a restart reads those lines again.
+     * Call this once the readings returned by poll() have been passed on.
+     */
+    public void checkpoint() {
+        this.offsets.putAll(this.pending);
+        this.pending.clear();
+        final Properties properties = new Properties();
+        this.offsets.forEach((file, offset) -> properties.setProperty(file, Long.toString(offset)));
+        final Path dir = this.checkpoint.toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(dir);
+            //Write to a temporary file first, so that a crash never leaves a partial checkpoint
+            final Path tmp = Files.createTempFile(dir, "offsets", ".tmp");
+            try (final Writer out = Files.newBufferedWriter(tmp, StandardCharsets.ISO_8859_1)) {
+                properties.store(out, "Bytes of each meat probe file read so far");
+            }
+            Files.move(tmp, this.checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            throw IotStreamsException.meatProbeIOfailed(e);
+        }
+    }
+
+    /**
+     * Stops watching the directory.
+     */
+    @Override
+    public void close() {
+        try {
+            this.watcher.close();
+        } catch (final IOException e) {
+            Logging.warn(String.format("Could not stop watching %s: %s", this.directory, e));
+        }
+    }
+
+    /**
+     * Takes the pending events of the WatchService, watching new subdirectories.
+     * @return The files that may have changed since the previous poll, ordered by path
+     * @throws IOException if the directory could not be listed
+     */
+    private Set<Path> changedFiles() throws IOException {
+        final Set<Path> changed = new TreeSet<>();
+        WatchKey key = this.watcher.poll();
+        while (key != null) {
+            final Path dir = this.watched.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    this.rescan = true;
+                } else {
+                    final Path file = dir.resolve((Path) event.context());
+                    if (Files.isDirectory(file)) {
+                        this.watch(file);
+                        this.rescan = true;
+                    } else {
+                        changed.add(file);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                this.watched.remove(key);
+            }
+            key = this.watcher.poll();
+        }
+        if (this.rescan) {
+            this.rescan = false;
+            final List<Path> files = this.listFiles();
+            changed.addAll(files);
+            //Forget deleted files
+            final Set<String> existing = files.stream().map(this::key).collect(Collectors.toSet());
+            this.offsets.keySet().retainAll(existing);
+            this.pending.keySet().retainAll(existing);
+            this.unterminated.keySet().retainAll(existing);
+        }
+        return changed;
+    }
+
+    /**
+     * Parses the complete lines after the committed offset of a file, and notes the offset
+     * after them as pending. A last line without a line end is parsed too if the
+     * file has not grown since it was last read.
+     * @param file A meat probe file
+     * @return The new readings of the file, possibly none
+     * @throws IOException if the file could not be read
+     */
+    private ReadingBatch readAppended(final Path file) throws IOException {
+        final String key = this.key(file);
+        long offset = this.offsets.getOrDefault(key, 0L);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < offset) {
+                Logging.warn(String.format("%s has shrunk, reading it again from the start", file));
+                offset = 0;
+            }
+            final long length = Math.min(size - offset, Integer.MAX_VALUE);
+            final MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            int end = (int) length;
+            while (end > 0 && bytes.get(end - 1) != '\n' && bytes.get(end - 1) != '\r') {
+                end--;
+            }
+            final Long unterminatedSize = this.unterminated.remove(key);
+            if (end < length) {
+                if (unterminatedSize != null && unterminatedSize == size) {
+                    //The writer has not ended the last line for a whole poll
+                    end = (int) length;
+                } else {
+                    this.unterminated.put(key, size);
+                }
+            }
+            bytes.limit(end);
+            this.pending.put(key, offset + end);
+            return new MappedReadings(bytes).toBatch();
+        }
+    }
+
+    /**
+     * Reads the offsets saved by checkpoint(). Files that are not in the
+     * checkpoint, e.g. created while nothing was running, are read from the start.
+     * @throws IOException if the checkpoint file could not be read
+     */
+    private void load() throws IOException {
+        final Properties properties = new Properties();
+        try (final Reader in = Files.newBufferedReader(this.checkpoint, StandardCharsets.ISO_8859_1)) {
+            properties.load(in);
+        }
+        try {
+            properties.stringPropertyNames()
+                .forEach(file -> this.offsets.put(file, Long.valueOf(properties.getProperty(file))));
+        } catch (final NumberFormatException e) {
+            throw IotStreamsException.userInputError(this.checkpoint.toString(), e);
+        }
+    }
+
+    /**
+     * @param dir The directory, or a new subdirectory, to watch with all its subdirectories
+     * @throws IOException if the directory could not be watched
+     */
+    private void watch(final Path dir) throws IOException {
+        try (final Stream<Path> dirs = Files.walk(dir)) {
+            for (final Path d : dirs.filter(Files::isDirectory).collect(Collectors.toList())) {
+                if (!this.watched.containsValue(d)) {
+                    this.watched.put(
+                            d.register(
+                                    this.watcher,
+                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY),
+                            d);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Every file in the directory containing the meat probe files
+     * @throws IOException if the directory could not be listed
+     */
+    private List<Path> listFiles() throws IOException {
+        try (final Stream<Path> paths = Files.walk(this.directory)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @param file A file in the directory
+     * @return The key of the file in the checkpoint
+     */
+    private String key(final Path file) {
+        return this.directory.relativize(file).toString();
+    }
+}
@@ -1,7 +1,5 @@
 package uk.ac.abdn.iotstreams.simulator.sensordata;
 
-import java.time.ZonedDateTime;
-
 /**
  * 
  * @author nhc
@@ -14,18 +12,18 @@ public final class MeatProbeReading extends TimedTemperatureReading {
     
     /**
      * @param id ID from the meat probe
-     * @param time Timestamp of the reading
+     * @param epochMillis Timestamp of the reading, in milliseconds since the epoch
      * @param temperature e.g. 31.3
      */
     public MeatProbeReading(
             final int id,
-            final ZonedDateTime time,
+            final long epochMillis,
             final Double temperature) {
         super(
-            time, 
+            epochMillis, 
             temperature, 
             TimedTemperatureReading.SensorType.MEAT_PROBE, 
-            "http://example.org/meatCoreTemp",
+            TimedTemperatureReading.SensorType.MEAT_PROBE.defaultFoi,
             0);
         this.id = id;
     }
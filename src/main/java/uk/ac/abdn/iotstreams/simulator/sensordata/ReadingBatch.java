@@ -0,0 +1,305 @@
+package uk.ac.abdn.iotstreams.simulator.sensordata;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+
+/**
+ *
+ * @author nhc
+ *
+ * A ReadingBatch holds the readings of one type of sensor in primitive columns,
+ * one row per reading, instead of one object per reading.
+ * Features of interest are stored as indexes into a table of interned FOI URIs
+ * shared by all batches. Humidity is NaN for sensors that do not measure it.
+ */
+public final class ReadingBatch {
+    /** Interned FOI URIs, by FOI index */
+    private static final List<String> FOIS = new CopyOnWriteArrayList<>();
+
+    /** FOI URI -> FOI index */
+    private static final ConcurrentMap<String, Integer> FOI_INDEX = new ConcurrentHashMap<>();
+
+    /** Wireless tag or meat probe? */
+    public final SensorType sensorType;
+
+    /** Timestamp of each reading, in milliseconds since the epoch */
+    private long[] epochMillis;
+
+    /** Temperature of each reading in Celsius */
+    private double[] temperature;
+
+    /** Humidity of each reading, or NaN */
+    private double[] humidity;
+
+    /** ID of the sensor that made each reading */
+    private int[] sensorId;
+
+    /** FOI index of each reading */
+    private int[] foi;
+
+    /** Number of readings */
+    private int size;
+
+    /**
+     * Creates an empty batch to add readings to.
+     * @param sensorType The type of sensor that made the readings
+     * @param capacity Expected number of readings
+     */
+    public ReadingBatch(final SensorType sensorType, final int capacity) {
+        this(sensorType,
+             new long[capacity],
+             new double[capacity],
+             new double[capacity],
+             new int[capacity],
+             new int[capacity],
+             0);
+    }
+
+    /**
+     * @param sensorType The type of sensor that made the readings
+     * @param epochMillis Timestamp of each reading
+     * @param temperature Temperature of each reading
+     * @param humidity Humidity of each reading, or NaN
+     * @param sensorId ID of the sensor that made each reading
+     * @param foi FOI index of each reading
+     * @param size Number of readings, which may be less than the length of the arrays
+     */
+    private ReadingBatch(
+            final SensorType sensorType,
+            final long[] epochMillis,
+            final double[] temperature,
+            final double[] humidity,
+            final int[] sensorId,
+            final int[] foi,
+            final int size) {
+        this.sensorType = sensorType;
+        this.epochMillis = epochMillis;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.sensorId = sensorId;
+        this.foi = foi;
+        this.size = size;
+    }
+
+    /**
+     * Wraps existing columns of readings from a single sensor, with the default FOI
+     * of the sensor type. The batch takes ownership of the arrays.
+     * @param sensorType The type of sensor that made the readings
+     * @param epochMillis Timestamp of each reading
+     * @param temperature Temperature of each reading
+     * @param humidity Humidity of each reading, or NaN
+     * @param sensorId ID of the sensor that made all the readings
+     * @param size Number of readings, which may be less than the length of the arrays
+     * @return The batch
+     */
+    public static ReadingBatch of(
+            final SensorType sensorType,
+            final long[] epochMillis,
+            final double[] temperature,
+            final double[] humidity,
+            final int sensorId,
+            final int size) {
+        final int[] sensorIds = new int[size];
+        Arrays.fill(sensorIds, sensorId);
+        final int[] fois = new int[size];
+        Arrays.fill(fois, foiIndex(sensorType.defaultFoi));
+        return new ReadingBatch(sensorType, epochMillis, temperature, humidity, sensorIds, fois, size);
+    }
+
+    /**
+     * Interns a feature of interest.
+     * @param foi Feature of interest, e.g. "http://example.org/meatItem345"
+     * @return The FOI index of foi, the same for all batches
+     */
+    public static int foiIndex(final String foi) {
+        final Integer index = FOI_INDEX.get(foi);
+        if (index != null) {
+            return index;
+        }
+        synchronized (FOIS) {
+            return FOI_INDEX.computeIfAbsent(foi, f -> {
+                FOIS.add(f);
+                return FOIS.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Adds a reading at the end of the batch.
+     * @param time Timestamp of the reading, in milliseconds since the epoch
+     * @param celsius Temperature of the reading
+     * @param relativeHumidity Humidity of the reading, or NaN
+     * @param sensor ID of the sensor that made the reading
+     * @param foiIndex FOI index of the reading
+     */
+    public void add(
+            final long time,
+            final double celsius,
+            final double relativeHumidity,
+            final int sensor,
+            final int foiIndex) {
+        if (this.size == this.capacity()) {
+            final int capacity = Math.max(64, this.size * 2);
+            this.epochMillis = Arrays.copyOf(this.epochMillis, capacity);
+            this.temperature = Arrays.copyOf(this.temperature, capacity);
+            this.humidity = Arrays.copyOf(this.humidity, capacity);
+            this.sensorId = Arrays.copyOf(this.sensorId, capacity);
+            this.foi = Arrays.copyOf(this.foi, capacity);
+        }
+        this.epochMillis[this.size] = time;
+        this.temperature[this.size] = celsius;
+        this.humidity[this.size] = relativeHumidity;
+        this.sensorId[this.size] = sensor;
+        this.foi[this.size] = foiIndex;
+        this.size++;
+    }
+
+    /**
+     * @return Number of readings the columns have room for
+     */
+    private int capacity() {
+        return Math.min(
+                Math.min(this.epochMillis.length, this.sensorId.length),
+                Math.min(Math.min(this.temperature.length, this.humidity.length), this.foi.length));
+    }
+
+    /**
+     * @return Number of readings in the batch
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param row 0 to size() - 1
+     * @return Timestamp of the reading, in milliseconds since the epoch
+     */
+    public long epochMillis(final int row) {
+        return this.epochMillis[row];
+    }
+
+    /**
+     * @param row 0 to size() - 1
+     * @return Temperature of the reading in Celsius
+     */
+    public double temperature(final int row) {
+        return this.temperature[row];
+    }
+
+    /**
+     * @param row 0 to size() - 1
+     * @return Humidity of the reading, or NaN
+     */
+    public double humidity(final int row) {
+        return this.humidity[row];
+    }
+
+    /**
+     * @param row 0 to size() - 1
+     * @return ID of the sensor that made the reading
+     */
+    public int sensorId(final int row) {
+        return this.sensorId[row];
+    }
+
+    /**
+     * @param row 0 to size() - 1
+     * @return Feature of interest of the reading
+     */
+    public String foi(final int row) {
+        return FOIS.get(this.foi[row]);
+    }
+
+    /**
+     * @param row 0 to size() - 1
+     * @param foiIndex New FOI index of the reading
+     */
+    public void setFoi(final int row, final int foiIndex) {
+        this.foi[row] = foiIndex;
+    }
+
+    /**
+     * Sets the feature of interest of every reading in the batch.
+     * @param foiUri Feature of interest, e.g. "http://example.org/meatItem345"
+     */
+    public void setFoi(final String foiUri) {
+        Arrays.fill(this.foi, 0, this.size, foiIndex(foiUri));
+    }
+
+    /**
+     * Removes every reading not strictly between two times.
+     * @param after Keep readings after this time, in milliseconds since the epoch
+     * @param before Keep readings before this time, in milliseconds since the epoch
+     */
+    public void retainBetween(final long after, final long before) {
+        int kept = 0;
+        for (int row = 0; row < this.size; row++) {
+            if (this.epochMillis[row] > after && this.epochMillis[row] < before) {
+                this.move(row, kept++);
+            }
+        }
+        this.size = kept;
+    }
+
+    /**
+     * Orders the readings by time, keeping readings with equal times in their order.
+     */
+    public void sortByTime() {
+        boolean sorted = true;
+        for (int row = 1; row < this.size && sorted; row++) {
+            sorted = this.epochMillis[row - 1] <= this.epochMillis[row];
+        }
+        if (sorted) {
+            return;
+        }
+        final int[] order = IntStream.range(0, this.size)
+                .boxed()
+                .sorted((a, b) -> Long.compare(this.epochMillis[a], this.epochMillis[b]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+        final ReadingBatch copy = new ReadingBatch(this.sensorType, this.size);
+        for (final int row : order) {
+            copy.add(
+                    this.epochMillis[row],
+                    this.temperature[row],
+                    this.humidity[row],
+                    this.sensorId[row],
+                    this.foi[row]);
+        }
+        this.epochMillis = copy.epochMillis;
+        this.temperature = copy.temperature;
+        this.humidity = copy.humidity;
+        this.sensorId = copy.sensorId;
+        this.foi = copy.foi;
+    }
+
+    /**
+     * @param from Row to copy
+     * @param to Row to overwrite
+     */
+    private void move(final int from, final int to) {
+        this.epochMillis[to] = this.epochMillis[from];
+        this.temperature[to] = this.temperature[from];
+        this.humidity[to] = this.humidity[from];
+        this.sensorId[to] = this.sensorId[from];
+        this.foi[to] = this.foi[from];
+    }
+
+    /**
+     * Receives single readings of batches, e.g. when several batches are merged by time.
+     */
+    @FunctionalInterface
+    public interface RowConsumer {
+        /**
+         * @param batch A batch of readings
+         * @param row The row of the reading in batch
+         */
+        void accept(ReadingBatch batch, int row);
+    }
+}
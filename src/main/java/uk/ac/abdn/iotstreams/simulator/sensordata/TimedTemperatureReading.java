@@ -2,9 +2,11 @@ package uk.ac.abdn.iotstreams.simulator.sensordata;
 
 import java.time.ZonedDateTime;
 
+import uk.ac.abdn.iotstreams.util.UkTime;
+
 public abstract class TimedTemperatureReading {
-    /** Timestamp of the reading */
-    public final ZonedDateTime time;
+    /** Timestamp of the reading, in milliseconds since the epoch */
+    public final long epochMillis;
     
     /** Temperature in Celsius, e.g. 19.946533012390137 */
     public final Double temperature;
@@ -19,23 +21,37 @@ public abstract class TimedTemperatureReading {
     public final int sensorId;
     
     TimedTemperatureReading(
-            final ZonedDateTime time,
+            final long epochMillis,
             final Double temperature,
             final SensorType sensorType,
             final String foi,
             final int sensorId) {
-        this.time = time;
+        this.epochMillis = epochMillis;
         this.temperature = temperature;
         this.sensorType = sensorType;
         this.foi = foi;
         this.sensorId = sensorId;
     }
     
+    /**
+     * @return Timestamp of the reading in the UK time zone, created on each call
+     */
+    public ZonedDateTime time() {
+        return UkTime.zoned(this.epochMillis);
+    }
+    
     /**
      * Wireless tag or meat probe?
      */
     public enum SensorType {
-        WIRELESS_TAG,
-        MEAT_PROBE
+        WIRELESS_TAG("http://example.org/wirelessTag"),
+        MEAT_PROBE("http://example.org/meatCoreTemp");
+
+        /** Feature of interest of readings that have not been annotated */
+        public final String defaultFoi;
+
+        SensorType(final String defaultFoi) {
+            this.defaultFoi = defaultFoi;
+        }
     }
 }
@@ -1,7 +1,5 @@
 package uk.ac.abdn.iotstreams.simulator.sensordata;
 
-import java.time.ZonedDateTime;
-
 /**
  * 
  * @author nhc
@@ -13,21 +11,21 @@ public final class WirelessTagReading extends TimedTemperatureReading {
     public final Double humidity;
     
     /**
-     * @param time Timestamp of the reading
+     * @param epochMillis Timestamp of the reading, in milliseconds since the epoch
      * @param temperature e.g. 19.946533012390137
      * @param humidity e.g. 24.85736083984375
      * @param sensorId the ID of the sensor that made this reading
      */
     public WirelessTagReading(
-            final ZonedDateTime time,
+            final long epochMillis,
             final Double temperature,
             final Double humidity,
             final int sensorId) {
         super(
-            time, 
+            epochMillis, 
             temperature, 
             TimedTemperatureReading.SensorType.WIRELESS_TAG, 
-            "http://example.org/wirelessTag",
+            TimedTemperatureReading.SensorType.WIRELESS_TAG.defaultFoi,
             sensorId);
         this.humidity = humidity;
     }
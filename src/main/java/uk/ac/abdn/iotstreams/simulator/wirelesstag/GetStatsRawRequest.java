@@ -9,6 +9,9 @@ import java.time.format.DateTimeFormatter;
  * It is intended to be serialized to JSON by GSON.
  */
 public final class GetStatsRawRequest {
+    /** Format of the dates sent to the API */
+    private static final DateTimeFormatter MONTH_DAY_YEAR = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+    
     /** Example: 3 */
     @SuppressWarnings("unused")
     private final int id;
@@ -33,7 +36,7 @@ public final class GetStatsRawRequest {
             final LocalDate fromDate,
             final LocalDate toDate) {
         this.id = id;
-        this.fromDate = fromDate.format(DateTimeFormatter.ofPattern("MM/dd/yyyy"));
-        this.toDate = toDate.format(DateTimeFormatter.ofPattern("MM/dd/yyyy"));
+        this.fromDate = fromDate.format(MONTH_DAY_YEAR);
+        this.toDate = toDate.format(MONTH_DAY_YEAR);
     }
 }
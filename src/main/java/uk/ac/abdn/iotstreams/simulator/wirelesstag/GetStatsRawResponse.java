@@ -1,33 +1,110 @@
 package uk.ac.abdn.iotstreams.simulator.wirelesstag;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.DateTimeException;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
 import uk.ac.abdn.iotstreams.simulator.sensordata.WirelessTagReading;
-import uk.ac.abdn.iotstreams.util.Constants;
 import uk.ac.abdn.iotstreams.util.Logging;
+import uk.ac.abdn.iotstreams.util.UkTime;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
  * A GetStatsRawResponse represents the data sent in a
  * response from the "/ethLogs.asmx/GetStatsRaw" operation.
- * It is intended to be deserialized from JSON by GSON.
+ * It is decoded from JSON by streaming through the response with a
+ * JsonReader, storing the readings of each day in primitive arrays.
  */
 public final class GetStatsRawResponse {
     /** This operation returns a sequence of readings for raw temperature/battery/humidity data. */
-    private List<SingleDayTemperatureHumidityReadings> d;
+    private final List<SingleDayTemperatureHumidityReadings> d;
+
+    /**
+     * Combines days that were retrieved separately, e.g. some from the cache.
+     * @param days The readings of each day, in order
+     */
+    GetStatsRawResponse(final List<SingleDayTemperatureHumidityReadings> days) {
+        this.d = days;
+    }
+
+    /**
+     * Decodes a response of the form {"d": [{"date": ..., "tods": [...], "temps": [...], "caps": [...]}, ...]}.
+     * Any other fields are skipped.
+     * @param reader Positioned at the start of the response
+     * @return The decoded response
+     * @throws IOException if the JSON was malformed or could not be read
+     */
+    static GetStatsRawResponse read(final JsonReader reader) throws IOException {
+        try {
+            return readDays(reader);
+        } catch (final NumberFormatException e) {
+            throw new IOException("GetStatsRaw response with a malformed number", e);
+        }
+    }
+
+    /**
+     * Decodes a response for read().
+     * @param reader Positioned at the start of the response
+     * @return The decoded response
+     * @throws IOException if the JSON was malformed or could not be read
+     * @throws NumberFormatException if a value that should be a number was not
+     */
+    private static GetStatsRawResponse readDays(final JsonReader reader) throws IOException {
+        final List<SingleDayTemperatureHumidityReadings> days = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("d") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    days.add(SingleDayTemperatureHumidityReadings.read(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new GetStatsRawResponse(days);
+    }
+
+    /**
+     * @return The readings of each day in the response
+     */
+    List<SingleDayTemperatureHumidityReadings> days() {
+        return this.d;
+    }
 
     /**
-     * Parses all readings in the HTTP response
+     * Parses all readings in the HTTP response.
+     * Readings are created as the Stream is consumed.
      * @param sensorId The ID to associate with these readings
      * @return A Stream of parsed readings
      */
     public Stream<WirelessTagReading> stream(final int sensorId) {
         return d.stream()
-                .map((day) -> day.stream(sensorId))
-                .reduce(Stream.empty(), Stream::concat);
+                .flatMap((day) -> day.stream(sensorId));
+    }
+
+    /**
+     * Puts the readings of each day in a batch. The batches take over the
+     * arrays of this response, which must not be used afterwards.
+     * @param sensorId The ID to associate with these readings
+     * @return A Stream of one batch per day
+     */
+    public Stream<ReadingBatch> batches(final int sensorId) {
+        return d.stream()
+                .map((day) -> day.toBatch(sensorId));
     }
 
     /**
@@ -35,40 +112,238 @@ public final class GetStatsRawResponse {
      * for a given date.
      */
     public static final class SingleDayTemperatureHumidityReadings {
-        /** Example: "2/8/2016" for Feb 8 2016. 
-          * This is in American style: MM/dd/yyyy */
-        private String date;
-        
+        /** The date of the readings. In the JSON this is in American style: "2/8/2016" for Feb 8 2016. */
+        private final LocalDate date;
+
         /** TimeOfDay. Seconds since midnight. Example: 66471 */
-        private List<Integer> tods;
-        
+        private final int[] tods;
+
         /** Temperature in Celsius. Examples: 19.946533012390137 */
-        private List<Double> temps;
-        
+        private final double[] temps;
+
         /** Humidity. Example: 24.85736083984375 */
-        private List<Double> caps;
+        private final double[] caps;
+
+        /** Number of readings */
+        private final int size;
+
+        /**
+         * @param date The date of the readings
+         * @param tods Seconds since midnight of each reading
+         * @param temps Temperature of each reading
+         * @param caps Humidity of each reading
+         * @param size Number of readings, which may be less than the length of the arrays
+         */
+        private SingleDayTemperatureHumidityReadings(
+                final LocalDate date,
+                final int[] tods,
+                final double[] temps,
+                final double[] caps,
+                final int size) {
+            this.date = date;
+            this.tods = tods;
+            this.temps = temps;
+            this.caps = caps;
+            this.size = size;
+        }
+
+        /**
+         * @param date Any date
+         * @return A day without readings
+         */
+        static SingleDayTemperatureHumidityReadings empty(final LocalDate date) {
+            return new SingleDayTemperatureHumidityReadings(
+                    date,
+                    new int[0],
+                    new double[0],
+                    new double[0],
+                    0);
+        }
+
+        /**
+         * Decodes one element of the "d" array.
+         * @param reader Positioned at the start of the element
+         * @return The readings of the day
+         * @throws IOException if the JSON was malformed or could not be read
+         */
+        private static SingleDayTemperatureHumidityReadings read(final JsonReader reader) throws IOException {
+            LocalDate date = null;
+            final Column tods = new Column();
+            final Column temps = new Column();
+            final Column caps = new Column();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (name.equals("date")) {
+                    date = parseDate(reader.nextString());
+                } else if (name.equals("tods")) {
+                    tods.read(reader);
+                } else if (name.equals("temps")) {
+                    temps.read(reader);
+                } else if (name.equals("caps")) {
+                    caps.read(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (date == null) {
+                throw new IOException("GetStatsRaw day without a date");
+            }
+            if (temps.size < tods.size || caps.size < tods.size) {
+                throw new IOException(String.format(
+                        "GetStatsRaw day %s has %d times but %d temperatures and %d humidities",
+                        date,
+                        tods.size,
+                        temps.size,
+                        caps.size));
+            }
+            //A reading without a time of day cannot be placed in time, so it is skipped
+            final int[] seconds = new int[tods.size];
+            int size = 0;
+            for (int i = 0; i < tods.size; i++) {
+                if (Double.isNaN(tods.values[i])) {
+                    continue;
+                }
+                seconds[size] = (int) tods.values[i];
+                temps.values[size] = temps.values[i];
+                caps.values[size] = caps.values[i];
+                size++;
+            }
+            if (size < tods.size) {
+                Logging.warn(String.format(
+                        "Skipped %d GetStatsRaw readings of %s without a time of day",
+                        tods.size - size,
+                        date));
+            }
+            return new SingleDayTemperatureHumidityReadings(date, seconds, temps.values, caps.values, size);
+        }
+
+        /**
+         * A growable array of numbers, filled from a JSON array.
+         */
+        private static final class Column {
+            private double[] values = new double[0];
+            private int size = 0;
+
+            /**
+             * Reads a JSON array of numbers, null becoming NaN.
+             * @param reader Positioned at the start of the array
+             * @throws IOException if the JSON was malformed or could not be read
+             */
+            void read(final JsonReader reader) throws IOException {
+                this.size = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (this.size == this.values.length) {
+                        this.values = Arrays.copyOf(this.values, Math.max(64, this.size * 2));
+                    }
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        this.values[this.size++] = Double.NaN;
+                    } else {
+                        this.values[this.size++] = reader.nextDouble();
+                    }
+                }
+                reader.endArray();
+            }
+        }
+
+        /**
+         * @param mdy e.g. "2/8/2016" for Feb 8 2016
+         * @return The parsed date
+         * @throws IOException if mdy is not a date in that format
+         */
+        private static LocalDate parseDate(final String mdy) throws IOException {
+            final String[] parts = mdy.split("/");
+            if (parts.length != 3) {
+                throw new IOException("GetStatsRaw day with the malformed date " + mdy);
+            }
+            try {
+                return LocalDate.of(
+                                Integer.parseInt(parts[2]),
+                                Integer.parseInt(parts[0]),
+                                Integer.parseInt(parts[1]));
+            } catch (final NumberFormatException | DateTimeException e) {
+                throw new IOException("GetStatsRaw day with the malformed date " + mdy, e);
+            }
+        }
+
+        /**
+         * @return The date of these readings
+         */
+        LocalDate getDate() {
+            return this.date;
+        }
+
+        /**
+         * Writes the readings of this day in a compact binary form.
+         * @param out The stream to write to
+         * @throws IOException if writing failed
+         */
+        void write(final DataOutputStream out) throws IOException {
+            out.writeInt(this.size);
+            for (int i = 0; i < this.size; i++) {
+                out.writeInt(this.tods[i]);
+                out.writeDouble(this.temps[i]);
+                out.writeDouble(this.caps[i]);
+            }
+        }
+
+        /**
+         * Reads the readings of a day written by write().
+         * @param date The date of the readings
+         * @param in The stream to read from
+         * @return The readings of the day
+         * @throws IOException if reading failed
+         */
+        static SingleDayTemperatureHumidityReadings read(
+                final LocalDate date,
+                final DataInputStream in) throws IOException {
+            final int size = in.readInt();
+            final int[] tods = new int[size];
+            final double[] temps = new double[size];
+            final double[] caps = new double[size];
+            for (int i = 0; i < size; i++) {
+                tods[i] = in.readInt();
+                temps[i] = in.readDouble();
+                caps[i] = in.readDouble();
+            }
+            return new SingleDayTemperatureHumidityReadings(date, tods, temps, caps, size);
+        }
+
+        /**
+         * @param sensorId The ID to associate with these readings
+         * @return A batch wrapping the readings of this day
+         */
+        private ReadingBatch toBatch(final int sensorId) {
+            final long epochDay = this.date.toEpochDay();
+            final long[] epochMillis = new long[this.size];
+            for (int i = 0; i < this.size; i++) {
+                epochMillis[i] = UkTime.epochMillis(epochDay, this.tods[i]);
+            }
+            return ReadingBatch.of(
+                    SensorType.WIRELESS_TAG,
+                    epochMillis,
+                    this.temps,
+                    this.caps,
+                    sensorId,
+                    this.size);
+        }
 
         /**
-         * Parses all readings of this day
+         * Parses all readings of this day, creating each reading as the Stream is consumed.
          * @param sensorId The ID to associate with these readings
          * @return A Stream of parsed readings
          */
         private Stream<WirelessTagReading> stream(final int sensorId) {
-            final String[] mdy = date.split("/");
-            final LocalDate localDate = LocalDate.of(
-                            Integer.parseInt(mdy[2]), 
-                            Integer.parseInt(mdy[0]), 
-                            Integer.parseInt(mdy[1]));
-            final Stream.Builder<WirelessTagReading> result = Stream.builder();
-            for (int i = 0; i < tods.size(); i++) {
-                final LocalDateTime localDateTime = LocalDateTime.of(localDate, LocalTime.ofSecondOfDay(tods.get(i)));
-                result.accept(new WirelessTagReading(
-                        localDateTime.atZone(Constants.UK),
-                        temps.get(i),
-                        caps.get(i),
+            final long epochDay = this.date.toEpochDay();
+            return IntStream.range(0, this.size)
+                .mapToObj(i -> new WirelessTagReading(
+                        UkTime.epochMillis(epochDay, this.tods[i]),
+                        this.temps[i],
+                        this.caps[i],
                         sensorId));
-            }
-            return result.build();
         }
     }
 
@@ -76,6 +351,6 @@ public final class GetStatsRawResponse {
      * Log the total number of readings in the response
      */
     public void log() {
-        Logging.info(String.format("Retrieved %d readings", this.d.stream().mapToInt(day -> day.temps.size()).sum()));
+        Logging.info(String.format("Retrieved %d readings", this.d.stream().mapToInt(day -> day.size).sum()));
     }
 }
@@ -24,7 +24,13 @@ public final class SignInRequest {
      * Reads credentials from the system environment.
      */
     public SignInRequest() {
-        final String credentials = System.getenv(ENV_VARIABLE);
+        this(System.getenv(ENV_VARIABLE));
+    }
+
+    /**
+     * @param credentials Credentials in the format of the environment variable, e.g. "me@myemail.com mypasswd"
+     */
+    public SignInRequest(final String credentials) {
         assert credentials != null : MESSAGE;
         final String[] pair = credentials.split(" ");
         assert pair.length == 2 : MESSAGE;
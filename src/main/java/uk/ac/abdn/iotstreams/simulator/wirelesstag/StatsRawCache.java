@@ -0,0 +1,107 @@
+package uk.ac.abdn.iotstreams.simulator.wirelesstag;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import uk.ac.abdn.iotstreams.simulator.wirelesstag.GetStatsRawResponse.SingleDayTemperatureHumidityReadings;
+import uk.ac.abdn.iotstreams.util.Logging;
+
+/**
+ *
+ * @author nhc
+ *
+ * A StatsRawCache keeps the GetStatsRaw readings of past days on disk,
+ * one gzipped binary file per wireless tag and date, e.g.
+ * config/simulator/wirelesstag-cache/3/2016-02-10.bin.gz
+ * Past days never change, so cached days are never fetched again.
+ * The cache is best effort: files that cannot be read or written are logged and ignored.
+ */
+final class StatsRawCache {
+    /** Root directory of all cached days, unless overridden */
+    private static final Path DEFAULT_ROOT = Paths.get("config/simulator/wirelesstag-cache");
+
+    /** First int of every cache file, identifying the format */
+    private static final int MAGIC = 0x57544331; //"WTC1"
+
+    /** Root directory of all cached days in this cache */
+    private final Path root;
+
+    /**
+     * Caches days under config/simulator/wirelesstag-cache
+     */
+    StatsRawCache() {
+        this(DEFAULT_ROOT);
+    }
+
+    /**
+     * @param root Root directory of all cached days, created when the first day is stored
+     */
+    StatsRawCache(final Path root) {
+        this.root = root;
+    }
+
+    /**
+     * @param sensorId ID of a wireless tag
+     * @param date A day before today
+     * @return The cached readings of the tag on that day, if any
+     */
+    Optional<SingleDayTemperatureHumidityReadings> get(final int sensorId, final LocalDate date) {
+        final Path file = this.path(sensorId, date);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                Logging.warn(String.format("Ignoring cache file %s in an unknown format", file));
+                return Optional.empty();
+            }
+            return Optional.of(SingleDayTemperatureHumidityReadings.read(date, in));
+        } catch (final IOException e) {
+            Logging.warn(String.format("Ignoring unreadable cache file %s: %s", file, e));
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the readings of a day. Only days before today should be stored.
+     * @param sensorId ID of the wireless tag the readings are from
+     * @param day The readings
+     */
+    void put(final int sensorId, final SingleDayTemperatureHumidityReadings day) {
+        final Path file = this.path(sensorId, day.getDate());
+        try {
+            Files.createDirectories(file.getParent());
+            //Write to a temporary file first, so that readers never see a partial file
+            final Path tmp = Files.createTempFile(file.getParent(), "day", ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(MAGIC);
+                day.write(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            Logging.warn(String.format("Could not cache %s: %s", file, e));
+        }
+    }
+
+    /**
+     * @param sensorId ID of a wireless tag
+     * @param date Any date
+     * @return Path of the cache file for the tag and date
+     */
+    private Path path(final int sensorId, final LocalDate date) {
+        return this.root.resolve(Integer.toString(sensorId)).resolve(date + ".bin.gz");
+    }
+}
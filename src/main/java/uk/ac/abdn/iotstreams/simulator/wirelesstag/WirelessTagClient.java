@@ -9,38 +9,111 @@ import java.net.CookieManager;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.net.ssl.HttpsURLConnection;
-
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
 import uk.ac.abdn.iotstreams.simulator.sensordata.WirelessTagReading;
+import uk.ac.abdn.iotstreams.simulator.wirelesstag.GetStatsRawResponse.SingleDayTemperatureHumidityReadings;
+import uk.ac.abdn.iotstreams.util.Constants;
 import uk.ac.abdn.iotstreams.util.IotStreamsException;
 import uk.ac.abdn.iotstreams.util.Logging;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 
 /**
  * An HTTP Client for mywirelesstag.com
  * 
  * Credentials must be given in an environment variable,
  * @see uk.ac.abdn.iotstreams.simulator.wirelesstag.SignInRequest
+ * 
+ * The base URL can be overridden in the environment variable WTURL,
+ * e.g. to point the client at a local stub server when testing.
  */
 public class WirelessTagClient {
-    /** Base URL for all requests made */
-    private static final String BASE_URL = "https://www.mytaglist.com";
+    /** Base URL for all requests made, unless overridden */
+    private static final String DEFAULT_BASE_URL = "https://www.mytaglist.com";
+
+    /** Environment variable overriding DEFAULT_BASE_URL */
+    private static final String BASE_URL_ENV_VARIABLE = "WTURL";
+
+    /** Base URL for all requests made by this client */
+    private final String baseUrl;
 
     /** Have the credentials from the environment been used to sign in? */
     private static boolean signedIn = false;
 
+    /** Creates the request to sign in with, if this instance is the one to sign in */
+    private final Supplier<SignInRequest> signInRequest;
+
     /** See https://github.com/google/gson */
     private Gson gson = new Gson();
 
+    /** Readings of past days, kept on disk */
+    private final StatsRawCache cache;
+
     /**
-     * Signs in to mywirelesstag.com if this has not been
+     * Signs in to mywirelesstag.com (or the server in WTURL) if this has not been
      * done previously by another instance.
      */
     public WirelessTagClient() {
+        this(System.getenv().getOrDefault(BASE_URL_ENV_VARIABLE, DEFAULT_BASE_URL));
+    }
+
+    /**
+     * Signs in to the server at the given base URL if this has not been
+     * done previously by another instance.
+     * @param baseUrl Base URL for all requests, e.g. "http://localhost:8080"
+     */
+    public WirelessTagClient(final String baseUrl) {
+        this(baseUrl, SignInRequest::new, new StatsRawCache());
+    }
+
+    /**
+     * Signs in to the server at the given base URL with the given credentials
+     * if this has not been done previously by another instance.
+     * @param baseUrl Base URL for all requests, e.g. "http://localhost:8080"
+     * @param credentials e.g. "me@myemail.com mypasswd", see SignInRequest
+     */
+    public WirelessTagClient(final String baseUrl, final String credentials) {
+        this(baseUrl, () -> new SignInRequest(credentials), new StatsRawCache());
+    }
+
+    /**
+     * Signs in to the server at the given base URL with the given credentials
+     * if this has not been done previously by another instance,
+     * and caches the readings of past days under the given directory.
+     * @param baseUrl Base URL for all requests, e.g. "http://localhost:8080"
+     * @param credentials e.g. "me@myemail.com mypasswd", see SignInRequest
+     * @param cacheRoot Directory to cache the readings of past days in,
+     * instead of config/simulator/wirelesstag-cache
+     */
+    public WirelessTagClient(final String baseUrl, final String credentials, final Path cacheRoot) {
+        this(baseUrl, () -> new SignInRequest(credentials), new StatsRawCache(cacheRoot));
+    }
+
+    /**
+     * @param baseUrl Base URL for all requests
+     * @param signInRequest Creates the request to sign in with
+     * @param cache Readings of past days, kept on disk
+     */
+    private WirelessTagClient(
+            final String baseUrl,
+            final Supplier<SignInRequest> signInRequest,
+            final StatsRawCache cache) {
+        this.baseUrl = baseUrl;
+        this.signInRequest = signInRequest;
+        this.cache = cache;
         WirelessTagClient.ensureSignedIn(this);
     }
 
@@ -65,7 +138,7 @@ public class WirelessTagClient {
      */
     public void getEventRawData(final int sensorId) {
         try {
-            final HttpsURLConnection urlConnection = 
+            final HttpURLConnection urlConnection = 
               this.post(
                   "/ethLogs.asmx/GetEventRawData",
                   gson.toJson(new GetEventRawDataRequest(sensorId)));
@@ -87,7 +160,7 @@ public class WirelessTagClient {
      */
     public void logTagList() {
         try {
-            final HttpsURLConnection urlConnection = 
+            final HttpURLConnection urlConnection = 
               this.post(
                   "/ethClient.asmx/GetTagList",
                   gson.toJson(new GetTagListRequest()));
@@ -102,8 +175,10 @@ public class WirelessTagClient {
     }
 
     /**
-     * Performs a POST to "/ethLogs.asmx/GetStatsRaw", retrieving
-     * event data from a specified sensor between two dates.
+     * Gets the readings of a specified sensor between two dates.
+     * Days before today are taken from the on-disk cache when present;
+     * the remaining days are retrieved by POSTing to "/ethLogs.asmx/GetStatsRaw",
+     * one request per run of consecutive missing days, and past days are then cached.
      * @param sensorId The ID of the sensor to get data for, e.g. 3.
      * @param fromDate The first date to get data from
      * @param toDate The last date to get data from - must be after fromDate
@@ -113,22 +188,103 @@ public class WirelessTagClient {
             final int sensorId,
             final LocalDate fromDate,
             final LocalDate toDate) {
+        return this.getStatsRawResponse(sensorId, fromDate, toDate).stream(sensorId);
+    }
+
+    /**
+     * Gets the readings of a specified sensor between two dates like getStatsRaw,
+     * but as one batch of readings per day.
+     * @param sensorId The ID of the sensor to get data for, e.g. 3.
+     * @param fromDate The first date to get data from
+     * @param toDate The last date to get data from - must be after fromDate
+     * @return a Java Stream of batches of sensor readings
+     */
+    public Stream<ReadingBatch> getStatsRawBatches(
+            final int sensorId,
+            final LocalDate fromDate,
+            final LocalDate toDate) {
+        return this.getStatsRawResponse(sensorId, fromDate, toDate).batches(sensorId);
+    }
+
+    /**
+     * Gets the days of readings for getStatsRaw and getStatsRawBatches,
+     * from the cache or the server.
+     * @param sensorId The ID of the sensor to get data for, e.g. 3.
+     * @param fromDate The first date to get data from
+     * @param toDate The last date to get data from - must be after fromDate
+     * @return The readings of each day
+     */
+    private GetStatsRawResponse getStatsRawResponse(
+            final int sensorId,
+            final LocalDate fromDate,
+            final LocalDate toDate) {
         Logging.info(String.format("Retrieving data for wireless tag %d...", sensorId));
         assert fromDate.isBefore(toDate) || fromDate.isEqual(toDate) : String.format(
                 "Cannot get data for this period because fromDate %s is not before toDate %s",
                 fromDate,
                 toDate);
+        final LocalDate today = LocalDate.now(Constants.UK);
+        final List<SingleDayTemperatureHumidityReadings> days = new ArrayList<>();
+        Optional<LocalDate> firstMissing = Optional.empty();
+        for (LocalDate date = fromDate; !date.isAfter(toDate); date = date.plusDays(1)) {
+            final Optional<SingleDayTemperatureHumidityReadings> cached = date.isBefore(today)
+                    ? this.cache.get(sensorId, date)
+                    : Optional.empty();
+            if (cached.isPresent()) {
+                if (firstMissing.isPresent()) {
+                    days.addAll(this.getStatsRawFromServer(sensorId, firstMissing.get(), date.minusDays(1), today));
+                    firstMissing = Optional.empty();
+                }
+                days.add(cached.get());
+            } else if (!firstMissing.isPresent()) {
+                firstMissing = Optional.of(date);
+            }
+        }
+        if (firstMissing.isPresent()) {
+            days.addAll(this.getStatsRawFromServer(sensorId, firstMissing.get(), toDate, today));
+        }
+        final GetStatsRawResponse response = new GetStatsRawResponse(days);
+        response.log();
+        return response;
+    }
+
+    /**
+     * Performs a POST to "/ethLogs.asmx/GetStatsRaw", retrieving
+     * event data from a specified sensor between two dates,
+     * and caches the days before today.
+     * @param sensorId The ID of the sensor to get data for, e.g. 3.
+     * @param fromDate The first date to get data from
+     * @param toDate The last date to get data from - must be after fromDate
+     * @param today Days from this date on are not cached
+     * @return The readings of each day that had any
+     */
+    private List<SingleDayTemperatureHumidityReadings> getStatsRawFromServer(
+            final int sensorId,
+            final LocalDate fromDate,
+            final LocalDate toDate,
+            final LocalDate today) {
         try {
-            final HttpsURLConnection urlConnection = 
+            final HttpURLConnection urlConnection = 
               this.post(
                   "/ethLogs.asmx/GetStatsRaw",
                   gson.toJson(new GetStatsRawRequest(sensorId, fromDate, toDate)));
             final GetStatsRawResponse response = 
                     this.parseJsonResponse(
                         urlConnection, 
-                        GetStatsRawResponse.class);
-            response.log();
-            return response.stream(sensorId);
+                        GetStatsRawResponse::read);
+            final List<SingleDayTemperatureHumidityReadings> days = response.days().stream()
+                    .filter(day -> !day.getDate().isBefore(fromDate) && !day.getDate().isAfter(toDate))
+                    .collect(Collectors.toList());
+            //Cache every past day, including the ones without readings
+            final Set<LocalDate> pastDays = new HashSet<>();
+            for (LocalDate date = fromDate; !date.isAfter(toDate) && date.isBefore(today); date = date.plusDays(1)) {
+                pastDays.add(date);
+            }
+            days.stream()
+                .filter(day -> pastDays.remove(day.getDate()))
+                .forEach(day -> this.cache.put(sensorId, day));
+            pastDays.forEach(date -> this.cache.put(sensorId, SingleDayTemperatureHumidityReadings.empty(date)));
+            return days;
           } catch (final IOException e) {
               throw IotStreamsException.wirelessTagConnectionFailed(e);
           }
@@ -142,9 +298,9 @@ public class WirelessTagClient {
      */
     private synchronized void signIn() {
         try {
-            final HttpsURLConnection urlConnection = this.post(
+            final HttpURLConnection urlConnection = this.post(
                     "/ethAccount.asmx/SignIn", 
-                    gson.toJson(new SignInRequest()));
+                    gson.toJson(this.signInRequest.get()));
             final int responseCode = urlConnection.getResponseCode();
             if (responseCode != 200) {
                 throw IotStreamsException.wirelessTagSentError(
@@ -157,16 +313,16 @@ public class WirelessTagClient {
     }
 
     /**
-     * Creates an UrlConnection to a URL based on BASE_URL.
+     * Creates an UrlConnection to a URL based on the base URL.
      * @param path the URL path to add, e.g. "/ethAccount.asmx/SignIn" 
      * @return the newly created connection
      * @throws IOException if the URL was malformed or the connection
      * could not be created.
      */
-    private HttpsURLConnection createConnection(final String path) 
+    private HttpURLConnection createConnection(final String path) 
             throws IOException {
-        final HttpsURLConnection result =  
-                (HttpsURLConnection) new URL(WirelessTagClient.BASE_URL + path)
+        final HttpURLConnection result =  
+                (HttpURLConnection) new URL(this.baseUrl + path)
         .openConnection();
         //X-Requested-With to avoid CORS issues
         result.setRequestProperty("X-Requested-With", "java.net");
@@ -175,17 +331,17 @@ public class WirelessTagClient {
     }
 
     /**
-     * Creates an UrlConnection to a URL based on BASE_URL
+     * Creates an UrlConnection to a URL based on the base URL
      * and POSTs a text body to that URL, insisting on JSON request and response.
      * @param path the URL path to add, e.g. "/ethAccount.asmx/SignIn" 
      * @return the newly created connection
      * @throws IOException if the URL was malformed or the connection
      * could not be created.
      */
-    private HttpsURLConnection post(
+    private HttpURLConnection post(
             final String path, 
             final String body) throws IOException {
-        final HttpsURLConnection urlConnection = 
+        final HttpURLConnection urlConnection = 
                 this.createConnection(path);
         urlConnection.setRequestMethod("POST");
         urlConnection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
@@ -212,19 +368,46 @@ public class WirelessTagClient {
     private <T> T parseJsonResponse(
             final HttpURLConnection urlConnection,
             final Class<T> classOfT) throws IOException {
+        return this.parseJsonResponse(
+                urlConnection,
+                reader -> gson.fromJson(reader, classOfT));
+    }
+
+    /**
+     * Checks that the response on the connection was 200, then streams
+     * the JSON in its body through a decoder.
+     * @param urlConnection the connection to get data from.
+     * @param decoder reads the response from the JSON
+     * @return the parsed response
+     * @throws IOException if the IO with the tool failed.
+     */
+    private <T> T parseJsonResponse(
+            final HttpURLConnection urlConnection,
+            final JsonDecoder<T> decoder) throws IOException {
         final int responseCode = urlConnection.getResponseCode();
         if (responseCode != 200) {
             throw IotStreamsException.wirelessTagSentError(
                     responseCode,
                     urlConnection.getURL());
         }
-        final BufferedReader responseReader = 
-                new BufferedReader(
+        try (final JsonReader responseReader = 
+                new JsonReader(
+                    new BufferedReader(
                         new InputStreamReader(
                                 urlConnection.getInputStream(),
-                                Charset.forName("UTF-8")));
-        final T response = gson.fromJson(responseReader, classOfT);
-        responseReader.close();
-        return response;
+                                Charset.forName("UTF-8"))))) {
+            return decoder.decode(responseReader);
+        } catch (final JsonParseException | IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads a response from streamed JSON.
+     * @param <T> the type of the response
+     */
+    @FunctionalInterface
+    private interface JsonDecoder<T> {
+        T decode(JsonReader reader) throws IOException;
     }
 }
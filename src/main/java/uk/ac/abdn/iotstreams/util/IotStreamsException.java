@@ -105,6 +105,33 @@ public final class IotStreamsException extends RuntimeException {
         return new IotStreamsException("Failure reading annotation file", e);
     }
 
+    /**
+     * Constructs an Exception to throw when writing inferred provenance failed.
+     * @param e Exception caught during file IO
+     * @return The wrapping Exception
+     */
+    public static IotStreamsException provenanceIOfailed(final IOException e) {
+        return new IotStreamsException("Failure writing provenance", e);
+    }
+
+    /**
+     * Constructs an Exception to throw when recording or replaying the stream of quadruples failed.
+     * @param e Exception caught during file IO
+     * @return The wrapping Exception
+     */
+    public static IotStreamsException recordingIOfailed(final IOException e) {
+        return new IotStreamsException("Failure recording or replaying the stream", e);
+    }
+
+    /**
+     * Constructs an Exception to throw when the command-line arguments are not understood.
+     * @param msg How the arguments should be given
+     * @return The constructed Exception
+     */
+    public static IotStreamsException usageError(final String msg) {
+        return new IotStreamsException(String.format("Wrong arguments: %s", msg));
+    }
+
     /**
      * Constructs an Exception to throw when reading the configuration files failed.
      * @param e Exception caught during configuration
@@ -0,0 +1,138 @@
+package uk.ac.abdn.iotstreams.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * @author nhc
+ *
+ * Converts UK local date/times, as found in sensor data, to epoch milliseconds
+ * without creating any objects. The UK offset changes (GMT/BST) are looked up
+ * in a table computed once from the rules of Constants.UK.
+ * Local times in a gap or overlap resolve as LocalDateTime.atZone(Constants.UK) does:
+ * a time in a gap is moved later by the length of the gap, and a time in an overlap
+ * gets the earlier offset.
+ */
+public final class UkTime {
+    /** First year covered by the table; earlier times are converted by java.time */
+    private static final int FIRST_YEAR = 1970;
+
+    /** Last year covered by the table; later times are converted by java.time */
+    private static final int LAST_YEAR = 2100;
+
+    /** Seconds per day */
+    private static final int SECONDS_PER_DAY = 86400;
+
+    /** Local epoch seconds from which the table applies */
+    private static final long TABLE_START = LocalDateTime.of(FIRST_YEAR, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+
+    /** Local epoch seconds until which the table applies */
+    private static final long TABLE_END = LocalDateTime.of(LAST_YEAR + 1, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+
+    /** Local epoch seconds from which OFFSETS[i + 1] applies instead of OFFSETS[i], ascending */
+    private static final long[] SWITCHES;
+
+    /** Offsets in seconds, one more than SWITCHES */
+    private static final int[] OFFSETS;
+
+    static {
+        final ZoneRules rules = Constants.UK.getRules();
+        final List<ZoneOffsetTransition> transitions = new ArrayList<>();
+        final Instant end = Instant.ofEpochSecond(TABLE_END + SECONDS_PER_DAY);
+        ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochSecond(TABLE_START - SECONDS_PER_DAY));
+        while (transition != null && transition.getInstant().isBefore(end)) {
+            transitions.add(transition);
+            transition = rules.nextTransition(transition.getInstant());
+        }
+        SWITCHES = new long[transitions.size()];
+        OFFSETS = new int[transitions.size() + 1];
+        OFFSETS[0] = rules.getOffset(Instant.ofEpochSecond(TABLE_START - SECONDS_PER_DAY)).getTotalSeconds();
+        for (int i = 0; i < transitions.size(); i++) {
+            final ZoneOffsetTransition t = transitions.get(i);
+            final int before = t.getOffsetBefore().getTotalSeconds();
+            final int after = t.getOffsetAfter().getTotalSeconds();
+            //Gap: the new offset applies once the local time exists again.
+            //Overlap: the old offset applies until the local time is no longer ambiguous.
+            SWITCHES[i] = t.getInstant().getEpochSecond() + Math.max(before, after);
+            OFFSETS[i + 1] = after;
+        }
+    }
+
+    /**
+     * Utility class.
+     */
+    private UkTime() {
+        //No instances
+    }
+
+    /**
+     * @param year e.g. 2015
+     * @param month 1-12
+     * @param day 1-31, valid for the month
+     * @param hour 0-23
+     * @param minute 0-59
+     * @param second 0-59
+     * @return The UK local date/time as milliseconds since the epoch
+     */
+    public static long epochMillis(
+            final int year,
+            final int month,
+            final int day,
+            final int hour,
+            final int minute,
+            final int second) {
+        return epochMillis(epochDay(year, month, day), hour * 3600 + minute * 60 + second);
+    }
+
+    /**
+     * @param epochDay Days since 1970-01-01, e.g. from LocalDate.toEpochDay()
+     * @param secondOfDay Seconds since midnight, 0-86399
+     * @return The UK local date/time as milliseconds since the epoch
+     */
+    public static long epochMillis(final long epochDay, final int secondOfDay) {
+        final long local = epochDay * SECONDS_PER_DAY + secondOfDay;
+        if (local < TABLE_START || local >= TABLE_END) {
+            return LocalDateTime.ofEpochSecond(local, 0, ZoneOffset.UTC)
+                    .atZone(Constants.UK)
+                    .toInstant()
+                    .toEpochMilli();
+        }
+        //Index of the first switch after local, which is the index of its offset
+        int index = Arrays.binarySearch(SWITCHES, local);
+        index = index >= 0 ? index + 1 : -index - 1;
+        return (local - OFFSETS[index]) * 1000;
+    }
+
+    /**
+     * @param epochMillis Milliseconds since the epoch
+     * @return The same instant in the UK time zone
+     */
+    public static ZonedDateTime zoned(final long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atZone(Constants.UK);
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar,
+     * computed the way LocalDate.toEpochDay() does.
+     * @param year e.g. 2015
+     * @param month 1-12
+     * @param day 1-31
+     * @return Days since 1970-01-01
+     */
+    private static long epochDay(final int year, final int month, final int day) {
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = Math.floorDiv(y, 400);
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
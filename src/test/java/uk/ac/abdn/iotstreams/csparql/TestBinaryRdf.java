@@ -0,0 +1,117 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+public class TestBinaryRdf {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTripsBatches() throws IOException {
+        final Model first = batch("first");
+        final Model second = batch("second");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final BinaryRdfWriter writer = new BinaryRdfWriter(out)) {
+            writer.write(1455114480000L, first);
+            //Times may go backwards
+            writer.write(1455114420000L, second);
+        }
+        try (final BinaryRdfReader reader = new BinaryRdfReader(new ByteArrayInputStream(out.toByteArray()))) {
+            assertTrue(reader.next().isIsomorphicWith(first));
+            assertEquals(1455114480000L, reader.getTime());
+            assertTrue(reader.next().isIsomorphicWith(second));
+            assertEquals(1455114420000L, reader.getTime());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testRoundTripsQuadruples() throws IOException {
+        final RdfQuadruple[] quads = {
+            new RdfQuadruple(
+                    "http://FoodSafety/observation/temperature/wirelesstag-3-0",
+                    TermDictionary.uri("http://purl.oclc.org/NET/ssnx/ssn#observationSamplingTime"),
+                    TermDictionary.literal("2016-02-10T14:28:00Z", XSDDatatype.XSDdateTime.getURI()),
+                    1455114480000L),
+            new RdfQuadruple(
+                    "http://FoodSafety/observation/temperature/wirelesstag-3-1",
+                    TermDictionary.uri("https://raw.githubusercontent.com/m-markovic/FS-PROV-Ontology/master/fso#follows"),
+                    "http://FoodSafety/observation/temperature/wirelesstag-3-0",
+                    1455114540000L)
+        };
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final BinaryRdfWriter writer = new BinaryRdfWriter(out)) {
+            for (final RdfQuadruple quad : quads) {
+                writer.write(quad);
+            }
+        }
+        try (final BinaryRdfReader reader = new BinaryRdfReader(new ByteArrayInputStream(out.toByteArray()))) {
+            for (final RdfQuadruple quad : quads) {
+                final RdfQuadruple read = reader.nextQuadruple();
+                assertEquals(quad.getSubject(), read.getSubject());
+                assertEquals(quad.getPredicate(), read.getPredicate());
+                assertEquals(quad.getObject(), read.getObject());
+                assertEquals(quad.getTimestamp(), read.getTimestamp());
+            }
+            assertNull(reader.nextQuadruple());
+        }
+    }
+
+    @Test
+    public void testReadsTruncatedFileUpToLastBatch() throws IOException {
+        final Path file = this.folder.getRoot().toPath().resolve("provenance.rdfb");
+        final Model first = batch("first");
+        try (final BinaryRdfWriter writer = new BinaryRdfWriter(Files.newOutputStream(file))) {
+            writer.write(1, first);
+            writer.write(2, batch("second"));
+        }
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertTrue(BinaryRdfReader.read(file).isIsomorphicWith(first));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        new BinaryRdfReader(new ByteArrayInputStream("<a> <b> <c> .".getBytes("UTF-8")));
+    }
+
+    /**
+     * @param name Distinguishes the batch
+     * @return A batch with a term of each kind
+     */
+    private static Model batch(final String name) {
+        final Model batch = ModelFactory.createDefaultModel();
+        final Resource activity = batch.createResource("http://example.org/activity/" + name);
+        final Property label = batch.createProperty("http://www.w3.org/2000/01/rdf-schema#label");
+        activity.addProperty(
+                batch.createProperty("http://www.w3.org/ns/prov#used"),
+                batch.createResource("http://example.org/entity#" + name));
+        activity.addProperty(label, name);
+        activity.addProperty(label, name, "en");
+        activity.addLiteral(
+                batch.createProperty("http://example.org/temperature"),
+                batch.createTypedLiteral("19.5", XSDDatatype.XSDdouble));
+        activity.addProperty(batch.createProperty("http://example.org/agent"), batch.createResource());
+        return batch;
+    }
+}
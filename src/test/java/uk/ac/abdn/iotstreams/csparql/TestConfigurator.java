@@ -0,0 +1,142 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import eu.larkc.csparql.core.engine.CsparqlEngineImpl;
+import eu.larkc.csparql.core.engine.CsparqlQueryResultProxy;
+
+public class TestConfigurator {
+
+    private static final String QUERY = "REGISTER QUERY q AS SELECT ?s WHERE { ?s ?p ?o }";
+
+    private static final String CHANGED = "REGISTER QUERY q AS SELECT ?o WHERE { ?s ?p ?o }";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+
+    private RecordingEngine engine;
+
+    @Before
+    public void createQuery() throws IOException {
+        this.root = this.folder.newFolder("iotstreams").toPath();
+        this.write(QUERY);
+        this.engine = new RecordingEngine();
+    }
+
+    @Test
+    public void testKeepsObserverWhenQueryIsUnchanged() throws IOException {
+        final Configurator configurator = new Configurator(this.engine, model -> { }, this.root);
+        final CsparqlQueryResultProxy proxy = this.engine.registered.get(QUERY);
+        configurator.reload("q");
+        assertEquals(Arrays.asList("register " + QUERY), this.engine.calls);
+        assertEquals(1, proxy.countObservers());
+    }
+
+    @Test
+    public void testUnregistersBeforeRegisteringChangedQuery() throws IOException {
+        final Configurator configurator = new Configurator(this.engine, model -> { }, this.root);
+        final CsparqlQueryResultProxy proxy = this.engine.registered.get(QUERY);
+        this.write(CHANGED);
+        configurator.reload("q");
+        assertEquals(
+                Arrays.asList("register " + QUERY, "unregister " + QUERY, "register " + CHANGED),
+                this.engine.calls);
+        assertEquals(0, proxy.countObservers());
+        assertEquals(1, this.engine.registered.get(CHANGED).countObservers());
+    }
+
+    @Test
+    public void testKeepsQueryWhenUnregisterFails() throws IOException {
+        final Configurator configurator = new Configurator(this.engine, model -> { }, this.root);
+        final CsparqlQueryResultProxy proxy = this.engine.registered.get(QUERY);
+        this.write(CHANGED);
+        this.engine.failUnregister = true;
+        try {
+            configurator.reload("q");
+            fail("The reload should fail");
+        } catch (final IllegalStateException e) {
+            //The old query is still registered, and the changed one is not
+            assertEquals(Arrays.asList("register " + QUERY), this.engine.calls);
+            assertEquals(1, proxy.countObservers());
+        }
+        this.engine.failUnregister = false;
+        configurator.reload("q");
+        assertEquals(
+                Arrays.asList("register " + QUERY, "unregister " + QUERY, "register " + CHANGED),
+                this.engine.calls);
+    }
+
+    @Test
+    public void testRegistersOldQueryAgainWhenChangedQueryDoesNotParse() throws IOException {
+        final Configurator configurator = new Configurator(this.engine, model -> { }, this.root);
+        this.write("REGISTER QUERY q AS SELECT");
+        configurator.reload("q");
+        assertEquals(
+                Arrays.asList("register " + QUERY, "unregister " + QUERY, "register " + QUERY),
+                this.engine.calls);
+        assertEquals(1, this.engine.registered.get(QUERY).countObservers());
+    }
+
+    /**
+     * @param query Text of the C-SPARQL query of q
+     * @throws IOException if the query could not be written
+     */
+    private void write(final String query) throws IOException {
+        final Path dir = this.root.resolve("q");
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("csparql-query.rq"), query.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * An engine that only records the queries registered and unregistered,
+     * and does not parse queries that do not end with '}'.
+     */
+    private static final class RecordingEngine extends CsparqlEngineImpl {
+        /** The successful registrations and unregistrations, in order */
+        private final List<String> calls = new ArrayList<>();
+
+        /** The latest registration of each query text */
+        private final Map<String, CsparqlQueryResultProxy> registered = new HashMap<>();
+
+        /** Whether unregisterQuery fails */
+        private boolean failUnregister = false;
+
+        @Override
+        public CsparqlQueryResultProxy registerQuery(final String command, final boolean activateInference)
+                throws ParseException {
+            if (!command.endsWith("}")) {
+                throw new ParseException(command, command.length());
+            }
+            this.calls.add("register " + command);
+            final CsparqlQueryResultProxy proxy = new CsparqlQueryResultProxy(command);
+            this.registered.put(command, proxy);
+            return proxy;
+        }
+
+        @Override
+        public void unregisterQuery(final String id) {
+            if (this.failUnregister) {
+                throw new IllegalStateException("Cannot unregister " + id);
+            }
+            this.calls.add("unregister " + id);
+        }
+    }
+}
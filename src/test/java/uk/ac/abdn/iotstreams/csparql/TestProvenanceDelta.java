@@ -0,0 +1,107 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.compose.Union;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.update.UpdateAction;
+import com.hp.hpl.jena.update.UpdateFactory;
+import com.hp.hpl.jena.update.UpdateRequest;
+
+public class TestProvenanceDelta {
+
+    private static final String PREFIX = "PREFIX ex: <http://example.org/> ";
+
+    /** The window of a warm run */
+    private static final String WINDOW =
+            "@prefix ex: <http://example.org/> . "
+            + "ex:reading1 ex:value 20 . "
+            + "ex:reading2 ex:value 25 . "
+            + "ex:reading2 ex:stale true . ";
+
+    /** The provenance inferred by the previous window */
+    private static final String OLD_PROV =
+            "@prefix ex: <http://example.org/> . "
+            + "ex:activity1 ex:used ex:reading1 . "
+            + "ex:activity1 ex:open true . ";
+
+    /**
+     * Warm updates which re-add and delete base triples from both the window and the
+     * previous provenance, and see each other's changes.
+     */
+    private static final List<String> UPDATES = Arrays.asList(
+            //Re-adds the readings of the window, and infers a new triple for each
+            PREFIX + "DELETE { ?r ex:value ?v } INSERT { ?r ex:value ?v . ?r ex:checked true } "
+                    + "WHERE { ?r ex:value ?v }",
+            //Deletes a triple of the window and one of the previous provenance
+            PREFIX + "DELETE { ex:reading2 ex:stale true . ?a ex:open true } INSERT { ?a ex:closed true } "
+                    + "WHERE { ex:reading2 ex:stale true . ?a ex:open true }",
+            //Only infers if the earlier deletion is seen
+            PREFIX + "INSERT { ex:activity1 ex:used ex:reading2 } "
+                    + "WHERE { ex:reading2 ex:checked true FILTER NOT EXISTS { ex:reading2 ex:stale true } }",
+            //Re-adds a triple of the previous provenance, and adds and deletes one again
+            PREFIX + "INSERT DATA { ex:activity1 ex:used ex:reading1 . ex:activity1 ex:temp true } ; "
+                    + "DELETE DATA { ex:activity1 ex:temp true }");
+
+    @Test
+    public void testAdditionsMatchCopyThenSubtract() {
+        final Model window = parse(WINDOW);
+        final Model oldProv = parse(OLD_PROV);
+
+        //What infer() used to do: update a copy, then subtract the window and the old provenance
+        final Model provmod = ModelFactory.createDefaultModel();
+        provmod.add(window);
+        provmod.add(oldProv);
+        update(provmod);
+        provmod.remove(window).remove(oldProv);
+
+        final ProvenanceDelta delta = new ProvenanceDelta(new Union(window.getGraph(), oldProv.getGraph()));
+        update(ModelFactory.createModelForGraph(delta));
+        final Graph additions = delta.getAdditions();
+
+        assertEquals(4, provmod.size());
+        assertTrue(provmod.getGraph().isIsomorphicWith(additions));
+        assertTrue(parse(WINDOW).isIsomorphicWith(window));
+        assertTrue(parse(OLD_PROV).isIsomorphicWith(oldProv));
+    }
+
+    @Test
+    public void testHidesDeletedBaseTriples() {
+        final Model window = parse(WINDOW);
+        final Model view = ModelFactory.createModelForGraph(new ProvenanceDelta(window.getGraph()));
+        UpdateAction.parseExecute(PREFIX + "DELETE DATA { ex:reading2 ex:stale true }", view);
+        assertEquals(2, view.size());
+        assertEquals(3, window.size());
+        UpdateAction.parseExecute(PREFIX + "INSERT DATA { ex:reading2 ex:stale true }", view);
+        assertEquals(3, view.size());
+    }
+
+    /**
+     * Runs the UPDATES in order, as infer() does.
+     * @param model The model to update
+     */
+    private static void update(final Model model) {
+        for (final String update : UPDATES) {
+            final UpdateRequest request = UpdateFactory.create(update);
+            UpdateAction.execute(request, model);
+        }
+    }
+
+    /**
+     * @param ttl Triples in Turtle
+     * @return A new model holding them
+     */
+    private static Model parse(final String ttl) {
+        final Model model = ModelFactory.createDefaultModel();
+        model.read(new StringReader(ttl), null, "TTL");
+        return model;
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+public class TestProvenanceFiles {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStartsNewFileOnceFull() throws IOException {
+        final Path directory = this.folder.getRoot().toPath().resolve("provenance");
+        try (final ProvenanceFiles files = new ProvenanceFiles(directory, ProvenanceFiles.Format.N_TRIPLES, false, 2)) {
+            files.accept(batch(0, 1));
+            files.accept(ModelFactory.createDefaultModel());
+            files.accept(batch(1, 2));
+            //The first file holds 3 triples: batches are not split
+            files.accept(batch(3, 1));
+        }
+        final List<Path> written = list(directory);
+        assertEquals(2, written.size());
+        assertTrue(written.get(0).getFileName().toString().endsWith("-0001.nt"));
+        assertEquals(3, Files.readAllLines(written.get(0)).size());
+        assertEquals(1, Files.readAllLines(written.get(1)).size());
+    }
+
+    @Test
+    public void testWritesEachBatchInItsOwnGraph() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+        try (final ProvenanceFiles files = new ProvenanceFiles(directory, ProvenanceFiles.Format.N_QUADS, true, 100)) {
+            files.accept(batch(0, 2));
+            files.accept(batch(2, 3));
+        }
+        final List<Path> written = list(directory);
+        assertEquals(1, written.size());
+        assertTrue(written.get(0).getFileName().toString().endsWith("-0001.nq.gz"));
+        final Dataset dataset = DatasetFactory.createMem();
+        try (final InputStream in = new GZIPInputStream(Files.newInputStream(written.get(0)))) {
+            RDFDataMgr.read(dataset, in, Lang.NQUADS);
+        }
+        final List<String> graphs = new ArrayList<>();
+        dataset.listNames().forEachRemaining(graphs::add);
+        Collections.sort(graphs);
+        assertEquals(2, graphs.size());
+        assertTrue(graphs.get(0).endsWith("/0"));
+        assertEquals(2, dataset.getNamedModel(graphs.get(0)).size());
+        assertEquals(3, dataset.getNamedModel(graphs.get(1)).size());
+    }
+
+    @Test
+    public void testTimesBinaryBatchesByBatchTime() throws IOException {
+        final Path directory = this.folder.getRoot().toPath();
+        final long[] streamTime = {1455114480000L};
+        try (final ProvenanceFiles files = new ProvenanceFiles(directory, ProvenanceFiles.Format.BINARY, false, 100)) {
+            files.setBatchTime(() -> streamTime[0]);
+            files.accept(batch(0, 1));
+            streamTime[0] += 60000;
+            files.accept(batch(1, 1));
+        }
+        final List<Path> written = list(directory);
+        assertEquals(1, written.size());
+        try (final BinaryRdfReader reader = new BinaryRdfReader(BinaryRdfReader.open(written.get(0)))) {
+            assertEquals(1, reader.next().size());
+            assertEquals(1455114480000L, reader.getTime());
+            assertEquals(1, reader.next().size());
+            assertEquals(1455114540000L, reader.getTime());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testFailsInsteadOfBlockingWhenWritingThrows() throws IOException {
+        final ProvenanceFiles files = new ProvenanceFiles(
+                this.folder.getRoot().toPath(), ProvenanceFiles.Format.N_TRIPLES, false, 100);
+        final Model broken = ModelFactory.createModelForGraph(new GraphBase() {
+            @Override
+            protected ExtendedIterator<Triple> graphBaseFind(final TripleMatch m) {
+                throw new IllegalStateException("Broken graph");
+            }
+
+            @Override
+            protected int graphBaseSize() {
+                return 1;
+            }
+        });
+        files.accept(broken);
+        try {
+            for (int i = 0; i < 3; i++) {
+                files.accept(batch(i, 1));
+            }
+        } catch (final IllegalStateException e) {
+            //The failure may already be rethrown here
+            assertEquals("Broken graph", e.getMessage());
+        }
+        try {
+            files.close();
+            fail("close() should rethrow the failure");
+        } catch (final IllegalStateException e) {
+            assertEquals("Broken graph", e.getMessage());
+        }
+    }
+
+    /**
+     * @param first Number of the first triple
+     * @param size Number of triples
+     * @return A batch of distinct triples
+     */
+    private static Model batch(final int first, final int size) {
+        final Model batch = ModelFactory.createDefaultModel();
+        for (int i = first; i < first + size; i++) {
+            batch.add(
+                    batch.createResource("http://example.org/activity/" + i),
+                    batch.createProperty("http://www.w3.org/ns/prov#used"),
+                    batch.createResource("http://example.org/entity/" + i));
+        }
+        return batch;
+    }
+
+    /**
+     * @param directory A directory
+     * @return The files in the directory, by name
+     * @throws IOException if the directory could not be listed
+     */
+    private static List<Path> list(final Path directory) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            entries.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+public class TestProvenanceStore {
+
+    private static final Node USED = NodeFactory.createURI("http://www.w3.org/ns/prov#used");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMergesSmallSegments() throws IOException, InterruptedException {
+        final Path directory = this.folder.getRoot().toPath();
+        try (final ProvenanceStore store = new ProvenanceStore(directory, 1, 60000)) {
+            for (int i = 0; i < 20; i++) {
+                store.accept(batch(i));
+                //Found whether merged yet or not
+                assertEquals(i + 1, store.find(Node.ANY, USED, Node.ANY).size());
+            }
+            //close() starts no merge, so wait for those due
+            store.awaitMerges();
+        }
+        //Every segment is in tier 0, merged once there are 4
+        final List<String> segments = Files.readAllLines(directory.resolve("segments"));
+        assertTrue(segments.size() < 4);
+        int numFiles = 0;
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (final Path file : files) {
+                numFiles++;
+            }
+        }
+        //The merged segments were deleted
+        assertEquals(1 + 3 * segments.size(), numFiles);
+        try (final ProvenanceStore store = new ProvenanceStore(directory, 1, 60000)) {
+            assertEquals(20, store.find(Node.ANY, USED, Node.ANY).size());
+            assertEquals(1, store.find(NodeFactory.createURI("http://example.org/activity/7"), Node.ANY, Node.ANY).size());
+        }
+    }
+
+    @Test
+    public void testTier() {
+        assertEquals(0, ProvenanceStore.tier(0));
+        assertEquals(0, ProvenanceStore.tier((1 << 16) - 1));
+        assertEquals(1, ProvenanceStore.tier(1 << 16));
+        assertEquals(1, ProvenanceStore.tier((1 << 18) - 1));
+        assertEquals(2, ProvenanceStore.tier(1 << 18));
+        assertEquals(24, ProvenanceStore.tier(Long.MAX_VALUE));
+    }
+
+    /**
+     * @param i Number of the batch
+     * @return A batch of one triple
+     */
+    private static Model batch(final int i) {
+        final Model batch = ModelFactory.createDefaultModel();
+        batch.add(
+                batch.createResource("http://example.org/activity/" + i),
+                batch.createProperty(USED.getURI()),
+                batch.createResource("http://example.org/entity/" + i));
+        return batch;
+    }
+}
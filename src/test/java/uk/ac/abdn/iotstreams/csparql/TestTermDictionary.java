@@ -0,0 +1,83 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+public class TestTermDictionary {
+
+    private static final String XSD_DOUBLE = "http://www.w3.org/2001/XMLSchema#double";
+
+    @Test
+    public void testLiteralRoundTrip() {
+        final String encoded = TermDictionary.literal("19.946533012390137", XSD_DOUBLE);
+        assertEquals("\"19.946533012390137\"^^" + XSD_DOUBLE, encoded);
+        final Node decoded = TermDictionary.node(encoded);
+        assertTrue(decoded.isLiteral());
+        assertEquals("19.946533012390137", decoded.getLiteralLexicalForm());
+        assertEquals(XSD_DOUBLE, decoded.getLiteralDatatypeURI());
+    }
+
+    @Test
+    public void testPlainLiteralRoundTrip() {
+        final Node plain = NodeFactory.createLiteral("kitchen");
+        assertNull(plain.getLiteralDatatypeURI());
+        final String encoded = TermDictionary.term(plain);
+        assertEquals("\"kitchen\"", encoded);
+        assertEquals(encoded, TermDictionary.literal("kitchen", null, ""));
+        assertEquals(plain, TermDictionary.node(encoded));
+    }
+
+    @Test
+    public void testLanguageTaggedLiteralRoundTrip() {
+        final Literal tagged = ModelFactory.createDefaultModel().createLiteral("x", "en");
+        assertNull(tagged.getDatatypeURI());
+        final String encoded = TermDictionary.literal(tagged.getLexicalForm(), tagged.getDatatypeURI(), tagged.getLanguage());
+        assertEquals("\"x\"@en", encoded);
+        assertEquals(encoded, TermDictionary.term(tagged.asNode()));
+        final Node decoded = TermDictionary.node(encoded);
+        assertEquals("x", decoded.getLiteralLexicalForm());
+        assertEquals("en", decoded.getLiteralLanguage());
+    }
+
+    @Test
+    public void testVocabularyIsShared() {
+        final String type = TermDictionary.uri(new String("http://purl.oclc.org/NET/ssnx/ssn#System"));
+        assertSame(type, TermDictionary.uri(new String("http://purl.oclc.org/NET/ssnx/ssn#System")));
+        assertSame(
+                TermDictionary.vocabularyNode(type),
+                TermDictionary.node(new String("http://purl.oclc.org/NET/ssnx/ssn#System")));
+    }
+
+    @Test
+    public void testMintedUri() {
+        final Node decoded = TermDictionary.node("http://FoodSafety/observation/temperature/1");
+        assertTrue(decoded.isURI());
+        assertEquals("http://FoodSafety/observation/temperature/1", decoded.getURI());
+    }
+
+    @Test
+    public void testMintedUriFromManyThreads() throws InterruptedException {
+        final Node[] decoded = new Node[8];
+        final Thread[] threads = new Thread[decoded.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int thread = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 20000; j++) {
+                    TermDictionary.node("http://FoodSafety/observation/temperature/" + j);
+                }
+                decoded[thread] = TermDictionary.node("http://FoodSafety/observation/temperature/7");
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertEquals("http://FoodSafety/observation/temperature/7", decoded[i].getURI());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package uk.ac.abdn.iotstreams.csparql;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+public class TestWarmStateBound {
+
+    private static final String EX = "http://example.org/";
+
+    private static final String PREFIXES =
+            "@prefix ex: <" + EX + "> . "
+            + "@prefix ssn: <http://purl.oclc.org/NET/ssnx/ssn#> . "
+            + "@prefix xsd: <http://www.w3.org/2001/XMLSchema#> . ";
+
+    /**
+     * Observations of two features of interest: obs1 and obs3 of the meat,
+     * obs2 and obs4 of the fish, sampled 0, 5, 20 and 30 minutes past noon.
+     */
+    private static final String WINDOW = PREFIXES
+            + "ex:obs1 ssn:observationSamplingTime \"2016-01-31T12:00:00Z\"^^xsd:dateTime ; ssn:featureOfInterest ex:meat . "
+            + "ex:obs2 ssn:observationSamplingTime \"2016-01-31T12:05:00Z\"^^xsd:dateTime ; ssn:featureOfInterest ex:fish . "
+            + "ex:obs3 ssn:observationSamplingTime \"2016-01-31T12:20:00Z\"^^xsd:dateTime ; ssn:featureOfInterest ex:meat . "
+            + "ex:obs4 ssn:observationSamplingTime \"2016-01-31T12:30:00Z\"^^xsd:dateTime ; ssn:featureOfInterest ex:fish . ";
+
+    /** Two triples about each observation, and two about none */
+    private static final String PROV = PREFIXES
+            + "ex:activity ex:used ex:obs1 , ex:obs2 , ex:obs3 , ex:obs4 . "
+            + "ex:obs1 ex:checked true . "
+            + "ex:obs2 ex:checked true . "
+            + "ex:obs3 ex:checked true . "
+            + "ex:obs4 ex:checked true . "
+            + "ex:plan ex:version 1 ; ex:label \"plan\" . ";
+
+    @Test
+    public void testKeepsEverythingWithoutSettings() {
+        final Model prov = parse(PROV);
+        assertSame(prov, WarmStateBound.UNBOUNDED.compact(prov, parse(WINDOW)));
+        assertSame(prov, WarmStateBound.parse("# Nothing set\n").compact(prov, parse(WINDOW)));
+    }
+
+    @Test
+    public void testHorizon() {
+        //12:20 is exactly 10 minutes before the latest observation, and is kept
+        final Model compacted = WarmStateBound.parse("horizon=PT10M").compact(parse(PROV), parse(WINDOW));
+        assertEquals(set("obs3", "obs4"), observations(compacted));
+        assertEquals(6, compacted.size());
+    }
+
+    @Test
+    public void testMaxTriplesDropsOldestObservationsFirst() {
+        final WarmStateBound bound = WarmStateBound.parse("maxTriples=5");
+        final Model prov = parse(PROV);
+        final Model compacted = bound.compact(prov, parse(WINDOW));
+        //Dropping obs1 and obs2 leaves 6 triples, so obs3 goes too
+        assertEquals(set("obs4"), observations(compacted));
+        assertEquals(4, compacted.size());
+        assertTrue(compacted.contains(resource("plan"), null, (RDFNode) null));
+        assertEquals(10, prov.size());
+    }
+
+    @Test
+    public void testMaxTriplesCutsUntimedTriplesLast() {
+        final Model compacted = WarmStateBound.parse("maxTriples=1").compact(parse(PROV), parse(WINDOW));
+        assertEquals(set(), observations(compacted));
+        assertEquals(1, compacted.size());
+        assertTrue(compacted.contains(resource("plan"), null, (RDFNode) null));
+    }
+
+    @Test
+    public void testMaxTriplesKeepsStateThatFits() {
+        final Model prov = parse(PROV);
+        assertSame(prov, WarmStateBound.parse("maxTriples=10").compact(prov, parse(WINDOW)));
+    }
+
+    @Test
+    public void testLatestPerFeatureOfInterest() {
+        final Model compacted = WarmStateBound.parse("latestPerFeatureOfInterest=true")
+                .compact(parse(PROV), parse(WINDOW));
+        assertEquals(set("obs3", "obs4"), observations(compacted));
+    }
+
+    @Test
+    public void testCombinesBounds() {
+        final Model compacted = WarmStateBound.parse(
+                "# Every bound at once\nhorizon=PT1H\nmaxTriples=5\nlatestPerFeatureOfInterest=true\n")
+                .compact(parse(PROV), parse(WINDOW));
+        assertEquals(set("obs4"), observations(compacted));
+        assertEquals(4, compacted.size());
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsInvalidHorizon() {
+        WarmStateBound.parse("horizon=6 hours");
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsInvalidMaxTriples() {
+        WarmStateBound.parse("maxTriples=many");
+    }
+
+    /**
+     * @param compacted Compacted provenance
+     * @return Local names of the observations ex:activity still used in it
+     */
+    private static Set<String> observations(final Model compacted) {
+        final Set<String> used = new HashSet<>();
+        compacted.listObjectsOfProperty(resource("activity"), compacted.createProperty(EX + "used"))
+            .forEachRemaining(node -> used.add(node.asResource().getLocalName()));
+        return used;
+    }
+
+    /**
+     * @param names Local names
+     * @return The set of them
+     */
+    private static Set<String> set(final String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * @param name Local name
+     * @return The resource of that name in the example namespace
+     */
+    private static Resource resource(final String name) {
+        return ModelFactory.createDefaultModel().createResource(EX + name);
+    }
+
+    /**
+     * @param ttl Triples in Turtle
+     * @return A new model holding them
+     */
+    private static Model parse(final String ttl) {
+        final Model model = ModelFactory.createDefaultModel();
+        model.read(new StringReader(ttl), null, "TTL");
+        return model;
+    }
+}
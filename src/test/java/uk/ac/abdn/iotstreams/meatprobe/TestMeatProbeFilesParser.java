@@ -37,19 +37,19 @@ public class TestMeatProbeFilesParser {
         final LocalDate dec15 = LocalDate.of(2015, 12, 15);
         assertEquals(
                 dec14.atTime(12, 34, 01).atZone(Constants.UK), 
-                parsed.get(1).time);
+                parsed.get(1).time());
         assertEquals(
                 dec14.atTime(12, 34, 11).atZone(Constants.UK), 
-                parsed.get(2).time);
+                parsed.get(2).time());
         assertEquals(
                 dec14.atTime(12, 34, 21).atZone(Constants.UK), 
-                parsed.get(3).time);
+                parsed.get(3).time());
         assertEquals(
                 dec15.atTime(2, 16, 14).atZone(Constants.UK), 
-                parsed.get(30855).time);
+                parsed.get(30855).time());
         assertEquals(
                 dec15.atTime(2, 16, 34).atZone(Constants.UK), 
-                parsed.get(30857).time);
+                parsed.get(30857).time());
     }
     
     /**
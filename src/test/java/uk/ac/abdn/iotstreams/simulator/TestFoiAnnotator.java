@@ -0,0 +1,144 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+
+public class TestFoiAnnotator {
+
+    private static final String EX = "http://example.org/";
+
+    /** A time stamp and two adjacent intervals, not in order of time */
+    private static final String ANNOTATIONS = "{"
+            + "\"2016-12-24T15:00:00+00:00/2016-12-24T16:00:00+00:00\": \"" + EX + "meat3\", "
+            + "\"2016-12-24T12:00:00+00:00\": \"" + EX + "meat1\", "
+            + "\"2016-12-24T13:00:00+00:00/2016-12-24T15:00:00+00:00\": \"" + EX + "meat2\"}";
+
+    /** Readings in order of time, and the FOI each is annotated with */
+    private static final List<Row> ROWS = Arrays.asList(
+            new Row("2016-12-24T11:59:59.999Z", "default"),
+            new Row("2016-12-24T12:00:00Z", "meat1"),
+            new Row("2016-12-24T12:00:00.001Z", "default"),
+            new Row("2016-12-24T12:59:59.999Z", "default"),
+            new Row("2016-12-24T13:00:00Z", "meat2"),
+            new Row("2016-12-24T14:59:59.999Z", "meat2"),
+            new Row("2016-12-24T15:00:00Z", "meat3"),
+            new Row("2016-12-24T15:59:59.999Z", "meat3"),
+            new Row("2016-12-24T16:00:00Z", "default"));
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAnnotatesOrderedRows() throws IOException {
+        assertAnnotates(this.annotator(ANNOTATIONS), ROWS);
+    }
+
+    @Test
+    public void testAnnotatesUnorderedRows() throws IOException {
+        final FoiAnnotator annotator = this.annotator(ANNOTATIONS);
+        final List<Row> reversed = new ArrayList<>(ROWS);
+        Collections.reverse(reversed);
+        assertAnnotates(annotator, reversed);
+        //Steps back into, before and between intervals
+        assertAnnotates(annotator, Arrays.asList(
+                ROWS.get(7), ROWS.get(5), ROWS.get(8), ROWS.get(0), ROWS.get(6),
+                ROWS.get(2), ROWS.get(1), ROWS.get(1), ROWS.get(4), ROWS.get(3)));
+    }
+
+    @Test
+    public void testAnnotatesNothingWithoutAnnotations() throws IOException {
+        final List<Row> unchanged = new ArrayList<>();
+        for (final Row row : ROWS) {
+            unchanged.add(new Row(row.time, "default"));
+        }
+        assertAnnotates(this.annotator("{}"), unchanged);
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsOverlappingIntervals() throws IOException {
+        this.annotator("{"
+                + "\"2016-12-24T13:00:00+00:00/2016-12-24T15:00:00+00:00\": \"" + EX + "meat2\", "
+                + "\"2016-12-24T14:59:59+00:00/2016-12-24T16:00:00+00:00\": \"" + EX + "meat3\"}");
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsTimeStampInInterval() throws IOException {
+        this.annotator("{"
+                + "\"2016-12-24T13:00:00+00:00/2016-12-24T15:00:00+00:00\": \"" + EX + "meat2\", "
+                + "\"2016-12-24T13:00:00+00:00\": \"" + EX + "meat1\"}");
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsIntervalEndingAtItsStart() throws IOException {
+        this.annotator("{\"2016-12-24T13:00:00+00:00/2016-12-24T13:00:00+00:00\": \"" + EX + "meat2\"}");
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsUnparsableDateTime() throws IOException {
+        this.annotator("{\"2016-12-24T13:00:00+00:00/2016-12-24\": \"" + EX + "meat2\"}");
+    }
+
+    /**
+     * @param json Content of the input JSON file
+     * @return An annotator reading it
+     * @throws IOException if the file could not be written
+     */
+    private FoiAnnotator annotator(final String json) throws IOException {
+        final Path input = this.folder.newFile().toPath();
+        Files.write(input, json.getBytes(StandardCharsets.UTF_8));
+        return new FoiAnnotator(input);
+    }
+
+    /**
+     * Asserts that annotating a batch of the rows, in the given order, gives each its FOI.
+     * @param annotator The annotator to use
+     * @param rows Readings and their expected FOIs
+     */
+    private static void assertAnnotates(final FoiAnnotator annotator, final List<Row> rows) {
+        final ReadingBatch batch = new ReadingBatch(SensorType.MEAT_PROBE, rows.size());
+        for (final Row row : rows) {
+            batch.add(row.epochMillis(), 5, Double.NaN, 1, ReadingBatch.foiIndex(EX + "default"));
+        }
+        annotator.annotate(batch);
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(rows.get(i).time, EX + rows.get(i).foi, batch.foi(i));
+        }
+    }
+
+    /**
+     * A reading time and the local name of the FOI it is annotated with.
+     */
+    private static final class Row {
+        private final String time;
+        private final String foi;
+
+        Row(final String time, final String foi) {
+            this.time = time;
+            this.foi = foi;
+        }
+
+        /**
+         * @return The time in milliseconds since the epoch; in winter UK local time is UTC
+         */
+        long epochMillis() {
+            return ZonedDateTime.parse(this.time).toInstant().toEpochMilli();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+public class TestIngestQueue {
+
+    private static final String SSN = "http://purl.oclc.org/NET/ssnx/ssn#";
+
+    /** Readings of one sensor at these seconds since the epoch; the first and the one at 60 are describing */
+    private static final long[] SECONDS = {0, 10, 20, 30, 40, 60, 70};
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        //The engine holds the first reading, two fit in the buffer, so the fourth waits
+        final Ingested ingested = ingest(IngestQueue.Overflow.BLOCK, 3);
+        assertEquals(0, ingested.numDropped);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), ingested.readings);
+        ingested.assertConsistent();
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        //The fourth and fifth are dropped, the describing sixth waits
+        final Ingested ingested = ingest(IngestQueue.Overflow.DROP_NEWEST, 5);
+        assertTrue(ingested.numDropped >= 2);
+        assertEquals(Arrays.asList(0, 1, 2, 5), ingested.readings.subList(0, 4));
+        ingested.assertConsistent();
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        //Each reading from the fourth on drops the oldest one that is not describing
+        final Ingested ingested = ingest(IngestQueue.Overflow.DROP_OLDEST, SECONDS.length);
+        assertEquals(4, ingested.numDropped);
+        assertEquals(Arrays.asList(0, 5, 6), ingested.readings);
+        ingested.assertConsistent();
+    }
+
+    @Test
+    public void testDropNewestWhenEveryReadingDescribes() throws InterruptedException {
+        //The fourth and fifth are dropped although they carry descriptions, so the sixth does not wait
+        final Ingested ingested = ingest(IngestQueue.Overflow.DROP_NEWEST, 5, Duration.ZERO, false);
+        assertTrue(ingested.numDropped >= 2);
+        assertEquals(Arrays.asList(0, 1, 2), ingested.readings.subList(0, 3));
+        assertFalse(ingested.readings.contains(3));
+        assertFalse(ingested.readings.contains(4));
+        assertEquals(SECONDS.length, ingested.readings.size() + ingested.numDropped);
+    }
+
+    /**
+     * Queues the readings at SECONDS, described every minute, in a queue of capacity 2 which
+     * never drops describing readings; see ingest(Overflow, int, Duration, boolean).
+     * @param overflow Policy of the queue
+     * @param release Index of the reading to release the engine at
+     * @return What the engine received
+     * @throws InterruptedException if interrupted
+     */
+    private static Ingested ingest(
+            final IngestQueue.Overflow overflow,
+            final int release) throws InterruptedException {
+        return ingest(overflow, release, Duration.ofMinutes(1), true);
+    }
+
+    /**
+     * Queues the readings at SECONDS in a queue of capacity 2, while the engine holds the first
+     * reading until shortly after the reading at index release has started to be queued.
+     * @param overflow Policy of the queue
+     * @param release Index of the reading to release the engine at
+     * @param describeEvery Period to describe the sensor and feature of interest in
+     * @param keepDescribing Whether the queue never drops describing readings
+     * @return What the engine received
+     * @throws InterruptedException if interrupted
+     */
+    private static Ingested ingest(
+            final IngestQueue.Overflow overflow,
+            final int release,
+            final Duration describeEvery,
+            final boolean keepDescribing) throws InterruptedException {
+        final List<List<RdfQuadruple>> readings = model(describeEvery);
+        final List<RdfQuadruple> quads = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final Consumer<RdfQuadruple> engine = quad -> {
+            started.countDown();
+            try {
+                released.await();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            quads.add(quad);
+        };
+        final IngestQueue queue = new IngestQueue(engine, 2, overflow, keepDescribing);
+        queue.accept(readings.get(0));
+        started.await();
+        for (int i = 1; i < readings.size(); i++) {
+            if (i == release) {
+                releaseSoon(released);
+            }
+            queue.accept(readings.get(i));
+        }
+        released.countDown();
+        queue.close();
+        return new Ingested(readings, quads, queue.getNumDropped());
+    }
+
+    /**
+     * @param released Latch to count down after a moment, on another thread
+     */
+    private static void releaseSoon(final CountDownLatch released) {
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            released.countDown();
+        }).start();
+    }
+
+    /**
+     * @param describeEvery Period to describe the sensor and feature of interest in
+     * @return The quadruples of a reading at each of SECONDS
+     */
+    private static List<List<RdfQuadruple>> model(final Duration describeEvery) {
+        final SSNModeller modeller = new SSNModeller(
+                quad -> { },
+                IriMinter.SEQUENTIAL,
+                Optional.of(describeEvery));
+        final ReadingBatch batch = new ReadingBatch(SensorType.WIRELESS_TAG, SECONDS.length);
+        for (final long second : SECONDS) {
+            batch.add(second * 1000, 20, Double.NaN, 3, ReadingBatch.foiIndex("http://example.org/meat"));
+        }
+        final List<List<RdfQuadruple>> readings = new ArrayList<>();
+        for (int row = 0; row < SECONDS.length; row++) {
+            final List<RdfQuadruple> reading = new ArrayList<>();
+            modeller.model(batch, row, reading::add);
+            readings.add(reading);
+        }
+        return readings;
+    }
+
+    /**
+     * What the engine received.
+     */
+    private static final class Ingested {
+        /** The queued readings */
+        private final List<List<RdfQuadruple>> queued;
+
+        /** Quadruples received by the engine */
+        private final List<RdfQuadruple> quads;
+
+        /** Index of each reading whose observation the engine received, in order */
+        private final List<Integer> readings;
+
+        private final long numDropped;
+
+        Ingested(final List<List<RdfQuadruple>> queued, final List<RdfQuadruple> quads, final long numDropped) {
+            this.queued = queued;
+            this.quads = quads;
+            this.numDropped = numDropped;
+            final List<String> observations = queued.stream()
+                    .map(SSNModeller::observation)
+                    .collect(Collectors.toList());
+            this.readings = quads.stream()
+                    .filter(quad -> quad.getPredicate().equals(SSN + "observationSamplingTime"))
+                    .map(quad -> observations.indexOf(quad.getSubject()))
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * Asserts that every reading was either received or dropped, that every description
+         * was received, and that each received observation follows the one received before it.
+         */
+        void assertConsistent() {
+            assertEquals(this.queued.size(), this.readings.size() + this.numDropped);
+            assertEquals(2, this.quads.stream().filter(quad -> quad.getPredicate().equals(SSN + "hasSubsystem")).count());
+            assertEquals(2, this.quads.stream().filter(quad -> quad.getPredicate().equals(SSN + "hasProperty")).count());
+            final List<RdfQuadruple> follows = this.quads.stream()
+                    .filter(quad -> quad.getPredicate().equals(SSNModeller.FOLLOWS))
+                    .collect(Collectors.toList());
+            assertEquals(this.readings.size() - 1, follows.size());
+            for (int i = 1; i < this.readings.size(); i++) {
+                assertEquals(SSNModeller.observation(this.queued.get(this.readings.get(i))), follows.get(i - 1).getSubject());
+                assertEquals(SSNModeller.observation(this.queued.get(this.readings.get(i - 1))), follows.get(i - 1).getObject());
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+public class TestIriMinter {
+
+    /** Readings at these seconds since the epoch, two of them at the same time */
+    private static final long[] SECONDS = {0, 30, 30, 90};
+
+    @Test
+    public void testSequentialIrisAreReproducible() {
+        final List<String> first = model(IriMinter.SEQUENTIAL);
+        assertEquals(first, model(IriMinter.SEQUENTIAL));
+        assertTrue(first.stream().anyMatch(quad -> quad.contains("/wirelesstag-3/30000-2 ")));
+    }
+
+    @Test
+    public void testRandomIrisDiffer() {
+        assertNotEquals(model(IriMinter.RANDOM), model(IriMinter.RANDOM));
+    }
+
+    /**
+     * Models a batch of a reading at each of SECONDS with a new SSNModeller.
+     * @param iris Mints the IRIs of the modelled individuals
+     * @return Each quadruple modelled, as its subject, predicate, object and timestamp
+     */
+    private static List<String> model(final IriMinter iris) {
+        final List<String> quads = new ArrayList<>();
+        final SSNModeller modeller = new SSNModeller(
+                (final RdfQuadruple quad) -> quads.add(String.join(" ",
+                        quad.getSubject(),
+                        quad.getPredicate(),
+                        quad.getObject(),
+                        Long.toString(quad.getTimestamp()))),
+                iris,
+                Optional.empty());
+        final ReadingBatch batch = new ReadingBatch(SensorType.WIRELESS_TAG, SECONDS.length);
+        for (final long second : SECONDS) {
+            batch.add(second * 1000, 20, Double.NaN, 3, ReadingBatch.foiIndex("http://example.org/meat"));
+        }
+        modeller.accept(batch);
+        return quads;
+    }
+}
@@ -0,0 +1,140 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.wirelesstag.WirelessTagClient;
+import uk.ac.abdn.iotstreams.util.Constants;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+public class TestLiveFeed {
+
+    private static final String FEATURE_OF_INTEREST = "http://purl.oclc.org/NET/ssnx/ssn#featureOfInterest";
+
+    private static final String HAS_QUANTITY_VALUE = "http://purl.oclc.org/NET/ssnx/product/smart-knife#hasQuantityValue";
+
+    private static final String MEAT = "http://example.org/meat";
+
+    private static final String FISH = "http://example.org/fish";
+
+    /** Stub of the wireless tag server, answering GetStatsRaw with two readings at the end of today */
+    private HttpServer server;
+
+    /** Counted down by each GetStatsRaw request */
+    private final CountDownLatch requested = new CountDownLatch(2);
+
+    private WirelessTagClient client;
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        this.client = new WirelessTagClient(
+                "http://127.0.0.1:" + this.server.getAddress().getPort(),
+                "me@example.org secret");
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testPollsTagForEachFoi() {
+        final List<RdfQuadruple> quads = new ArrayList<>();
+        final LiveFeed feed = new LiveFeed(quads::add, IriMinter.SEQUENTIAL, Optional.empty(), Duration.ofMinutes(1));
+        feed.add(this.client, 3, MEAT);
+        feed.add(this.client, 3, FISH);
+        assertEquals(4, feed.poll());
+        final List<String> fois = new ArrayList<>();
+        quads.stream()
+            .filter(quad -> quad.getPredicate().equals(FEATURE_OF_INTEREST))
+            .forEach(quad -> fois.add(quad.getObject()));
+        Collections.sort(fois);
+        assertEquals(Arrays.asList(FISH, FISH, MEAT, MEAT), fois);
+    }
+
+    @Test
+    public void testKeepsPollingAfterUnexpectedFailure() throws InterruptedException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        final CountDownLatch passedOn = new CountDownLatch(2);
+        final LiveFeed feed = new LiveFeed(
+                quad -> {
+                    if (failed.compareAndSet(false, true)) {
+                        throw new IllegalStateException("Engine bug");
+                    }
+                    if (quad.getPredicate().equals(HAS_QUANTITY_VALUE)) {
+                        passedOn.countDown();
+                    }
+                },
+                IriMinter.SEQUENTIAL,
+                Optional.empty(),
+                Duration.ofMillis(10));
+        feed.add(this.client, 3, MEAT);
+        final Thread polling = new Thread(feed::run);
+        polling.start();
+        try {
+            assertTrue(this.requested.await(5, TimeUnit.SECONDS));
+            assertTrue(failed.get());
+            //The readings of the failed poll are fetched again
+            assertTrue(passedOn.await(5, TimeUnit.SECONDS));
+            assertTrue(polling.isAlive());
+        } finally {
+            polling.interrupt();
+            polling.join();
+        }
+    }
+
+    /**
+     * Answers GetStatsRaw with two readings in the last seconds of today,
+     * which are after the LiveFeed was created, and any other request with an empty response.
+     * @param exchange The request
+     * @throws IOException if the response could not be sent
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (final InputStream in = exchange.getRequestBody()) {
+            while (in.read() >= 0) {
+                //Ignore the request
+            }
+        }
+        String body = "{\"d\":[]}";
+        if (exchange.getRequestURI().getPath().endsWith("/GetStatsRaw")) {
+            final LocalDate today = LocalDate.now(Constants.UK);
+            body = String.format(
+                    "{\"d\":[{\"date\":\"%d/%d/%d\",\"tods\":[86398,86399],\"temps\":[3.5,3.5],\"caps\":[40,41]}]}",
+                    today.getMonthValue(),
+                    today.getDayOfMonth(),
+                    today.getYear());
+            this.requested.countDown();
+        }
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
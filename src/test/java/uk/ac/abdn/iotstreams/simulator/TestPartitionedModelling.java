@@ -0,0 +1,84 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+
+public class TestPartitionedModelling {
+
+    private static final String SAMPLING_TIME = "http://purl.oclc.org/NET/ssnx/ssn#observationSamplingTime";
+
+    @Test(timeout = 60000)
+    public void testMorePartitionsThanProcessors() {
+        final int numPartitions = 2 * Runtime.getRuntime().availableProcessors() + 3;
+        final int numReadings = 3000;
+        final int foi = ReadingBatch.foiIndex("http://example.org/foi");
+        final List<List<Iterator<ReadingBatch>>> partitions = new ArrayList<>();
+        for (int sensor = 0; sensor < numPartitions; sensor++) {
+            final ReadingBatch batch = new ReadingBatch(SensorType.WIRELESS_TAG, numReadings);
+            for (int i = 0; i < numReadings; i++) {
+                batch.add(1000L * (i * numPartitions + sensor), 20, Double.NaN, sensor, foi);
+            }
+            partitions.add(Collections.singletonList(Collections.singletonList(batch).iterator()));
+        }
+        final List<Long> times = new ArrayList<>();
+        final long numModelled = modelling(partitions).run(quads -> quads.stream()
+                .filter(quad -> quad.getPredicate().equals(SAMPLING_TIME))
+                .forEach(quad -> times.add(quad.getTimestamp())));
+        assertEquals(numPartitions * numReadings, numModelled);
+        assertEquals(numPartitions * numReadings, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertEquals(1000L * i, (long) times.get(i));
+        }
+    }
+
+    @Test(timeout = 60000, expected = IllegalStateException.class)
+    public void testRethrowsRuntimeException() {
+        modelling(Collections.singletonList(Collections.singletonList(failing(new IllegalStateException()))))
+            .run(quads -> { });
+    }
+
+    @Test(timeout = 60000, expected = AssertionError.class)
+    public void testRethrowsError() {
+        final List<List<Iterator<ReadingBatch>>> partitions = new ArrayList<>();
+        partitions.add(Collections.singletonList(failing(new AssertionError())));
+        partitions.add(Collections.emptyList());
+        modelling(partitions).run(quads -> { });
+    }
+
+    private static PartitionedModelling modelling(final List<List<Iterator<ReadingBatch>>> partitions) {
+        return new PartitionedModelling(
+                new SSNModeller(quad -> { }, IriMinter.SEQUENTIAL, Optional.empty()),
+                partitions);
+    }
+
+    /**
+     * @param failure Thrown when the first batch is taken
+     * @return A source of batches that fails
+     */
+    private static Iterator<ReadingBatch> failing(final Throwable failure) {
+        return new Iterator<ReadingBatch>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public ReadingBatch next() {
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+public class TestSSNModeller {
+
+    private static final String SSN = "http://purl.oclc.org/NET/ssnx/ssn#";
+
+    private static final String TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
+
+    private static final String MEAT = "http://example.org/meat";
+
+    private static final String FISH = "http://example.org/fish";
+
+    /** Readings at these seconds since the epoch, of MEAT but the last */
+    private static final long[] SECONDS = {0, 30, 59, 60, 61, 150, 151};
+
+    @Test
+    public void testDescribesOncePerPeriod() {
+        final List<RdfQuadruple> quads = model(Optional.of(Duration.ofMinutes(1)));
+        //Periods [0, 60), [60, 120) and [120, 180)
+        assertEquals(Arrays.asList(0L, 60000L, 150000L), times(quads, SSN + "hasSubsystem", null));
+        assertEquals(Arrays.asList(0L, 60000L, 150000L), times(quads, TYPE, MEAT));
+        assertEquals(Arrays.asList(151000L), times(quads, TYPE, FISH));
+    }
+
+    @Test
+    public void testDescribesOnce() {
+        final List<RdfQuadruple> quads = model(Optional.empty());
+        assertEquals(Arrays.asList(0L), times(quads, SSN + "hasSubsystem", null));
+        assertEquals(Arrays.asList(0L), times(quads, TYPE, MEAT));
+        assertEquals(Arrays.asList(151000L), times(quads, TYPE, FISH));
+    }
+
+    @Test
+    public void testObservationsAreChained() {
+        final List<RdfQuadruple> quads = model(Optional.of(Duration.ofMinutes(1)));
+        assertEquals(
+                Arrays.asList(30000L, 59000L, 60000L, 61000L, 150000L, 151000L),
+                times(quads, "https://raw.githubusercontent.com/m-markovic/FS-PROV-Ontology/master/fso#follows", null));
+    }
+
+    @Test
+    public void testDescribesEveryReadingWithZeroPeriod() {
+        final List<RdfQuadruple> quads = model(Optional.of(Duration.ZERO));
+        final List<Long> times = new ArrayList<>();
+        for (final long second : SECONDS) {
+            times.add(second * 1000);
+        }
+        assertEquals(times, times(quads, SSN + "hasSubsystem", null));
+        assertEquals(times.subList(0, SECONDS.length - 1), times(quads, TYPE, MEAT));
+        assertEquals(Arrays.asList(151000L), times(quads, TYPE, FISH));
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsNegativePeriod() {
+        new SSNModeller(quad -> { }, IriMinter.SEQUENTIAL, Optional.of(Duration.ofMinutes(-1)));
+    }
+
+    /**
+     * @param describeEvery Period of the descriptions
+     * @return The quadruples of a reading at each of SECONDS
+     */
+    private static List<RdfQuadruple> model(final Optional<Duration> describeEvery) {
+        final List<RdfQuadruple> quads = new ArrayList<>();
+        final SSNModeller modeller = new SSNModeller(quads::add, IriMinter.SEQUENTIAL, describeEvery);
+        final ReadingBatch batch = new ReadingBatch(SensorType.WIRELESS_TAG, SECONDS.length);
+        for (int i = 0; i < SECONDS.length; i++) {
+            batch.add(
+                    SECONDS[i] * 1000,
+                    20,
+                    Double.NaN,
+                    3,
+                    ReadingBatch.foiIndex(i < SECONDS.length - 1 ? MEAT : FISH));
+        }
+        modeller.accept(batch);
+        return quads;
+    }
+
+    /**
+     * @param quads Modelled quadruples
+     * @param predicate Predicate to look for
+     * @param subject Subject to look for, or null for any
+     * @return Timestamp of each quadruple with the predicate and subject
+     */
+    private static List<Long> times(final List<RdfQuadruple> quads, final String predicate, final String subject) {
+        return quads.stream()
+                .filter(quad -> quad.getPredicate().equals(predicate))
+                .filter(quad -> subject == null || quad.getSubject().equals(subject))
+                .map(RdfQuadruple::getTimestamp)
+                .collect(Collectors.toList());
+    }
+}
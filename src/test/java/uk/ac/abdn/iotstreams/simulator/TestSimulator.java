@@ -0,0 +1,215 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.abdn.iotstreams.simulator.meatprobe.MeatProbeFilesParser;
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.wirelesstag.WirelessTagClient;
+import uk.ac.abdn.iotstreams.util.Constants;
+import uk.ac.abdn.iotstreams.util.IotStreamsException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.larkc.csparql.cep.api.RdfQuadruple;
+
+public class TestSimulator {
+
+    private static final String HAS_QUANTITY_VALUE = "http://purl.oclc.org/NET/ssnx/product/smart-knife#hasQuantityValue";
+
+    /** Stub of the wireless tag server, answering GetStatsRaw for today */
+    private HttpServer server;
+
+    private ExecutorService serverThreads;
+
+    /** Number of GetStatsRaw requests being answered */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** Highest value of inFlight */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** Holds back each GetStatsRaw response until two requests are in flight, or a timeout */
+    private final CountDownLatch bothRequested = new CountDownLatch(2);
+
+    @Before
+    public void startServer() throws IOException {
+        this.serverThreads = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(this.serverThreads);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+        this.serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void testFetchesTagsInParallel() {
+        final WirelessTagClient client = new WirelessTagClient(
+                "http://127.0.0.1:" + this.server.getAddress().getPort(),
+                "me@example.org secret");
+        final String today = LocalDate.now(Constants.UK).toString();
+        final List<RdfQuadruple> quads = new ArrayList<>();
+        final Simulator simulator = new Simulator(today, today, quads::add, 2, IriMinter.SEQUENTIAL, Optional.empty());
+        simulator.add(client, 3, batch -> { });
+        simulator.add(client, 4, batch -> { });
+        simulator.done();
+        assertEquals(2, this.maxInFlight.get());
+        final List<String> values = new ArrayList<>();
+        quads.stream()
+            .filter(quad -> quad.getPredicate().equals(HAS_QUANTITY_VALUE))
+            .forEach(quad -> values.add(quad.getObject().substring(0, quad.getObject().indexOf("^^"))));
+        assertEquals(4, values.size());
+        assertTrue(values.contains("\"3.5\""));
+        assertTrue(values.contains("\"4.5\""));
+    }
+
+    @Test
+    public void testHoldsOnlyOpenMeatProbeFilesInMemory() throws IOException {
+        final Path directory = this.folder.newFolder("meatprobe").toPath();
+        //Six files following each other in time, of 3000 readings each
+        for (int file = 0; file < 6; file++) {
+            final List<String> lines = new ArrayList<>();
+            lines.add("MeatProbe1,Time,Temperature");
+            for (int second = 0; second < 3000; second++) {
+                lines.add(String.format(
+                        "%d,14/12/2015 %02d:%02d:%02d,%d.5",
+                        second,
+                        2 * file + 1,
+                        second / 60,
+                        second % 60,
+                        file));
+            }
+            Files.write(directory.resolve("meatprobe" + file + ".txt"), lines);
+        }
+        final AtomicInteger parsed = new AtomicInteger();
+        final MeatProbeFilesParser parser = new MeatProbeFilesParser() {
+            @Override
+            protected Path getPath() {
+                return directory;
+            }
+
+            @Override
+            public Iterator<ReadingBatch> parseFileInBatches(final Path file, final int maxRows) {
+                final Iterator<ReadingBatch> batches = super.parseFileInBatches(file, 100);
+                return new Iterator<ReadingBatch>() {
+                    @Override
+                    public boolean hasNext() {
+                        return batches.hasNext();
+                    }
+
+                    @Override
+                    public ReadingBatch next() {
+                        final ReadingBatch batch = batches.next();
+                        parsed.addAndGet(batch.size());
+                        return batch;
+                    }
+                };
+            }
+        };
+        final AtomicInteger numReadings = new AtomicInteger();
+        final AtomicInteger parsedAtFirstQuad = new AtomicInteger(-1);
+        final Simulator simulator = new Simulator(
+                "2015-12-14",
+                "2015-12-14",
+                quad -> {
+                    parsedAtFirstQuad.compareAndSet(-1, parsed.get());
+                    if (quad.getPredicate().equals(HAS_QUANTITY_VALUE)) {
+                        numReadings.incrementAndGet();
+                    }
+                },
+                2,
+                IriMinter.SEQUENTIAL,
+                Optional.empty());
+        simulator.add(parser, batch -> { });
+        simulator.done();
+        assertEquals(18000, numReadings.get());
+        //Modelling runs ahead of the engine by at most about a thousand readings, so
+        //the first quadruple goes out with less than one file parsed, and no later file opened
+        assertTrue(parsedAtFirstQuad.get() < 3000);
+    }
+
+    @Test(expected = IotStreamsException.class)
+    public void testRejectsNoParallelFetches() {
+        new Simulator("2016-02-10", "2016-02-10", quad -> { }, 0, IriMinter.SEQUENTIAL, Optional.empty());
+    }
+
+    /**
+     * Answers GetStatsRaw with two readings of today, whose temperature is
+     * the sensor ID + 0.5, and any other request with an empty response.
+     * @param exchange The request
+     * @throws IOException if the response could not be sent
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String request = readBody(exchange);
+        String body = "{\"d\":[]}";
+        if (exchange.getRequestURI().getPath().endsWith("/GetStatsRaw")) {
+            final int now = this.inFlight.incrementAndGet();
+            this.maxInFlight.accumulateAndGet(now, Math::max);
+            this.bothRequested.countDown();
+            try {
+                this.bothRequested.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final double temperature = request.contains("\"id\":3") ? 3.5 : 4.5;
+            final LocalDate today = LocalDate.now(Constants.UK);
+            body = String.format(
+                    "{\"d\":[{\"date\":\"%d/%d/%d\",\"tods\":[3600,7200],\"temps\":[%s,%s],\"caps\":[40,41]}]}",
+                    today.getMonthValue(),
+                    today.getDayOfMonth(),
+                    today.getYear(),
+                    temperature,
+                    temperature);
+            this.inFlight.decrementAndGet();
+        }
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @param exchange A request
+     * @return The body of the request
+     * @throws IOException if the body could not be read
+     */
+    private static String readBody(final HttpExchange exchange) throws IOException {
+        final StringBuilder body = new StringBuilder();
+        final byte[] buffer = new byte[1024];
+        for (int n = exchange.getRequestBody().read(buffer); n >= 0; n = exchange.getRequestBody().read(buffer)) {
+            body.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package uk.ac.abdn.iotstreams.simulator;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.sensordata.TimedTemperatureReading.SensorType;
+
+public class TestTimeOrderedMerge {
+
+    @Test
+    public void testMergesByTime() {
+        final TimeOrderedMerge merge = new TimeOrderedMerge(Arrays.asList(
+                source(1, new long[] {1, 4}, new long[] {7}),
+                source(2, new long[] {2, 3}, new long[] {}, new long[] {5, 8}),
+                source(3, new long[] {6})));
+        final List<Long> times = new ArrayList<>();
+        final List<Integer> sensors = new ArrayList<>();
+        merge.forEachRemaining((batch, row) -> {
+            times.add(batch.epochMillis(row));
+            sensors.add(batch.sensorId(row));
+        });
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L), times);
+        assertEquals(Arrays.asList(1, 2, 2, 1, 2, 3, 1, 2), sensors);
+        assertEquals(0, merge.getNumOutOfOrder());
+    }
+
+    @Test
+    public void testCountsLateReadings() {
+        //The second batch of sensor 1 starts before its first batch ends
+        final TimeOrderedMerge merge = new TimeOrderedMerge(Arrays.asList(
+                source(1, new long[] {1, 5}, new long[] {3}),
+                source(2, new long[] {2, 4})));
+        final List<Long> times = new ArrayList<>();
+        merge.forEachRemaining((batch, row) -> times.add(batch.epochMillis(row)));
+        assertEquals(Arrays.asList(1L, 2L, 4L, 5L, 3L), times);
+        assertEquals(1, merge.getNumOutOfOrder());
+    }
+
+    @Test
+    public void testOpensDeferredSourceAtItsStartTime() {
+        final List<Long> times = new ArrayList<>();
+        final List<Integer> passedWhenOpened = new ArrayList<>();
+        final Iterator<ReadingBatch> later = source(2, new long[] {3, 5});
+        final TimeOrderedMerge merge = new TimeOrderedMerge(Arrays.asList(
+                source(1, new long[] {1, 2}, new long[] {4, 6}),
+                TimeOrderedMerge.startingAt(3, new Iterator<ReadingBatch>() {
+                    @Override
+                    public boolean hasNext() {
+                        if (passedWhenOpened.isEmpty()) {
+                            passedWhenOpened.add(times.size());
+                        }
+                        return later.hasNext();
+                    }
+
+                    @Override
+                    public ReadingBatch next() {
+                        return later.next();
+                    }
+                }),
+                TimeOrderedMerge.startingAt(7, source(3, new long[] {})),
+                TimeOrderedMerge.startingAt(0, source(4, new long[] {0}))));
+        merge.forEachRemaining((batch, row) -> times.add(batch.epochMillis(row)));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L, 6L), times);
+        //Not read from until every reading before its start time was passed on
+        assertEquals(Arrays.asList(3), passedWhenOpened);
+        assertEquals(0, merge.getNumOutOfOrder());
+    }
+
+    @Test
+    public void testNoSources() {
+        final TimeOrderedMerge merge = new TimeOrderedMerge(Collections.emptyList());
+        merge.forEachRemaining((batch, row) -> fail());
+        assertEquals(0, merge.getNumOutOfOrder());
+    }
+
+    private static Iterator<ReadingBatch> source(final int sensorId, final long[]... batches) {
+        final List<ReadingBatch> source = new ArrayList<>();
+        for (final long[] times : batches) {
+            final ReadingBatch batch = new ReadingBatch(SensorType.WIRELESS_TAG, times.length);
+            for (final long time : times) {
+                batch.add(time, 20, Double.NaN, sensorId, ReadingBatch.foiIndex("http://example.org/foi"));
+            }
+            source.add(batch);
+        }
+        return source.iterator();
+    }
+}
@@ -0,0 +1,166 @@
+package uk.ac.abdn.iotstreams.simulator.meatprobe;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.util.Constants;
+
+public class TestMappedReadings {
+
+    /** Lines the parsers must agree on, 19 of which are readings */
+    private static final List<String> LINES = Arrays.asList(
+            "MeatProbe1,Time,Temperature (\u00b0C)",
+            "1,14/12/2015 12:34:01,11.1",
+            "+2,14/12/2015 12:34:11,22.2",
+            "-3,14/12/2015 12:34:21,-33",
+            "4,14/12/2015 12:34:31,44.4,",
+            "5,14/12/2015 12:34:41,55.5,,",
+            "6,14/12/2015 12:34:51,,66.6",
+            "7,14/12/2015 24:00:00,77.7",
+            "8,14/12/2015 24:00:01,88.8",
+            "9,31/02/2016 24:00:00,99.9",
+            "10,31/04/2015 12:00:00,10",
+            "11,32/01/2015 12:00:00,11",
+            "12,01/01/0000 12:00:00,12",
+            "13,14/12/2015 12:60:00,13",
+            "14,14/12/2015 12:00:60,14",
+            "15,14/12/2015 12:00:00,NaN",
+            "16,14/12/2015 12:00:00,-Infinity",
+            "17,14/12/2015 12:00:00, 17 ",
+            "18,14/12/2015 12:00:00,1e2",
+            "19,14/12/2015 12:00:00,.5",
+            "20,14/12/2015 12:00:00,5.",
+            "21,14/12/2015 12:00:00,warm",
+            "22,14/12/2015 12:00:00,",
+            "23,14/12/2015 12:00:00,23, ",
+            "+-24,14/12/2015 12:00:00,24",
+            " 25,14/12/2015 12:00:00,25",
+            "2147483648,14/12/2015 12:00:00,26",
+            "-2147483648,14/12/2015 12:00:00,27",
+            "007,14/12/2015 12:00:00,28",
+            "29,1/12/2015 12:00:00,29",
+            "30,14/12/2015 12:00:00 ,30",
+            "31,29/03/2015 01:30:00,31",
+            "32,25/10/2015 01:30:00,32",
+            "33,14/12/2015 12:00:00,0.1234567890123456789",
+            "",
+            ",,",
+            "34");
+
+    @Test
+    public void testParityWithNewlines() {
+        assertParity(String.join("\n", LINES), 19);
+    }
+
+    @Test
+    public void testParityWithCarriageReturnNewlines() {
+        assertParity(String.join("\r\n", LINES) + "\r\n", 19);
+    }
+
+    @Test
+    public void testParityWithCarriageReturns() {
+        assertParity(String.join("\r", LINES) + "\r", 19);
+    }
+
+    @Test
+    public void testParityWithMixedLineEnds() {
+        assertParity("1,14/12/2015 12:34:01,11.1\r\r\n2,14/12/2015 12:34:11,22.2\n\r3,14/12/2015 12:34:21,33", 3);
+    }
+
+    @Test
+    public void testBatchMatchesReadings() {
+        final String text = String.join("\r", LINES);
+        final ReadingBatch batch = new MappedReadings(bytes(text)).toBatch();
+        final List<String> parsed = parse(text);
+        assertEquals(parsed.size(), batch.size());
+        for (int row = 0; row < batch.size(); row++) {
+            assertTrue(parsed.get(row).endsWith(
+                    " " + batch.epochMillis(row) + " " + batch.temperature(row)));
+        }
+    }
+
+    @Test
+    public void testBatchesAreBoundedAndMatchReadings() {
+        final String text = String.join("\n", LINES);
+        final ReadingBatch whole = new MappedReadings(bytes(text)).toBatch();
+        final Iterator<ReadingBatch> batches = new MappedReadings(bytes(text)).batches(5);
+        final List<Integer> sizes = new ArrayList<>();
+        int row = 0;
+        while (batches.hasNext()) {
+            final ReadingBatch batch = batches.next();
+            sizes.add(batch.size());
+            for (int i = 0; i < batch.size(); i++, row++) {
+                assertEquals(whole.epochMillis(row), batch.epochMillis(i));
+                assertEquals(whole.temperature(row), batch.temperature(i), 0);
+            }
+        }
+        assertEquals(Arrays.asList(5, 5, 5, 4), sizes);
+    }
+
+    private static void assertParity(final String text, final int numReadings) {
+        final List<String> expected = previousParser(text);
+        assertEquals(numReadings, expected.size());
+        assertEquals(expected, parse(text));
+    }
+
+    /**
+     * @param text Contents of a meat probe file
+     * @return "id epochMillis temperature" of each reading parsed by MappedReadings
+     */
+    private static List<String> parse(final String text) {
+        return StreamSupport.stream(new MappedReadings(bytes(text)), false)
+                .map(reading -> reading.id + " " + reading.epochMillis + " " + reading.temperature)
+                .collect(Collectors.toList());
+    }
+
+    private static ByteBuffer bytes(final String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * The parser MappedReadings replaced, as it was.
+     * @param text Contents of a meat probe file
+     * @return "id epochMillis temperature" of each reading
+     */
+    private static List<String> previousParser(final String text) {
+        return new BufferedReader(new StringReader(text)).lines()
+                .filter(line -> !line.contains("Temperature"))
+                .map(line -> line.split(","))
+                .filter(parts -> parts.length == 3)
+                .map(triple -> {
+                    try {
+                        return Integer.parseInt(triple[0])
+                                + " "
+                                + LocalDateTime.parse(
+                                        triple[1],
+                                        DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss"))
+                                    .atZone(Constants.UK)
+                                    .toInstant()
+                                    .toEpochMilli()
+                                + " "
+                                + Double.parseDouble(triple[2]);
+                    } catch (final NumberFormatException | DateTimeParseException e) {
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+}
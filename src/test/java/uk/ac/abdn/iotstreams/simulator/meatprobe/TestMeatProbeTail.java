@@ -0,0 +1,143 @@
+package uk.ac.abdn.iotstreams.simulator.meatprobe;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+
+public class TestMeatProbeTail {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    private MeatProbeFilesParser parser;
+
+    @Before
+    public void createDirectory() throws IOException {
+        this.directory = this.folder.newFolder("meatprobe").toPath();
+        final Path checkpoint = this.folder.getRoot().toPath().resolve("offsets.properties");
+        this.parser = new MeatProbeFilesParser() {
+            @Override
+            protected Path getPath() {
+                return TestMeatProbeTail.this.directory;
+            }
+
+            @Override
+            protected Path getCheckpointPath() {
+                return checkpoint;
+            }
+        };
+    }
+
+    @Test
+    public void testReadsAgainUntilCheckpoint() throws IOException, InterruptedException {
+        final Path file = this.directory.resolve("meatprobe.txt");
+        try (final MeatProbeTail tail = this.parser.tail()) {
+            append(file, "1,14/12/2015 12:00:00,3.5\n2,14/12/2015 12:01:00,4.5\n");
+            //The readings were not passed on
+            assertEquals(Arrays.asList(3.5, 4.5), temperatures(tail.poll()));
+            assertEquals(Arrays.asList(3.5, 4.5), temperatures(tail.poll()));
+            tail.checkpoint();
+            assertEquals(Arrays.asList(), temperatures(tail.poll()));
+            tail.checkpoint();
+            append(file, "3,14/12/2015 12:02:00,5.5\n");
+            assertEquals(Arrays.asList(5.5), pollUntilRead(tail));
+        }
+        //A restart resumes from the last checkpoint
+        try (final MeatProbeTail tail = this.parser.tail()) {
+            assertEquals(Arrays.asList(5.5), temperatures(tail.poll()));
+            tail.checkpoint();
+        }
+        try (final MeatProbeTail tail = this.parser.tail()) {
+            assertEquals(Arrays.asList(), temperatures(tail.poll()));
+        }
+    }
+
+    @Test
+    public void testReadsUnterminatedLineOnQuietPoll() throws IOException {
+        final Path file = this.directory.resolve("meatprobe.txt");
+        try (final MeatProbeTail tail = this.parser.tail()) {
+            append(file, "1,14/12/2015 12:00:00,3.5\n2,14/12/2015 12:01:00,4.");
+            assertEquals(Arrays.asList(3.5), temperatures(tail.poll()));
+            tail.checkpoint();
+            //The line is ended before the next poll
+            append(file, "5\n3,14/12/2015 12:02:00,5.5");
+            assertEquals(Arrays.asList(4.5), temperatures(tail.poll()));
+            tail.checkpoint();
+            //The file has not grown since
+            assertEquals(Arrays.asList(5.5), temperatures(tail.poll()));
+            tail.checkpoint();
+            assertEquals(Arrays.asList(), temperatures(tail.poll()));
+        }
+    }
+
+    @Test
+    public void testReadsCarriageReturnLines() throws IOException, InterruptedException {
+        final Path file = this.directory.resolve("meatprobe.txt");
+        try (final MeatProbeTail tail = this.parser.tail()) {
+            append(file, "1,14/12/2015 12:00:00,3.5\r2,14/12/2015 12:01:00,4.5\r");
+            assertEquals(Arrays.asList(3.5, 4.5), temperatures(tail.poll()));
+            tail.checkpoint();
+            //The "\n" of a "\r\n" split between polls is an empty line
+            append(file, "\n3,14/12/2015 12:02:00,5.5\r\n");
+            assertEquals(Arrays.asList(5.5), pollUntilRead(tail));
+        }
+    }
+
+    /**
+     * @param file File to append to, created if need be
+     * @param text Text to append
+     * @throws IOException if the file could not be written
+     */
+    private static void append(final Path file, final String text) throws IOException {
+        Files.write(
+                file,
+                text.getBytes(StandardCharsets.ISO_8859_1),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Polls until the WatchService has reported an appended file, or a timeout.
+     * @param tail A MeatProbeTail
+     * @return The temperature of every reading of the last poll
+     * @throws InterruptedException if interrupted
+     */
+    private static List<Double> pollUntilRead(final MeatProbeTail tail) throws InterruptedException {
+        List<Double> temperatures = temperatures(tail.poll());
+        for (int i = 0; temperatures.isEmpty() && i < 200; i++) {
+            Thread.sleep(50);
+            temperatures = temperatures(tail.poll());
+        }
+        return temperatures;
+    }
+
+    /**
+     * @param batches Batches returned by poll()
+     * @return The temperature of every reading
+     */
+    private static List<Double> temperatures(final List<ReadingBatch> batches) {
+        final List<Double> temperatures = new ArrayList<>();
+        for (final ReadingBatch batch : batches) {
+            for (int row = 0; row < batch.size(); row++) {
+                temperatures.add(batch.temperature(row));
+            }
+        }
+        return temperatures;
+    }
+}
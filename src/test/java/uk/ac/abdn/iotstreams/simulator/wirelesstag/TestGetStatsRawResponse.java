@@ -0,0 +1,69 @@
+package uk.ac.abdn.iotstreams.simulator.wirelesstag;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.util.UkTime;
+
+import com.google.gson.stream.JsonReader;
+
+public class TestGetStatsRawResponse {
+
+    @Test
+    public void testReadsDays() throws IOException {
+        final List<ReadingBatch> batches = read(
+                "{\"other\":1,\"d\":[{\"date\":\"2/10/2016\",\"tods\":[3600,7200],\"temps\":[1.5,2.5],\"caps\":[40,null]}]}")
+                .batches(3)
+                .collect(Collectors.toList());
+        assertEquals(1, batches.size());
+        final ReadingBatch batch = batches.get(0);
+        assertEquals(2, batch.size());
+        final long epochDay = LocalDate.of(2016, 2, 10).toEpochDay();
+        assertEquals(UkTime.epochMillis(epochDay, 3600), batch.epochMillis(0));
+        assertEquals(UkTime.epochMillis(epochDay, 7200), batch.epochMillis(1));
+        assertEquals(2.5, batch.temperature(1), 0.0);
+        assertEquals(40, batch.humidity(0), 0.0);
+        assertTrue(Double.isNaN(batch.humidity(1)));
+        assertEquals(3, batch.sensorId(0));
+    }
+
+    @Test
+    public void testSkipsReadingsWithoutTimeOfDay() throws IOException {
+        final ReadingBatch batch = read(
+                "{\"d\":[{\"date\":\"2/10/2016\",\"tods\":[3600,null,7200],\"temps\":[1,2,3],\"caps\":[4,5,6]}]}")
+                .batches(3)
+                .findFirst()
+                .get();
+        assertEquals(2, batch.size());
+        assertEquals(1, batch.temperature(0), 0.0);
+        assertEquals(3, batch.temperature(1), 0.0);
+        assertEquals(6, batch.humidity(1), 0.0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsMalformedNumber() throws IOException {
+        read("{\"d\":[{\"date\":\"2/10/2016\",\"tods\":[3600],\"temps\":[\"warm\"],\"caps\":[4]}]}");
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsMalformedDate() throws IOException {
+        read("{\"d\":[{\"date\":\"2016-02-10\",\"tods\":[3600],\"temps\":[1],\"caps\":[4]}]}");
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsMissingTemperatures() throws IOException {
+        read("{\"d\":[{\"date\":\"2/10/2016\",\"tods\":[3600,7200],\"temps\":[1],\"caps\":[4,5]}]}");
+    }
+
+    private static GetStatsRawResponse read(final String json) throws IOException {
+        return GetStatsRawResponse.read(new JsonReader(new StringReader(json)));
+    }
+}
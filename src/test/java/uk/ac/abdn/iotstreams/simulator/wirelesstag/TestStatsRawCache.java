@@ -0,0 +1,55 @@
+package uk.ac.abdn.iotstreams.simulator.wirelesstag;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.abdn.iotstreams.simulator.sensordata.ReadingBatch;
+import uk.ac.abdn.iotstreams.simulator.wirelesstag.GetStatsRawResponse.SingleDayTemperatureHumidityReadings;
+
+import com.google.gson.stream.JsonReader;
+
+public class TestStatsRawCache {
+
+    private static final LocalDate DATE = LocalDate.of(2016, 2, 10);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadsDayAsWritten() throws IOException {
+        final StatsRawCache cache = new StatsRawCache(this.folder.getRoot().toPath());
+        assertFalse(cache.get(3, DATE).isPresent());
+        cache.put(3, GetStatsRawResponse.read(new JsonReader(new StringReader(
+                "{\"d\":[{\"date\":\"2/10/2016\",\"tods\":[3600,7200],\"temps\":[1.5,2.5],\"caps\":[40,null]}]}")))
+                .days().get(0));
+        final ReadingBatch batch = new GetStatsRawResponse(Collections.singletonList(cache.get(3, DATE).get()))
+                .batches(3)
+                .findFirst()
+                .get();
+        assertEquals(2, batch.size());
+        assertEquals(2.5, batch.temperature(1), 0.0);
+        assertTrue(Double.isNaN(batch.humidity(1)));
+        assertFalse(cache.get(4, DATE).isPresent());
+        assertFalse(cache.get(3, DATE.plusDays(1)).isPresent());
+    }
+
+    @Test
+    public void testIgnoresFileInUnknownFormat() throws IOException {
+        final Path root = this.folder.getRoot().toPath();
+        final StatsRawCache cache = new StatsRawCache(root);
+        cache.put(3, SingleDayTemperatureHumidityReadings.empty(DATE));
+        assertTrue(cache.get(3, DATE).isPresent());
+        Files.write(root.resolve("3").resolve(DATE + ".bin.gz"), new byte[] {1, 2, 3});
+        assertFalse(cache.get(3, DATE).isPresent());
+    }
+}
@@ -0,0 +1,184 @@
+package uk.ac.abdn.iotstreams.simulator.wirelesstag;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.abdn.iotstreams.util.Constants;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestWirelessTagClient {
+
+    private static final DateTimeFormatter MONTH_DAY_YEAR = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+    private static final Pattern DATES = Pattern.compile("\"fromDate\":\"([^\"]+)\",\"toDate\":\"([^\"]+)\"");
+
+    /** Today in UK time */
+    private final LocalDate today = LocalDate.now(Constants.UK);
+
+    /** The day the stub server has no readings for */
+    private final LocalDate dayWithoutReadings = this.today.minusDays(3);
+
+    /** Stub of the wireless tag server, answering GetStatsRaw with a reading for each day but one */
+    private HttpServer server;
+
+    /** The first and last date of each GetStatsRaw request, in order */
+    private final List<List<LocalDate>> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path cacheRoot;
+
+    private WirelessTagClient client;
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        this.cacheRoot = this.folder.getRoot().toPath().resolve("wirelesstag-cache");
+        this.client = new WirelessTagClient(
+                "http://127.0.0.1:" + this.server.getAddress().getPort(),
+                "me@example.org secret",
+                this.cacheRoot);
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void testFetchesPastDaysOnlyOnce() {
+        final LocalDate from = this.today.minusDays(5);
+        final LocalDate to = this.today.minusDays(1);
+        final List<LocalDate> fetched = this.fetch(from, to);
+        assertEquals(Arrays.asList(Arrays.asList(from, to)), this.requests);
+        assertEquals(Arrays.asList(from, from.plusDays(1), to.minusDays(1), to), fetched);
+        //The second fetch is answered from the cache alone
+        assertEquals(fetched, this.fetch(from, to));
+        assertEquals(1, this.requests.size());
+    }
+
+    @Test
+    public void testCachesPastDaysWithoutReadings() {
+        this.fetch(this.dayWithoutReadings, this.dayWithoutReadings);
+        assertTrue(Files.isRegularFile(this.file(this.dayWithoutReadings)));
+        assertTrue(this.fetch(this.dayWithoutReadings, this.dayWithoutReadings).isEmpty());
+        assertEquals(1, this.requests.size());
+    }
+
+    @Test
+    public void testNeverCachesToday() {
+        assertEquals(Arrays.asList(this.today), this.fetch(this.today, this.today));
+        assertFalse(Files.exists(this.file(this.today)));
+        this.fetch(this.today, this.today);
+        assertEquals(2, this.requests.size());
+    }
+
+    @Test
+    public void testRequestsEachRunOfMissingDays() throws IOException {
+        this.fetch(this.today.minusDays(5), this.today.minusDays(1));
+        Files.delete(this.file(this.today.minusDays(4)));
+        Files.delete(this.file(this.today.minusDays(3)));
+        this.requests.clear();
+        final List<LocalDate> fetched = this.fetch(this.today.minusDays(7), this.today);
+        assertEquals(
+                Arrays.asList(
+                        Arrays.asList(this.today.minusDays(7), this.today.minusDays(6)),
+                        Arrays.asList(this.today.minusDays(4), this.today.minusDays(3)),
+                        Arrays.asList(this.today, this.today)),
+                this.requests);
+        final List<LocalDate> expected = new ArrayList<>();
+        for (LocalDate date = this.today.minusDays(7); !date.isAfter(this.today); date = date.plusDays(1)) {
+            if (!date.equals(this.dayWithoutReadings)) {
+                expected.add(date);
+            }
+        }
+        assertEquals(expected, fetched);
+    }
+
+    /**
+     * @param from First date to fetch
+     * @param to Last date to fetch
+     * @return The date of each reading fetched, in order
+     */
+    private List<LocalDate> fetch(final LocalDate from, final LocalDate to) {
+        return this.client.getStatsRaw(3, from, to)
+                .map(reading -> reading.time().toLocalDate())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param date Any date
+     * @return The cache file of wireless tag 3 for that date
+     */
+    private Path file(final LocalDate date) {
+        return this.cacheRoot.resolve("3").resolve(date + ".bin.gz");
+    }
+
+    /**
+     * Answers GetStatsRaw with one reading at noon of each requested day but dayWithoutReadings,
+     * and any other request with an empty response.
+     * @param exchange The request
+     * @throws IOException if the response could not be sent
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String request;
+        try (final InputStream in = exchange.getRequestBody()) {
+            final StringBuilder builder = new StringBuilder();
+            for (int c = in.read(); c >= 0; c = in.read()) {
+                builder.append((char) c);
+            }
+            request = builder.toString();
+        }
+        String body = "{\"d\":[]}";
+        if (exchange.getRequestURI().getPath().endsWith("/GetStatsRaw")) {
+            final Matcher matcher = DATES.matcher(request);
+            assertTrue(request, matcher.find());
+            final LocalDate from = LocalDate.parse(matcher.group(1), MONTH_DAY_YEAR);
+            final LocalDate to = LocalDate.parse(matcher.group(2), MONTH_DAY_YEAR);
+            this.requests.add(Arrays.asList(from, to));
+            final List<String> days = new ArrayList<>();
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                if (!date.equals(this.dayWithoutReadings)) {
+                    days.add(String.format(
+                            "{\"date\":\"%d/%d/%d\",\"tods\":[43200],\"temps\":[3.5],\"caps\":[40]}",
+                            date.getMonthValue(),
+                            date.getDayOfMonth(),
+                            date.getYear()));
+                }
+            }
+            body = "{\"d\":[" + String.join(",", days) + "]}";
+        }
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
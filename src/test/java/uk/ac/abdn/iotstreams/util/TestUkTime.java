@@ -0,0 +1,78 @@
+package uk.ac.abdn.iotstreams.util;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+import org.junit.Test;
+
+public class TestUkTime {
+
+    @Test
+    public void testEveryTransition() {
+        final ZoneRules rules = Constants.UK.getRules();
+        final Instant end = LocalDateTime.of(2101, 1, 1, 0, 0).toInstant(ZoneOffset.UTC);
+        int numTransitions = 0;
+        ZoneOffsetTransition transition = rules.nextTransition(
+                LocalDateTime.of(1970, 1, 1, 0, 0).toInstant(ZoneOffset.UTC));
+        while (transition != null && transition.getInstant().isBefore(end)) {
+            //Every minute of the hours around the transition, including the gap or overlap
+            final LocalDateTime from = transition.getDateTimeBefore().minusHours(3);
+            final LocalDateTime to = transition.getDateTimeBefore().plusHours(3);
+            for (LocalDateTime local = from; local.isBefore(to); local = local.plusMinutes(1)) {
+                assertLikeJavaTime(local);
+            }
+            assertLikeJavaTime(transition.getDateTimeBefore().minusSeconds(1));
+            assertLikeJavaTime(transition.getDateTimeAfter().minusSeconds(1));
+            numTransitions++;
+            transition = rules.nextTransition(transition.getInstant());
+        }
+        //Two per year, bar the years of British Standard Time
+        assertTrue(numTransitions > 250);
+    }
+
+    @Test
+    public void testOutsideTable() {
+        assertLikeJavaTime(LocalDateTime.of(1969, 6, 1, 12, 0, 0));
+        assertLikeJavaTime(LocalDateTime.of(1968, 2, 18, 2, 30, 0));
+        assertLikeJavaTime(LocalDateTime.of(2101, 3, 27, 1, 30, 0));
+        assertLikeJavaTime(LocalDateTime.of(2101, 10, 30, 1, 30, 0));
+        assertLikeJavaTime(LocalDateTime.of(2150, 7, 1, 0, 0, 0));
+    }
+
+    @Test
+    public void testEveryDayOfLeapYear() {
+        for (LocalDateTime local = LocalDateTime.of(2015, 12, 31, 23, 59, 59);
+                local.getYear() < 2017;
+                local = local.plusDays(1)) {
+            assertLikeJavaTime(local);
+        }
+    }
+
+    @Test
+    public void testZoned() {
+        final LocalDateTime local = LocalDateTime.of(2016, 3, 27, 3, 0, 0);
+        assertEquals(local.atZone(Constants.UK), UkTime.zoned(UkTime.epochMillis(2016, 3, 27, 3, 0, 0)));
+    }
+
+    /**
+     * @param local A UK local date/time
+     */
+    private static void assertLikeJavaTime(final LocalDateTime local) {
+        final long expected = local.atZone(Constants.UK).toInstant().toEpochMilli();
+        assertEquals(local.toString(), expected, UkTime.epochMillis(
+                local.getYear(),
+                local.getMonthValue(),
+                local.getDayOfMonth(),
+                local.getHour(),
+                local.getMinute(),
+                local.getSecond()));
+        assertEquals(local.toString(), expected, UkTime.epochMillis(
+                local.toLocalDate().toEpochDay(),
+                local.toLocalTime().toSecondOfDay()));
+    }
+}